@@ -0,0 +1,55 @@
+package com.apple.snowflakemigration.service;
+
+import com.apple.snowflakemigration.util.NeptuneRecords;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Column discovery of a label, which replaced getColumnsToBeCreated: every record of the label
+// goes through LabelSchema.accept during the schema scan.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LabelSchemaBenchmark {
+
+    @Param({"10000"})
+    int records;
+
+    private JsonNode[] nodes;
+
+    @Setup
+    public void setUp() throws Exception {
+        ObjectMapper objectMapper = new ObjectMapper();
+        Random random = new Random(42);
+        nodes = new JsonNode[records];
+        for (int i = 0; i < records; i++) {
+            // Records of one label with a varying number of properties, like a sparse export
+            nodes[i] = objectMapper.readTree(NeptuneRecords.vertex(random, i, 4 + i % 8));
+        }
+    }
+
+    @Benchmark
+    public String[] columnsToBeCreated() throws Exception {
+        LabelSchema schema = new LabelSchema();
+        for (JsonNode node : nodes) {
+            schema.accept(node);
+        }
+        return schema.getColumns();
+    }
+}
@@ -0,0 +1,64 @@
+package com.apple.snowflakemigration.util;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonValuesBenchmark {
+
+    @Param({"8", "32"})
+    int properties;
+
+    private JsonNode record;
+    private RecordProjector projector;
+    private String[] row;
+
+    @Setup
+    public void setUp() throws Exception {
+        record = new ObjectMapper().readTree(NeptuneRecords.vertex(new Random(42), 1, properties));
+        String[] fields = new String[record.size()];
+        Iterator<String> names = record.fieldNames();
+        for (int i = 0; names.hasNext(); i++) {
+            fields[i] = names.next();
+        }
+        projector = new RecordProjector(fields, null);
+        row = new String[fields.length];
+    }
+
+    @Benchmark
+    public String[] parseJsonColumns() throws Exception {
+        return JSONUtils.parseJsonColumns(record);
+    }
+
+    @Benchmark
+    public String[] parseJsonValues() {
+        return JSONUtils.parseJsonValues(record);
+    }
+
+    // The pipeline path, projecting into a reused row buffer
+    @Benchmark
+    public String[] projectRecord() {
+        projector.project(record, row, 0);
+        return row;
+    }
+}
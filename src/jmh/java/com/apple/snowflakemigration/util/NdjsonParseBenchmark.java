@@ -0,0 +1,65 @@
+package com.apple.snowflakemigration.util;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingIterator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Parsing half of S3Utils.getFileContent: the object body is already in memory, so only the NDJSON
+// streaming and the JsonNode trees are measured.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NdjsonParseBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    int records;
+
+    @Param({"8", "32"})
+    int properties;
+
+    private byte[] file;
+
+    @Setup
+    public void setUp() {
+        file = NeptuneRecords.vertexFile(records, properties);
+    }
+
+    @Benchmark
+    public List<JsonNode> getFileContent() throws Exception {
+        List<JsonNode> jsonList = new ArrayList<>();
+        try (MappingIterator<JsonNode> iterator = JSONUtils.readRecords(new ByteArrayInputStream(file))) {
+            while (iterator.hasNextValue()) {
+                jsonList.add(iterator.nextValue());
+            }
+        }
+        return jsonList;
+    }
+
+    @Benchmark
+    public void streamRecords(Blackhole blackhole) throws Exception {
+        try (MappingIterator<JsonNode> iterator = JSONUtils.readRecords(file, 0, file.length)) {
+            while (iterator.hasNextValue()) {
+                blackhole.consume(iterator.nextValue());
+            }
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.apple.snowflakemigration.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+// Synthetic Neptune export records shaped like the nodes/ and edges/ files: system fields with a ~
+// prefix, scalar properties and one multi-valued property. Seeded so every fork sees the same data.
+public final class NeptuneRecords {
+
+    private static final String[] LABELS = {"person", "software", "company", "city"};
+
+    private NeptuneRecords() {
+    }
+
+    public static String vertex(Random random, int id, int properties) {
+        StringBuilder json = new StringBuilder(64 + properties * 24);
+        json.append("{\"~id\":\"v").append(id).append("\",\"~label\":\"").append(LABELS[id % LABELS.length]).append('"');
+        for (int i = 0; i < properties; i++) {
+            json.append(",\"prop").append(i).append("\":");
+            if (i % 3 == 0) {
+                json.append(random.nextInt(100_000));
+            } else {
+                json.append('"').append(Long.toString(random.nextLong() & Long.MAX_VALUE, 36)).append('"');
+            }
+        }
+        json.append(",\"tags\":[\"a").append(random.nextInt(10)).append("\",\"b").append(random.nextInt(10)).append("\"]}");
+        return json.toString();
+    }
+
+    public static String edge(Random random, int id, int vertexCount) {
+        return "{\"~id\":\"e" + id + "\",\"~label\":\"knows\",\"~from\":\"v" + random.nextInt(vertexCount)
+                + "\",\"~to\":\"v" + random.nextInt(vertexCount) + "\",\"weight\":" + random.nextInt(10) + "}";
+    }
+
+    public static byte[] vertexFile(int records, int properties) {
+        Random random = new Random(42);
+        StringBuilder file = new StringBuilder();
+        for (int i = 0; i < records; i++) {
+            file.append(vertex(random, i, properties)).append('\n');
+        }
+        return file.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
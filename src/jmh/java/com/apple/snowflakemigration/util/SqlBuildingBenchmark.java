@@ -0,0 +1,49 @@
+package com.apple.snowflakemigration.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// Statement text built by SnowflakeUtils.insertData and createTable, without the JDBC round trip
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SqlBuildingBenchmark {
+
+    @Param({"8", "64"})
+    int columnCount;
+
+    private String[] columns;
+
+    @Setup
+    public void setUp() {
+        columns = new String[columnCount];
+        columns[0] = "id";
+        for (int i = 1; i < columnCount; i++) {
+            columns[i] = "prop" + i;
+        }
+    }
+
+    @Benchmark
+    public String buildInsertSql() {
+        return SnowflakeUtils.buildInsertSql("person", columns);
+    }
+
+    @Benchmark
+    public String buildCreateTableSql() {
+        return SnowflakeUtils.buildCreateTableSql("person", columns);
+    }
+}
@@ -0,0 +1,76 @@
+package com.apple.snowflakemigration.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+// The lookup behind SnowflakeService.getVertexRefTable, once per edge endpoint
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VertexIdIndexBenchmark {
+
+    private static final String[] LABELS = {"person", "software", "company", "city"};
+
+    @Param({"memory", "mapped"})
+    String kind;
+
+    @Param({"1000000"})
+    int vertices;
+
+    private VertexIdIndex index;
+    private Path directory;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        if (kind.equals("mapped")) {
+            directory = Files.createTempDirectory("vertex-index-bench");
+            index = MappedVertexIdIndex.open(directory);
+        } else {
+            index = new InMemoryVertexIdIndex();
+        }
+        for (int i = 0; i < vertices; i++) {
+            index.put("v" + i, LABELS[i % LABELS.length]);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        index.close();
+        if (directory != null) {
+            try (Stream<Path> files = Files.walk(directory)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    @Benchmark
+    public String getLabelHit() {
+        return index.getLabel("v" + ThreadLocalRandom.current().nextInt(vertices));
+    }
+
+    @Benchmark
+    public String getLabelMiss() {
+        return index.getLabel("x" + ThreadLocalRandom.current().nextInt(vertices));
+    }
+}
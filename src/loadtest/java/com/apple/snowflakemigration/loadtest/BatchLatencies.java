@@ -0,0 +1,42 @@
+package com.apple.snowflakemigration.loadtest;
+
+import com.apple.snowflakemigration.util.SnowflakeBatchWriter;
+
+import java.util.Arrays;
+
+// Latency of every batch a load test sink wrote, kept whole so the percentiles are exact. A run
+// writes a batch per thousand rows or so, which keeps the samples small even for large exports.
+public class BatchLatencies implements SnowflakeBatchWriter.BatchListener {
+
+    private long[] nanos = new long[1024];
+    private int count;
+    private long rows;
+
+    @Override
+    public synchronized void onBatch(String tableName, int rows, long bytes, long elapsedNanos) {
+        if (count == nanos.length) {
+            nanos = Arrays.copyOf(nanos, count * 2);
+        }
+        nanos[count++] = elapsedNanos;
+        this.rows += rows;
+    }
+
+    public synchronized int getCount() {
+        return count;
+    }
+
+    public synchronized long getRows() {
+        return rows;
+    }
+
+    // Nearest-rank percentile, 0 without batches
+    public synchronized long percentileNanos(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        long[] sorted = Arrays.copyOf(nanos, count);
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(percentile / 100 * count);
+        return sorted[Math.min(count, Math.max(1, rank)) - 1];
+    }
+}
@@ -0,0 +1,77 @@
+package com.apple.snowflakemigration.loadtest;
+
+import com.apple.snowflakemigration.model.ColumnType;
+import com.apple.snowflakemigration.model.SnowflakeProperties;
+import com.apple.snowflakemigration.util.DeadLetterFile;
+import com.apple.snowflakemigration.util.RowSink;
+import com.apple.snowflakemigration.util.RowSinkProvider;
+import com.apple.snowflakemigration.util.SchemaCatalog;
+import com.apple.snowflakemigration.util.SchemaChanges;
+import com.apple.snowflakemigration.util.SnowflakeBatchWriter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Base of the sinks that need no database: the schema starts out empty and every DDL statement
+// counts as applied, and rows are buffered into batches of batchRows like SnowflakeBatchWriter
+// does, so the batch latencies compare with those of a real table.
+public abstract class BufferingSinkProvider implements RowSinkProvider {
+
+    private final int batchRows;
+    private final SnowflakeBatchWriter.BatchListener listener;
+
+    protected BufferingSinkProvider(int batchRows, SnowflakeBatchWriter.BatchListener listener) {
+        this.batchRows = Math.max(1, batchRows);
+        this.listener = listener;
+    }
+
+    // Called with every full batch and the last batch of a sink, the rows are copies the provider may keep
+    protected abstract void accept(String tableName, List<String[]> rows);
+
+    @Override
+    public SchemaCatalog getCatalog(SnowflakeProperties snowflakeProps, String schema) {
+        return new SchemaCatalog(schema);
+    }
+
+    @Override
+    public void applySchemaChanges(SnowflakeProperties snowflakeProps, String schema, SchemaChanges changes) {
+        for (int i = 0; i < changes.size(); i++) {
+            changes.applied(i);
+        }
+    }
+
+    @Override
+    public RowSink openRowSink(SnowflakeProperties snowflakeProps, String schema, String tableName, String[] columns,
+                               ColumnType[] types, String[] mergeKeys, DeadLetterFile deadLetters) {
+        return new RowSink() {
+            private List<String[]> pending = new ArrayList<>(batchRows);
+
+            @Override
+            public void write(String[] values) {
+                pending.add(values);
+                if (pending.size() >= batchRows) {
+                    flush();
+                }
+            }
+
+            @Override
+            public void flush() {
+                if (pending.isEmpty()) {
+                    return;
+                }
+                List<String[]> rows = pending;
+                pending = new ArrayList<>(batchRows);
+                long start = System.nanoTime();
+                accept(tableName, rows);
+                if (listener != null) {
+                    listener.onBatch(tableName, rows.size(), 0, System.nanoTime() - start);
+                }
+            }
+
+            @Override
+            public void close() {
+                flush();
+            }
+        };
+    }
+}
@@ -0,0 +1,32 @@
+package com.apple.snowflakemigration.loadtest;
+
+import com.apple.snowflakemigration.util.SnowflakeBatchWriter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Keeps every row per table, so a run can be checked row by row and its heap use includes the data
+public class InMemorySinkProvider extends BufferingSinkProvider {
+
+    private final Map<String, List<String[]>> tables = new ConcurrentHashMap<>();
+
+    public InMemorySinkProvider(int batchRows, SnowflakeBatchWriter.BatchListener listener) {
+        super(batchRows, listener);
+    }
+
+    @Override
+    protected void accept(String tableName, List<String[]> batch) {
+        tables.computeIfAbsent(tableName, k -> Collections.synchronizedList(new ArrayList<>())).addAll(batch);
+    }
+
+    public List<String[]> getRows(String tableName) {
+        return tables.getOrDefault(tableName, List.of());
+    }
+
+    public long getRowCount() {
+        return tables.values().stream().mapToLong(List::size).sum();
+    }
+}
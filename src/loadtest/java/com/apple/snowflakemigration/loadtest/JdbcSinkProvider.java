@@ -0,0 +1,89 @@
+package com.apple.snowflakemigration.loadtest;
+
+import com.apple.snowflakemigration.model.ColumnType;
+import com.apple.snowflakemigration.model.SnowflakeProperties;
+import com.apple.snowflakemigration.util.ConnectionReleasingSink;
+import com.apple.snowflakemigration.util.DeadLetterFile;
+import com.apple.snowflakemigration.util.RowSink;
+import com.apple.snowflakemigration.util.RowSinkProvider;
+import com.apple.snowflakemigration.util.SchemaCatalog;
+import com.apple.snowflakemigration.util.SchemaChanges;
+import com.apple.snowflakemigration.util.SnowflakeBatchWriter;
+import com.apple.snowflakemigration.util.SnowflakeUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Writes the rows through SnowflakeBatchWriter into an embedded database such as H2
+// (jdbc:h2:mem:loadtest;DB_CLOSE_DELAY=-1), which measures JDBC binding and batching without a
+// network. The DDL of a run is written for Snowflake, VARIANT columns and foreign keys across schemas
+// have no counterpart in most embedded databases, so every table is created with TEXT columns when
+// its first sink opens and the values are inserted as strings.
+public class JdbcSinkProvider implements RowSinkProvider {
+
+    private static Logger log = LoggerFactory.getLogger(JdbcSinkProvider.class);
+
+    private final String url;
+    private final int batchRows;
+    private final long batchBytes;
+    private final SnowflakeBatchWriter.BatchListener listener;
+    private final Set<String> createdTables = ConcurrentHashMap.newKeySet();
+
+    public JdbcSinkProvider(String url, int batchRows, long batchBytes, SnowflakeBatchWriter.BatchListener listener) {
+        this.url = url;
+        this.batchRows = batchRows;
+        this.batchBytes = batchBytes;
+        this.listener = listener;
+    }
+
+    @Override
+    public SchemaCatalog getCatalog(SnowflakeProperties snowflakeProps, String schema) {
+        return new SchemaCatalog(schema);
+    }
+
+    @Override
+    public void applySchemaChanges(SnowflakeProperties snowflakeProps, String schema, SchemaChanges changes) {
+        log.info("JdbcSinkProvider.applySchemaChanges(): schema={}, skipping statements={}, tables are created when their sink opens",
+                schema, changes.size());
+    }
+
+    @Override
+    public RowSink openRowSink(SnowflakeProperties snowflakeProps, String schema, String tableName, String[] columns,
+                               ColumnType[] types, String[] mergeKeys, DeadLetterFile deadLetters) throws SQLException {
+        Connection connection = DriverManager.getConnection(url);
+        try {
+            String table = schema + "." + tableName;
+            ensureTable(connection, schema, table, columns);
+            SnowflakeBatchWriter writer = new SnowflakeBatchWriter(connection, table, columns, null, batchRows, batchBytes, listener);
+            writer.setDeadLetters(deadLetters);
+            return new ConnectionReleasingSink(writer, connection);
+        } catch (SQLException e) {
+            connection.close();
+            throw e;
+        }
+    }
+
+    private void ensureTable(Connection connection, String schema, String table, String[] columns) throws SQLException {
+        if (createdTables.contains(table.toUpperCase(Locale.ROOT))) {
+            return;
+        }
+        synchronized (createdTables) {
+            if (createdTables.contains(table.toUpperCase(Locale.ROOT))) {
+                return;
+            }
+            try (Statement stmt = connection.createStatement()) {
+                stmt.execute("CREATE SCHEMA IF NOT EXISTS " + schema);
+                stmt.execute(SnowflakeUtils.buildCreateTableSql(table, columns, null, true));
+            }
+            createdTables.add(table.toUpperCase(Locale.ROOT));
+            log.info("JdbcSinkProvider.ensureTable(): Created table={}, columns={}", table, columns.length);
+        }
+    }
+}
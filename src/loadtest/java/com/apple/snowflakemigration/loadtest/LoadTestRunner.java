@@ -0,0 +1,140 @@
+package com.apple.snowflakemigration.loadtest;
+
+import com.apple.snowflakemigration.SnowflakeMigrationApplication;
+import com.apple.snowflakemigration.model.MigrationJobProgress;
+import com.apple.snowflakemigration.model.SnowflakeProperties;
+import com.apple.snowflakemigration.service.MigrationRun;
+import com.apple.snowflakemigration.service.SnowflakeService;
+import com.apple.snowflakemigration.util.RowSinkProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// Generates a synthetic export, runs exportS3ObjectsToSnowflake over it with S3 replaced by the local
+// directory and Snowflake by a load test sink, and reports rows/sec, bytes/sec, p50/p99 batch latency
+// and peak heap. Options are --name=value:
+//   --sink=null|memory|jdbc       where the rows go, null by default
+//   --jdbc-url=...                database of the jdbc sink, an in-memory H2 database by default
+//   --dir=...                     where the export is written, a temporary directory by default
+//   --vertices, --edges           record counts
+//   --vertex-labels, --edge-labels, --properties, --skew, --file-bytes, --seed   shape of the export
+//   --batch-rows                  rows per batch of the sink
+// Other options are passed on to Spring, so --migration.pipeline.sink-concurrency=32 tunes the run.
+public class LoadTestRunner {
+
+    private static Logger log = LoggerFactory.getLogger(LoadTestRunner.class);
+
+    private static final String PREFIX = "export/";
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        StringBuilder springArgs = new StringBuilder();
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            String name = arg.startsWith("--") && equals > 2 ? arg.substring(2, equals) : null;
+            if (name != null && !name.contains(".")) {
+                options.put(name, arg.substring(equals + 1));
+            } else {
+                springArgs.append(arg).append('\n');
+            }
+        }
+
+        Path dir = options.containsKey("dir") ? Path.of(options.get("dir")) : Files.createTempDirectory("snowflake-migration-loadtest");
+        NeptuneExportGenerator generator = new NeptuneExportGenerator();
+        generator.setVertices(Long.parseLong(options.getOrDefault("vertices", "100000")));
+        generator.setEdges(Long.parseLong(options.getOrDefault("edges", "200000")));
+        generator.setVertexLabels(Integer.parseInt(options.getOrDefault("vertex-labels", "4")));
+        generator.setEdgeLabels(Integer.parseInt(options.getOrDefault("edge-labels", "2")));
+        generator.setProperties(Integer.parseInt(options.getOrDefault("properties", "8")));
+        generator.setSkew(Double.parseDouble(options.getOrDefault("skew", "1.0")));
+        generator.setFileBytes(Long.parseLong(options.getOrDefault("file-bytes", String.valueOf(16L * 1024 * 1024))));
+        generator.setSeed(Long.parseLong(options.getOrDefault("seed", "42")));
+        NeptuneExportGenerator.Summary export = generator.generate(dir, PREFIX);
+
+        BatchLatencies latencies = new BatchLatencies();
+        int batchRows = Integer.parseInt(options.getOrDefault("batch-rows", "1000"));
+        String sink = options.getOrDefault("sink", "null");
+        RowSinkProvider provider = switch (sink) {
+            case "null" -> new NullSinkProvider(batchRows, latencies);
+            case "memory" -> new InMemorySinkProvider(batchRows, latencies);
+            case "jdbc" -> new JdbcSinkProvider(options.getOrDefault("jdbc-url", "jdbc:h2:mem:loadtest;DB_CLOSE_DELAY=-1"),
+                    batchRows, Long.MAX_VALUE, latencies);
+            default -> throw new IllegalArgumentException("Unknown sink " + sink + ", expected null, memory or jdbc");
+        };
+
+        // Credentials are required properties even though nothing talks to AWS, explicit arguments win over these
+        String[] defaults = {
+                "--cloud.aws.s3.local-dir=" + dir,
+                "--cloud.aws.s3.prefix=" + PREFIX,
+                "--cloud.aws.s3.cache.dir=",
+                "--cloud.aws.credentials.accessKey=loadtest",
+                "--cloud.aws.credentials.secretKey=loadtest",
+                "--cloud.aws.credentials.sessionToken=loadtest",
+                "--migration.dead-letter.dir=" + dir.resolve("dead-letters")};
+        String[] extra = springArgs.isEmpty() ? new String[0] : springArgs.toString().split("\n");
+        String[] applicationArgs = new String[defaults.length + extra.length];
+        System.arraycopy(defaults, 0, applicationArgs, 0, defaults.length);
+        System.arraycopy(extra, 0, applicationArgs, defaults.length, extra.length);
+
+        SpringApplication application = new SpringApplication(SnowflakeMigrationApplication.class);
+        application.setWebApplicationType(WebApplicationType.NONE);
+        try (ConfigurableApplicationContext context = application.run(applicationArgs)) {
+            SnowflakeService service = context.getBean(SnowflakeService.class);
+            service.setSinkProvider(provider);
+
+            SnowflakeProperties snowflakeProperties = new SnowflakeProperties();
+            snowflakeProperties.setAccount("loadtest");
+            snowflakeProperties.setVertexSchema("VERTEX");
+            snowflakeProperties.setEdgeSchema("EDGE");
+
+            System.gc();
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                pool.resetPeakUsage();
+            }
+            long start = System.nanoTime();
+            MigrationJobProgress progress;
+            try (MigrationRun run = service.newRun("loadtest-" + System.currentTimeMillis(), snowflakeProperties)) {
+                service.exportS3ObjectsToSnowflake(run);
+                progress = run.getProgress().snapshot();
+            }
+            long elapsedNanos = System.nanoTime() - start;
+            report(sink, export, progress, latencies, elapsedNanos, peakHeapBytes());
+        }
+    }
+
+    // The sum of the peaks of the heap pools, an upper bound since the pools need not peak at the same time
+    private static long peakHeapBytes() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    private static void report(String sink, NeptuneExportGenerator.Summary export, MigrationJobProgress progress,
+                               BatchLatencies latencies, long elapsedNanos, long peakHeapBytes) {
+        double seconds = Math.max(1, elapsedNanos) / 1e9;
+        log.info("LoadTestRunner.report(): sink={}, phase={}, files={}, exportBytes={}, rows={}, batches={}, elapsedMs={}, errors={}",
+                sink, progress.getPhase(), export.files(), export.bytes(), progress.getRowsLoaded(), latencies.getCount(),
+                TimeUnit.NANOSECONDS.toMillis(elapsedNanos), progress.getErrorCount());
+        log.info("LoadTestRunner.report(): rowsPerSec={}, mbPerSec={}, p50BatchMs={}, p99BatchMs={}, peakHeapMb={}",
+                String.format("%.0f", progress.getRowsLoaded() / seconds),
+                String.format("%.1f", export.bytes() / seconds / (1024 * 1024)),
+                String.format("%.3f", latencies.percentileNanos(50) / 1e6),
+                String.format("%.3f", latencies.percentileNanos(99) / 1e6),
+                peakHeapBytes / (1024 * 1024));
+    }
+}
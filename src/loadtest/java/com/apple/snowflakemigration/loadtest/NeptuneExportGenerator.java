@@ -0,0 +1,214 @@
+package com.apple.snowflakemigration.loadtest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+// Writes a synthetic Neptune export under <root>/<prefix>: nodes/<label>-<n>.json and
+// edges/<label>-<n>.json NDJSON files, rolled once they reach fileBytes. Labels get their share of
+// the records from a Zipf distribution with exponent skew, and a record has property i with
+// probability 1 / (i + 1)^skew, so like in real graphs a few labels and properties are common and
+// the rest are rare. skew 0 gives labels of equal size and records with every property. Seeded, so
+// the same settings give the same export.
+public class NeptuneExportGenerator {
+
+    private static Logger log = LoggerFactory.getLogger(NeptuneExportGenerator.class);
+
+    private static final String[] VERTEX_LABELS = {"person", "software", "company", "city", "country", "product",
+            "purchase", "review", "tag", "account"};
+    private static final String[] EDGE_LABELS = {"knows", "created", "worksAt", "livesIn", "locatedIn", "bought",
+            "wrote", "tagged", "owns", "follows"};
+
+    public record Summary(long files, long bytes, long vertices, long edges) {
+    }
+
+    private int vertexLabels = 4;
+    private int edgeLabels = 2;
+    private long vertices = 100_000;
+    private long edges = 200_000;
+    private int properties = 8;
+    private double skew = 1.0;
+    private long fileBytes = 16L * 1024 * 1024;
+    private long seed = 42;
+
+    public Summary generate(Path root, String prefix) throws IOException {
+        long start = System.nanoTime();
+        Random random = new Random(seed);
+        Summary nodes = write(root.resolve(prefix + "nodes"), labels(VERTEX_LABELS, vertexLabels), vertices, random, false);
+        Summary edgeFiles = write(root.resolve(prefix + "edges"), labels(EDGE_LABELS, edgeLabels), edges, random, true);
+        Summary summary = new Summary(nodes.files() + edgeFiles.files(), nodes.bytes() + edgeFiles.bytes(), vertices, edges);
+        log.info("NeptuneExportGenerator.generate(): root={}, files={}, bytes={}, vertices={}, edges={}, elapsedMs={}",
+                root, summary.files(), summary.bytes(), vertices, edges, (System.nanoTime() - start) / 1_000_000);
+        return summary;
+    }
+
+    private Summary write(Path folder, String[] labels, long records, Random random, boolean edge) throws IOException {
+        Files.createDirectories(folder);
+        double[] cumulative = zipf(labels.length);
+        LabelFiles[] files = new LabelFiles[labels.length];
+        for (int i = 0; i < labels.length; i++) {
+            files[i] = new LabelFiles(folder, labels[i]);
+        }
+        StringBuilder json = new StringBuilder(256);
+        try {
+            for (long id = 0; id < records; id++) {
+                int label = pick(cumulative, random.nextDouble());
+                json.setLength(0);
+                if (edge) {
+                    appendEdge(json, id, labels[label], random);
+                } else {
+                    appendVertex(json, id, labels[label], random);
+                }
+                files[label].write(json);
+            }
+        } finally {
+            for (LabelFiles file : files) {
+                file.close();
+            }
+        }
+        long fileCount = 0;
+        long bytes = 0;
+        for (LabelFiles file : files) {
+            fileCount += file.fileCount;
+            bytes += file.totalBytes;
+        }
+        return new Summary(fileCount, bytes, 0, 0);
+    }
+
+    // Vertex ids are v<n> for n below vertices, so every edge references a vertex of the export
+    private void appendVertex(StringBuilder json, long id, String label, Random random) {
+        json.append("{\"~id\":\"v").append(id).append("\",\"~label\":\"").append(label).append('"');
+        appendProperties(json, random);
+        json.append("}\n");
+    }
+
+    private void appendEdge(StringBuilder json, long id, String label, Random random) {
+        long vertexCount = Math.max(1, vertices);
+        json.append("{\"~id\":\"e").append(id).append("\",\"~label\":\"").append(label)
+                .append("\",\"~from\":\"v").append(Math.floorMod(random.nextLong(), vertexCount))
+                .append("\",\"~to\":\"v").append(Math.floorMod(random.nextLong(), vertexCount)).append('"');
+        appendProperties(json, random);
+        json.append("}\n");
+    }
+
+    // Property types rotate through number, string, boolean and array, so every column type shows up
+    private void appendProperties(StringBuilder json, Random random) {
+        for (int i = 0; i < properties; i++) {
+            if (random.nextDouble() >= 1 / Math.pow(i + 1, skew)) {
+                continue;
+            }
+            json.append(",\"prop").append(i).append("\":");
+            switch (i % 4) {
+                case 0 -> json.append(random.nextInt(1_000_000));
+                case 1 -> json.append('"').append(Long.toString(random.nextLong() & Long.MAX_VALUE, 36)).append('"');
+                case 2 -> json.append(random.nextBoolean());
+                default -> json.append("[\"a").append(random.nextInt(10)).append("\",\"b").append(random.nextInt(10)).append("\"]");
+            }
+        }
+    }
+
+    private static String[] labels(String[] names, int count) {
+        String[] labels = new String[Math.max(1, count)];
+        for (int i = 0; i < labels.length; i++) {
+            labels[i] = i < names.length ? names[i] : names[i % names.length] + (i / names.length);
+        }
+        return labels;
+    }
+
+    private double[] zipf(int count) {
+        double[] cumulative = new double[count];
+        double sum = 0;
+        for (int i = 0; i < count; i++) {
+            sum += 1 / Math.pow(i + 1, skew);
+            cumulative[i] = sum;
+        }
+        for (int i = 0; i < count; i++) {
+            cumulative[i] /= sum;
+        }
+        return cumulative;
+    }
+
+    private static int pick(double[] cumulative, double value) {
+        for (int i = 0; i < cumulative.length - 1; i++) {
+            if (value < cumulative[i]) {
+                return i;
+            }
+        }
+        return cumulative.length - 1;
+    }
+
+    // The open file of a label, a new one is started once it reaches fileBytes
+    private final class LabelFiles implements AutoCloseable {
+        private final Path folder;
+        private final String label;
+        private OutputStream out;
+        private long bytes;
+        private int fileCount;
+        private long totalBytes;
+
+        LabelFiles(Path folder, String label) {
+            this.folder = folder;
+            this.label = label;
+        }
+
+        void write(CharSequence line) throws IOException {
+            if (out == null || bytes >= fileBytes) {
+                close();
+                out = new BufferedOutputStream(Files.newOutputStream(folder.resolve(String.format("%s-%05d.json", label, fileCount))), 1 << 16);
+                fileCount++;
+                bytes = 0;
+            }
+            byte[] data = line.toString().getBytes(StandardCharsets.UTF_8);
+            out.write(data);
+            bytes += data.length;
+            totalBytes += data.length;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (out != null) {
+                out.close();
+                out = null;
+            }
+        }
+    }
+
+    public void setVertexLabels(int vertexLabels) {
+        this.vertexLabels = vertexLabels;
+    }
+
+    public void setEdgeLabels(int edgeLabels) {
+        this.edgeLabels = edgeLabels;
+    }
+
+    public void setVertices(long vertices) {
+        this.vertices = vertices;
+    }
+
+    public void setEdges(long edges) {
+        this.edges = edges;
+    }
+
+    public void setProperties(int properties) {
+        this.properties = properties;
+    }
+
+    public void setSkew(double skew) {
+        this.skew = skew;
+    }
+
+    public void setFileBytes(long fileBytes) {
+        this.fileBytes = fileBytes;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+}
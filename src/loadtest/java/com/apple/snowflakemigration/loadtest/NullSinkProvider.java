@@ -0,0 +1,25 @@
+package com.apple.snowflakemigration.loadtest;
+
+import com.apple.snowflakemigration.util.SnowflakeBatchWriter;
+
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+// Counts the rows and drops them, the run is as fast as fetching, parsing and projecting allow
+public class NullSinkProvider extends BufferingSinkProvider {
+
+    private final LongAdder rows = new LongAdder();
+
+    public NullSinkProvider(int batchRows, SnowflakeBatchWriter.BatchListener listener) {
+        super(batchRows, listener);
+    }
+
+    @Override
+    protected void accept(String tableName, List<String[]> batch) {
+        rows.add(batch.size());
+    }
+
+    public long getRowCount() {
+        return rows.sum();
+    }
+}
@@ -1,12 +1,18 @@
 package com.apple.snowflakemigration.controller;
 
 
+import com.apple.snowflakemigration.model.ConnectionPoolStats;
+import com.apple.snowflakemigration.model.MigrationJobProgress;
 import com.apple.snowflakemigration.model.SnowflakeProperties;
+import com.apple.snowflakemigration.service.MigrationJobService;
 import com.apple.snowflakemigration.service.SnowflakeService;
 import com.apple.snowflakemigration.util.SnowflakeUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
 
+import java.util.List;
 import java.util.Map;
 
 @RestController
@@ -16,10 +22,28 @@ public class SnowflakeController {
     @Autowired
     SnowflakeService snowflakeService;
 
+    @Autowired
+    MigrationJobService migrationJobService;
+
 
     @PostMapping("/export")
-    public void exportS3ToSnowflake(@RequestBody SnowflakeProperties snowflakeProperties){
-        snowflakeService.exportS3ObjectsToSnowflake(snowflakeProperties);
+    public MigrationJobProgress exportS3ToSnowflake(@RequestBody SnowflakeProperties snowflakeProperties){
+        return migrationJobService.submit(snowflakeProperties);
+    }
+
+    @GetMapping("/jobs")
+    public List<MigrationJobProgress> getJobs(){
+        return migrationJobService.getJobs();
+    }
+
+    @GetMapping("/jobs/{jobId}")
+    public MigrationJobProgress getJob(@PathVariable String jobId){
+        return requireJob(migrationJobService.getProgress(jobId), jobId);
+    }
+
+    @DeleteMapping("/jobs/{jobId}")
+    public MigrationJobProgress cancelJob(@PathVariable String jobId){
+        return requireJob(migrationJobService.cancel(jobId), jobId);
     }
 
     @GetMapping("/isTableExists")
@@ -27,4 +51,16 @@ public class SnowflakeController {
         return snowflakeService.isTableExists(snowflakeProperties,tableName);
     }
 
+    @GetMapping("/pools")
+    public List<ConnectionPoolStats> getConnectionPoolStats(){
+        return snowflakeService.getConnectionPoolStats();
+    }
+
+    private static MigrationJobProgress requireJob(MigrationJobProgress progress, String jobId){
+        if (progress == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Unknown job " + jobId);
+        }
+        return progress;
+    }
+
 }
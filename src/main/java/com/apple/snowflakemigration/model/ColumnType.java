@@ -0,0 +1,37 @@
+package com.apple.snowflakemigration.model;
+
+// Column types inferred from the values of a property. When the values disagree, NUMBER widens to FLOAT,
+// other conflicting scalars to TEXT, and arrays or objects make the column VARIANT
+public enum ColumnType {
+    NUMBER("NUMBER(38,0)"),
+    FLOAT("FLOAT"),
+    BOOLEAN("BOOLEAN"),
+    TIMESTAMP("TIMESTAMP_TZ"),
+    TEXT("TEXT"),
+    // Multi-valued properties and nested objects, loaded as JSON
+    VARIANT("VARIANT");
+
+    private final String sqlType;
+
+    ColumnType(String sqlType) {
+        this.sqlType = sqlType;
+    }
+
+    public String getSqlType() {
+        return sqlType;
+    }
+
+    // The narrowest type that holds the values of both types, null stands for no value seen yet
+    public ColumnType widen(ColumnType other) {
+        if (other == null || other == this) {
+            return this;
+        }
+        if (this == VARIANT || other == VARIANT) {
+            return VARIANT;
+        }
+        if ((this == NUMBER && other == FLOAT) || (this == FLOAT && other == NUMBER)) {
+            return FLOAT;
+        }
+        return TEXT;
+    }
+}
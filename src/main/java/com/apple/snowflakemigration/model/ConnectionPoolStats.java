@@ -0,0 +1,94 @@
+package com.apple.snowflakemigration.model;
+
+public class ConnectionPoolStats {
+
+    private String poolName;
+
+    private int active;
+
+    private int idle;
+
+    private int total;
+
+    private int threadsAwaiting;
+
+    private long acquiredCount;
+
+    private double averageWaitMillis;
+
+    private double maxWaitMillis;
+
+    private long timeouts;
+
+    public String getPoolName() {
+        return poolName;
+    }
+
+    public void setPoolName(String poolName) {
+        this.poolName = poolName;
+    }
+
+    public int getActive() {
+        return active;
+    }
+
+    public void setActive(int active) {
+        this.active = active;
+    }
+
+    public int getIdle() {
+        return idle;
+    }
+
+    public void setIdle(int idle) {
+        this.idle = idle;
+    }
+
+    public int getTotal() {
+        return total;
+    }
+
+    public void setTotal(int total) {
+        this.total = total;
+    }
+
+    public int getThreadsAwaiting() {
+        return threadsAwaiting;
+    }
+
+    public void setThreadsAwaiting(int threadsAwaiting) {
+        this.threadsAwaiting = threadsAwaiting;
+    }
+
+    public long getAcquiredCount() {
+        return acquiredCount;
+    }
+
+    public void setAcquiredCount(long acquiredCount) {
+        this.acquiredCount = acquiredCount;
+    }
+
+    public double getAverageWaitMillis() {
+        return averageWaitMillis;
+    }
+
+    public void setAverageWaitMillis(double averageWaitMillis) {
+        this.averageWaitMillis = averageWaitMillis;
+    }
+
+    public double getMaxWaitMillis() {
+        return maxWaitMillis;
+    }
+
+    public void setMaxWaitMillis(double maxWaitMillis) {
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    public long getTimeouts() {
+        return timeouts;
+    }
+
+    public void setTimeouts(long timeouts) {
+        this.timeouts = timeouts;
+    }
+}
@@ -0,0 +1,8 @@
+package com.apple.snowflakemigration.model;
+
+public enum ExecutionMode {
+    // Fixed pools of platform threads, one thread per stage worker
+    PLATFORM,
+    // A virtual thread per task, in-flight S3 and Snowflake calls are bounded by permits only
+    VIRTUAL
+}
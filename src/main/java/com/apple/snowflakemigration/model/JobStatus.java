@@ -0,0 +1,9 @@
+package com.apple.snowflakemigration.model;
+
+public enum JobStatus {
+    RUNNING,
+    SUCCEEDED,
+    // Stopped by an error that ended the whole export, failures of single files are counted in errors
+    FAILED,
+    CANCELLED
+}
@@ -0,0 +1,8 @@
+package com.apple.snowflakemigration.model;
+
+public enum LoadMode {
+    // Batched JDBC INSERTs
+    INSERT,
+    // Gzip CSV chunks PUT to the table stage and loaded with COPY INTO
+    COPY
+}
@@ -0,0 +1,197 @@
+package com.apple.snowflakemigration.model;
+
+import java.util.List;
+import java.util.Map;
+
+public class MigrationJobProgress {
+
+    private String jobId;
+
+    private JobStatus status;
+
+    private String phase;
+
+    private long startedAtMillis;
+
+    private long elapsedMillis;
+
+    private long filesListed;
+
+    private long bytesListed;
+
+    private long filesScanned;
+
+    private long filesFetched;
+
+    private long filesSkipped;
+
+    private long bytesFetched;
+
+    private long recordsParsed;
+
+    private long rowsLoaded;
+
+    private Map<String, Long> rowsLoadedByTable;
+
+    private double rowsPerSec;
+
+    private double bytesPerSec;
+
+    private Long etaSeconds;
+
+    private long errorCount;
+
+    private List<String> errors;
+
+    public String getJobId() {
+        return jobId;
+    }
+
+    public void setJobId(String jobId) {
+        this.jobId = jobId;
+    }
+
+    public JobStatus getStatus() {
+        return status;
+    }
+
+    public void setStatus(JobStatus status) {
+        this.status = status;
+    }
+
+    public String getPhase() {
+        return phase;
+    }
+
+    public void setPhase(String phase) {
+        this.phase = phase;
+    }
+
+    public long getStartedAtMillis() {
+        return startedAtMillis;
+    }
+
+    public void setStartedAtMillis(long startedAtMillis) {
+        this.startedAtMillis = startedAtMillis;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    public void setElapsedMillis(long elapsedMillis) {
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    public long getFilesListed() {
+        return filesListed;
+    }
+
+    public void setFilesListed(long filesListed) {
+        this.filesListed = filesListed;
+    }
+
+    public long getBytesListed() {
+        return bytesListed;
+    }
+
+    public void setBytesListed(long bytesListed) {
+        this.bytesListed = bytesListed;
+    }
+
+    public long getFilesScanned() {
+        return filesScanned;
+    }
+
+    public void setFilesScanned(long filesScanned) {
+        this.filesScanned = filesScanned;
+    }
+
+    public long getFilesFetched() {
+        return filesFetched;
+    }
+
+    public void setFilesFetched(long filesFetched) {
+        this.filesFetched = filesFetched;
+    }
+
+    public long getFilesSkipped() {
+        return filesSkipped;
+    }
+
+    public void setFilesSkipped(long filesSkipped) {
+        this.filesSkipped = filesSkipped;
+    }
+
+    public long getBytesFetched() {
+        return bytesFetched;
+    }
+
+    public void setBytesFetched(long bytesFetched) {
+        this.bytesFetched = bytesFetched;
+    }
+
+    public long getRecordsParsed() {
+        return recordsParsed;
+    }
+
+    public void setRecordsParsed(long recordsParsed) {
+        this.recordsParsed = recordsParsed;
+    }
+
+    public long getRowsLoaded() {
+        return rowsLoaded;
+    }
+
+    public void setRowsLoaded(long rowsLoaded) {
+        this.rowsLoaded = rowsLoaded;
+    }
+
+    public Map<String, Long> getRowsLoadedByTable() {
+        return rowsLoadedByTable;
+    }
+
+    public void setRowsLoadedByTable(Map<String, Long> rowsLoadedByTable) {
+        this.rowsLoadedByTable = rowsLoadedByTable;
+    }
+
+    public double getRowsPerSec() {
+        return rowsPerSec;
+    }
+
+    public void setRowsPerSec(double rowsPerSec) {
+        this.rowsPerSec = rowsPerSec;
+    }
+
+    public double getBytesPerSec() {
+        return bytesPerSec;
+    }
+
+    public void setBytesPerSec(double bytesPerSec) {
+        this.bytesPerSec = bytesPerSec;
+    }
+
+    public Long getEtaSeconds() {
+        return etaSeconds;
+    }
+
+    public void setEtaSeconds(Long etaSeconds) {
+        this.etaSeconds = etaSeconds;
+    }
+
+    public long getErrorCount() {
+        return errorCount;
+    }
+
+    public void setErrorCount(long errorCount) {
+        this.errorCount = errorCount;
+    }
+
+    public List<String> getErrors() {
+        return errors;
+    }
+
+    public void setErrors(List<String> errors) {
+        this.errors = errors;
+    }
+}
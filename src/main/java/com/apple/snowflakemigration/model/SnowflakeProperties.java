@@ -16,6 +16,26 @@ public class SnowflakeProperties {
 
     private String role;
 
+    private String warehouse;
+
+    private LoadMode loadMode = LoadMode.INSERT;
+
+    private String vertexIndexDir;
+
+    private boolean edgesOnly;
+
+    private String checkpointFile;
+
+    private String shardDir;
+
+    private String workerId;
+
+    private boolean incremental;
+
+    private String syncStateDir;
+
+    private String deadLetterFile;
+
     public String getConnectionUrl() {
         return connectionUrl;
     }
@@ -80,4 +100,84 @@ public class SnowflakeProperties {
     public void setRole(String role) {
         this.role = role;
     }
+
+    public String getWarehouse() {
+        return warehouse;
+    }
+
+    public void setWarehouse(String warehouse) {
+        this.warehouse = warehouse;
+    }
+
+    public LoadMode getLoadMode() {
+        return loadMode;
+    }
+
+    public void setLoadMode(LoadMode loadMode) {
+        this.loadMode = loadMode;
+    }
+
+    public String getVertexIndexDir() {
+        return vertexIndexDir;
+    }
+
+    public void setVertexIndexDir(String vertexIndexDir) {
+        this.vertexIndexDir = vertexIndexDir;
+    }
+
+    public boolean isEdgesOnly() {
+        return edgesOnly;
+    }
+
+    public void setEdgesOnly(boolean edgesOnly) {
+        this.edgesOnly = edgesOnly;
+    }
+
+    public String getCheckpointFile() {
+        return checkpointFile;
+    }
+
+    public void setCheckpointFile(String checkpointFile) {
+        this.checkpointFile = checkpointFile;
+    }
+
+    public String getShardDir() {
+        return shardDir;
+    }
+
+    public void setShardDir(String shardDir) {
+        this.shardDir = shardDir;
+    }
+
+    public String getWorkerId() {
+        return workerId;
+    }
+
+    public void setWorkerId(String workerId) {
+        this.workerId = workerId;
+    }
+
+    public boolean isIncremental() {
+        return incremental;
+    }
+
+    public void setIncremental(boolean incremental) {
+        this.incremental = incremental;
+    }
+
+    public String getSyncStateDir() {
+        return syncStateDir;
+    }
+
+    public void setSyncStateDir(String syncStateDir) {
+        this.syncStateDir = syncStateDir;
+    }
+
+    public String getDeadLetterFile() {
+        return deadLetterFile;
+    }
+
+    public void setDeadLetterFile(String deadLetterFile) {
+        this.deadLetterFile = deadLetterFile;
+    }
 }
@@ -0,0 +1,83 @@
+package com.apple.snowflakemigration.service;
+
+import com.apple.snowflakemigration.model.ColumnType;
+import com.apple.snowflakemigration.util.SchemaInferrer;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Table of one label collected while streaming its records: the union of all fields with their
+// inferred types, plus the first record, which the edge tables use to find the vertex tables they reference.
+class LabelSchema {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final SchemaInferrer inferrer = new SchemaInferrer();
+    private volatile JsonNode firstRecord;
+
+    void accept(JsonNode record) {
+        setFirstRecord(record);
+        inferrer.accept(record);
+    }
+
+    // Single line JSON of the schema, how a worker of a sharded run hands the schema of a file to the others
+    String toPayload() throws JsonProcessingException {
+        ObjectNode payload = MAPPER.createObjectNode();
+        payload.put("records", inferrer.getRecordCount());
+        ObjectNode fields = payload.putObject("fields");
+        inferrer.getFieldTypes().forEach((field, type) -> fields.put(field, type != null ? type.name() : null));
+        if (firstRecord != null) {
+            payload.set("firstRecord", firstRecord);
+        }
+        return MAPPER.writeValueAsString(payload);
+    }
+
+    void merge(String payload) throws JsonProcessingException {
+        JsonNode node = MAPPER.readTree(payload);
+        Map<String, ColumnType> fieldTypes = new LinkedHashMap<>();
+        Iterator<Map.Entry<String, JsonNode>> fields = node.path("fields").fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            fieldTypes.put(field.getKey(), field.getValue().isNull() ? null : ColumnType.valueOf(field.getValue().asText()));
+        }
+        inferrer.merge(fieldTypes, node.path("records").asLong());
+        if (node.hasNonNull("firstRecord")) {
+            setFirstRecord(node.get("firstRecord"));
+        }
+    }
+
+    String[] getFields() {
+        return inferrer.getFields();
+    }
+
+    String[] getColumns() {
+        return inferrer.getColumns();
+    }
+
+    ColumnType[] getTypes() {
+        return inferrer.getTypes();
+    }
+
+    JsonNode getFirstRecord() {
+        return firstRecord;
+    }
+
+    long getRecordCount() {
+        return inferrer.getRecordCount();
+    }
+
+    private void setFirstRecord(JsonNode record) {
+        if (firstRecord == null) {
+            synchronized (this) {
+                if (firstRecord == null) {
+                    firstRecord = record;
+                }
+            }
+        }
+    }
+}
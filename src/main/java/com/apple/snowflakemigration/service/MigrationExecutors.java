@@ -0,0 +1,99 @@
+package com.apple.snowflakemigration.service;
+
+import com.apple.snowflakemigration.model.ExecutionMode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Threads and resource permits of one migration run. Every executor created here is shut down when
+// the run closes, so runs never share workers. How many S3 downloads and Snowflake writes are in
+// flight is decided by the permits, not by the number of threads, which lets VIRTUAL mode park
+// hundreds of blocked workers cheaply.
+public class MigrationExecutors implements AutoCloseable {
+
+    private static Logger log = LoggerFactory.getLogger(MigrationExecutors.class);
+
+    private final String runName;
+    private final ExecutionMode mode;
+    private final Semaphore s3Permits;
+    private final Semaphore snowflakePermits;
+    private final Semaphore sinkPermits;
+    private final List<ExecutorService> executors = new CopyOnWriteArrayList<>();
+    private volatile boolean closed;
+
+    public MigrationExecutors(String runName, ExecutionMode mode, int s3Permits, int snowflakePermits, int sinkPermits) {
+        this.runName = runName;
+        this.mode = mode;
+        this.s3Permits = new Semaphore(Math.max(1, s3Permits), true);
+        this.snowflakePermits = new Semaphore(Math.max(1, snowflakePermits), true);
+        this.sinkPermits = new Semaphore(Math.max(1, sinkPermits), true);
+        log.info("MigrationExecutors(): run={}, mode={}, s3Permits={}, snowflakePermits={}, sinkPermits={}", runName, mode,
+                s3Permits, snowflakePermits, sinkPermits);
+    }
+
+    // threads is the pool size in PLATFORM mode, VIRTUAL mode starts a virtual thread per task
+    public ExecutorService newExecutor(String name, int threads) {
+        if (closed) {
+            throw new RejectedExecutionException("Run " + runName + " is closed");
+        }
+        ExecutorService executor = mode == ExecutionMode.VIRTUAL
+                ? Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(runName + "-" + name + "-", 1).factory())
+                : Executors.newFixedThreadPool(Math.max(1, threads), platformThreadFactory(runName + "-" + name + "-"));
+        executors.add(executor);
+        if (closed) {
+            // Closed while the executor was being created
+            executor.shutdownNow();
+        }
+        return executor;
+    }
+
+    public Semaphore getS3Permits() {
+        return s3Permits;
+    }
+
+    public Semaphore getSnowflakePermits() {
+        return snowflakePermits;
+    }
+
+    // One per open row sink, each of which holds a pooled connection
+    public Semaphore getSinkPermits() {
+        return sinkPermits;
+    }
+
+    // Virtual threads cost next to nothing while blocked, so in VIRTUAL mode an I/O stage gets a worker
+    // per permit and the semaphore alone limits the calls in flight
+    public int ioWorkers(int configured, Semaphore permits) {
+        if (mode != ExecutionMode.VIRTUAL) {
+            return Math.max(1, configured);
+        }
+        return Math.max(Math.max(1, configured), permits.availablePermits());
+    }
+
+    public ExecutionMode getMode() {
+        return mode;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        executors.forEach(ExecutorService::shutdownNow);
+        executors.clear();
+    }
+
+    private static ThreadFactory platformThreadFactory(String prefix) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,152 @@
+package com.apple.snowflakemigration.service;
+
+import com.apple.snowflakemigration.model.JobStatus;
+import com.apple.snowflakemigration.model.MigrationJobProgress;
+import com.apple.snowflakemigration.model.SnowflakeProperties;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Runs exports in the background. Every job gets its own MigrationRun, so jobs with different
+// SnowflakeProperties run side by side without sharing executors or vertex id indexes.
+@Service
+public class MigrationJobService {
+
+    private static Logger log = LoggerFactory.getLogger(MigrationJobService.class);
+
+    private static final AtomicInteger JOB_THREADS = new AtomicInteger();
+
+    private static final class Job {
+        private final MigrationRun run;
+        // Set while the job thread walks through the export, guarded by the job
+        private Thread thread;
+        private volatile JobStatus status = JobStatus.RUNNING;
+        private volatile long finishedAtMillis;
+
+        private Job(MigrationRun run) {
+            this.run = run;
+        }
+    }
+
+    @Autowired
+    private SnowflakeService snowflakeService;
+
+    @Value("${migration.jobs.retained:100}")
+    private int retainedJobs;
+
+    private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+
+    // Only the thread that walks through the phases of a job runs here, the work itself runs on the executors of the run
+    private final ExecutorService jobExecutor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "migration-job-" + JOB_THREADS.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public MigrationJobProgress submit(SnowflakeProperties snowflakeProperties) {
+        String jobId = UUID.randomUUID().toString();
+        Job job = new Job(snowflakeService.newRun(jobId, snowflakeProperties));
+        jobs.put(jobId, job);
+        evictFinishedJobs();
+        jobExecutor.execute(() -> execute(jobId, job));
+        log.info("MigrationJobService.submit(): Started jobId={}", jobId);
+        return toProgress(jobId, job);
+    }
+
+    public MigrationJobProgress getProgress(String jobId) {
+        Job job = jobs.get(jobId);
+        return job != null ? toProgress(jobId, job) : null;
+    }
+
+    public List<MigrationJobProgress> getJobs() {
+        List<MigrationJobProgress> progress = new ArrayList<>();
+        jobs.forEach((jobId, job) -> progress.add(toProgress(jobId, job)));
+        progress.sort((a, b) -> Long.compare(b.getStartedAtMillis(), a.getStartedAtMillis()));
+        return progress;
+    }
+
+    public MigrationJobProgress cancel(String jobId) {
+        Job job = jobs.get(jobId);
+        if (job == null) {
+            return null;
+        }
+        if (job.status == JobStatus.RUNNING) {
+            log.info("MigrationJobService.cancel(): Cancelling jobId={}", jobId);
+            job.run.cancel();
+            // Wakes the job thread up if it waits for work that the closed executors will never run
+            synchronized (job) {
+                if (job.thread != null) {
+                    job.thread.interrupt();
+                }
+            }
+        }
+        return toProgress(jobId, job);
+    }
+
+    @PreDestroy
+    public void close() {
+        jobs.values().forEach(job -> job.run.cancel());
+        jobExecutor.shutdownNow();
+    }
+
+    private void execute(String jobId, Job job) {
+        synchronized (job) {
+            job.thread = Thread.currentThread();
+        }
+        try (MigrationRun run = job.run) {
+            if (!run.isCancelled()) {
+                snowflakeService.exportS3ObjectsToSnowflake(run);
+            }
+        } catch (Exception e) {
+            log.error("MigrationJobService.execute(): Error while running jobId={}", jobId, e);
+            job.run.getProgress().fail(e);
+        } finally {
+            job.status = job.run.isCancelled() ? JobStatus.CANCELLED
+                    : job.run.getProgress().isFailed() ? JobStatus.FAILED : JobStatus.SUCCEEDED;
+            job.finishedAtMillis = System.currentTimeMillis();
+            job.run.getProgress().finish();
+            synchronized (job) {
+                job.thread = null;
+                // Clear an interrupt that arrived after the export returned, the thread goes back to the pool
+                Thread.interrupted();
+            }
+            log.info("MigrationJobService.execute(): Finished jobId={}, status={}", jobId, job.status);
+        }
+    }
+
+    // Keeps the most recent finished jobs so their final progress can still be read
+    private void evictFinishedJobs() {
+        List<Map.Entry<String, Job>> finished = new ArrayList<>();
+        for (Map.Entry<String, Job> entry : jobs.entrySet()) {
+            if (entry.getValue().status != JobStatus.RUNNING) {
+                finished.add(entry);
+            }
+        }
+        if (finished.size() <= retainedJobs) {
+            return;
+        }
+        finished.sort((a, b) -> Long.compare(a.getValue().finishedAtMillis, b.getValue().finishedAtMillis));
+        for (int i = 0; i < finished.size() - retainedJobs; i++) {
+            jobs.remove(finished.get(i).getKey());
+        }
+    }
+
+    private static MigrationJobProgress toProgress(String jobId, Job job) {
+        MigrationJobProgress progress = job.run.getProgress().snapshot();
+        progress.setJobId(jobId);
+        progress.setStatus(job.status);
+        return progress;
+    }
+}
@@ -0,0 +1,826 @@
+package com.apple.snowflakemigration.service;
+
+import com.apple.snowflakemigration.util.CheckpointManifest;
+import com.apple.snowflakemigration.util.CompressedInput;
+import com.apple.snowflakemigration.util.DeadLetterFile;
+import com.apple.snowflakemigration.util.JSONUtils;
+import com.apple.snowflakemigration.util.MigrationMetrics;
+import com.apple.snowflakemigration.util.RowSink;
+import com.apple.snowflakemigration.util.S3Utils;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingIterator;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+// Loads export files through four stages connected by bounded queues:
+//   fetch   - streams S3 objects and cuts them into blocks that end on a newline
+//   parse   - parses the NDJSON records of a block
+//   project - turns records into table rows, written into pooled row buffers
+//   sink    - writes rows to the RowSink of their label
+// Every stage has its own number of workers. A full queue blocks the stage in front of it, so fast
+// downloads wait for slow loads instead of piling up in memory.
+public class MigrationPipeline {
+
+    private static Logger log = LoggerFactory.getLogger(MigrationPipeline.class);
+
+    public interface RowProjector {
+        // Number of values in a row of the label, 0 when the label is not loaded
+        int width(String label);
+
+        // Writes the row of the record into row[offset .. offset + width(label)), returns false to skip the record
+        boolean project(String label, JsonNode record, String[] row, int offset) throws Exception;
+    }
+
+    public interface SinkFactory {
+        RowSink open(String label) throws Exception;
+    }
+
+    // Produces the files to load, for example straight from a paginated S3 listing
+    public interface FileSource {
+        void forEach(Consumer<S3Object> consumer) throws Exception;
+    }
+
+    // Told about every file whose rows are all committed, or that was skipped as complete
+    public interface FileListener {
+        void fileComplete(String key) throws Exception;
+    }
+
+    // Told about every label whose files are all written and whose sinks are closed, so its rows are
+    // committed. Labels are only known to be done once the source produced its last file, or once the
+    // source called labelComplete for them. A label with a block that failed is never reported.
+    public interface LabelListener {
+        void labelLoaded(String label) throws Exception;
+    }
+
+    private interface StageWorker {
+        void process(Object item) throws Exception;
+    }
+
+    // Lines of a file are numbered from 0. A block, and the records and rows cut from it, cover the
+    // lines firstLine..lastLine of their file, which is the unit recorded in the checkpoint manifest.
+    private record Span(String label, FileProgress file, long firstLine, long lastLine) {
+    }
+
+    private record Block(Span span, byte[] data, int length) {
+    }
+
+    private record Records(Span span, List<JsonNode> records, long[] lines) {
+    }
+
+    // Row i is values[i * width .. (i + 1) * width) and comes from line lines[i], values is a pooled
+    // buffer that goes back to the pool once the rows are written
+    private record Rows(Span span, String[] values, int width, int count, long[] lines) {
+    }
+
+    private static final class ParsedRecords {
+        private final List<JsonNode> records = new ArrayList<>();
+        private long[] lines = new long[16];
+
+        private void add(JsonNode record, long line) {
+            if (records.size() == lines.length) {
+                lines = Arrays.copyOf(lines, lines.length * 2);
+            }
+            lines[records.size()] = line;
+            records.add(record);
+        }
+    }
+
+    // Counts the blocks of a file that are not committed yet, plus one while the file is still being read
+    private static final class FileProgress {
+        private final String key;
+        private final String etag;
+        private final AtomicInteger pending = new AtomicInteger(1);
+
+        private FileProgress(String key, String etag) {
+            this.key = key;
+            this.etag = etag;
+        }
+    }
+
+    private static final Object END = new Object();
+
+    private static final String[] NO_VALUES = new String[0];
+
+    private static final int MAX_OPEN_ATTEMPTS = 10;
+    private static final long OPEN_WAIT_MILLIS = 100;
+    private static final long MAX_OPEN_WAIT_MILLIS = 5000;
+
+    private final String name;
+    private final String runId;
+    private final PipelineSettings settings;
+    private final MigrationExecutors executors;
+    private final MigrationProgress progress;
+    private final S3Utils s3Utils;
+    private final Function<String, String> labelResolver;
+    private final RowProjector projector;
+    private final SinkFactory sinkFactory;
+
+    // Idle sinks per label. A sink worker borrows one for a batch of rows, so a large label ends up
+    // with as many sinks as workers writing to it at the same time and a small one with a single sink.
+    private final Map<String, Queue<RowSink>> idleSinks = new ConcurrentHashMap<>();
+    private final Queue<RowSink> openSinks = new ConcurrentLinkedQueue<>();
+    // Rows written to sinks that only commit on close, recorded in the manifest once the sink closed
+    private final Map<RowSink, Queue<Span>> uncommitted = new ConcurrentHashMap<>();
+
+    // Row buffers travel from the project stage to the sink stage and back, so a block costs no row
+    // arrays once the pool is warm. At most one buffer per queued item and worker is kept.
+    private final Queue<String[]> rowBuffers = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooledRowBuffers = new AtomicInteger();
+    private int maxPooledRowBuffers;
+
+    private final CheckpointManifest checkpoint;
+    private final DeadLetterFile deadLetters;
+    private boolean skipCompleteFiles;
+    private FileListener fileListener;
+    private LabelListener labelListener;
+
+    // Files still being read plus blocks not written yet per label, only counted for a label listener
+    private final Map<String, AtomicInteger> labelPending = new ConcurrentHashMap<>();
+    private final Set<String> loadedLabels = ConcurrentHashMap.newKeySet();
+    // Labels the source produced the last file of before it ended
+    private final Set<String> completeLabels = ConcurrentHashMap.newKeySet();
+    // Labels with a block or a sink that failed, they are never reported loaded
+    private final Set<String> failedLabels = ConcurrentHashMap.newKeySet();
+    private volatile boolean sourceDone;
+    private volatile boolean failed;
+
+    private final AtomicLong filesFetched = new AtomicLong();
+    private final AtomicLong bytesFetched = new AtomicLong();
+    private final AtomicLong recordsParsed = new AtomicLong();
+    private final AtomicLong rowsWritten = new AtomicLong();
+    private final AtomicLong filesSkipped = new AtomicLong();
+    private final AtomicLong recordsSkipped = new AtomicLong();
+    private final AtomicLong recordsRejected = new AtomicLong();
+    private final Timer parseTimer;
+    private final Timer projectTimer;
+    private final Map<String, Counter> rowCounters = new ConcurrentHashMap<>();
+
+    public MigrationPipeline(String name, PipelineSettings settings, MigrationRun run, S3Utils s3Utils,
+                             Function<String, String> labelResolver, RowProjector projector, SinkFactory sinkFactory) {
+        this.name = name;
+        this.runId = run.getId();
+        this.settings = settings;
+        this.executors = run.getExecutors();
+        this.progress = run.getProgress();
+        this.checkpoint = run.getCheckpoint();
+        this.deadLetters = run.getDeadLetters();
+        this.s3Utils = s3Utils;
+        this.labelResolver = labelResolver;
+        this.projector = projector;
+        this.sinkFactory = sinkFactory;
+        this.parseTimer = MigrationMetrics.parse(name);
+        this.projectTimer = MigrationMetrics.project(name);
+    }
+
+    // Records committed by an earlier run, according to the checkpoint manifest of the run, are never
+    // loaded again. Files that are complete in the manifest are not even downloaded when
+    // skipCompleteFiles is set, otherwise their records still reach the projector, for example to
+    // rebuild an in-memory vertex id index.
+    public void setSkipCompleteFiles(boolean skipCompleteFiles) {
+        this.skipCompleteFiles = skipCompleteFiles;
+    }
+
+    public void setFileListener(FileListener fileListener) {
+        this.fileListener = fileListener;
+    }
+
+    public void setLabelListener(LabelListener labelListener) {
+        this.labelListener = labelListener;
+    }
+
+    // Some rows were neither written nor dead-lettered
+    public boolean isFailed() {
+        return failed;
+    }
+
+    public void run(Collection<S3Object> files) {
+        run(files::forEach);
+    }
+
+    // Files are fetched while the source is still producing them
+    public void run(FileSource source) {
+        long start = System.nanoTime();
+        int fetchWorkers = executors.ioWorkers(settings.getFetchConcurrency(), executors.getS3Permits());
+        int parseWorkers = Math.max(1, settings.getParseConcurrency());
+        int projectWorkers = Math.max(1, settings.getProjectConcurrency());
+        int sinkWorkers = executors.ioWorkers(settings.getSinkConcurrency(), executors.getSnowflakePermits());
+        int queueCapacity = Math.max(1, settings.getQueueCapacity());
+        maxPooledRowBuffers = queueCapacity + projectWorkers + sinkWorkers;
+
+        BlockingQueue<Object> fileQueue = new LinkedBlockingQueue<>();
+        BlockingQueue<Object> blockQueue = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<Object> recordQueue = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<Object> rowQueue = new ArrayBlockingQueue<>(queueCapacity);
+
+        ExecutorService executor = executors.newExecutor(name + "-pipeline", fetchWorkers + parseWorkers + projectWorkers + sinkWorkers);
+        List<Future<?>> workers = new ArrayList<>();
+        List<Gauge> gauges = new ArrayList<>();
+        gauges.add(queueGauge("files", fileQueue));
+        gauges.add(queueGauge("blocks", blockQueue));
+        gauges.add(queueGauge("records", recordQueue));
+        gauges.add(queueGauge("rows", rowQueue));
+        gauges.add(MigrationMetrics.gauge("migration.permits.used", "S3 permits in use", executors.getS3Permits(),
+                permits -> Math.max(0, settings.getS3Permits() - permits.availablePermits()), "run", runId, "resource", "s3"));
+        gauges.add(MigrationMetrics.gauge("migration.permits.used", "Snowflake permits in use", executors.getSnowflakePermits(),
+                permits -> Math.max(0, settings.getSnowflakePermits() - permits.availablePermits()), "run", runId, "resource", "snowflake"));
+        try {
+            startStage(executor, workers, "fetch", fetchWorkers, fileQueue, blockQueue, parseWorkers,
+                    item -> fetch((S3Object) item, blockQueue));
+            startStage(executor, workers, "parse", parseWorkers, blockQueue, recordQueue, projectWorkers,
+                    item -> parse((Block) item, recordQueue));
+            startStage(executor, workers, "project", projectWorkers, recordQueue, rowQueue, sinkWorkers,
+                    item -> project((Records) item, rowQueue));
+            startStage(executor, workers, "sink", sinkWorkers, rowQueue, null, 0,
+                    item -> write((Rows) item));
+            try {
+                source.forEach(file -> {
+                    if (labelListener != null) {
+                        labelPending.computeIfAbsent(labelResolver.apply(file.key()), k -> new AtomicInteger()).incrementAndGet();
+                    }
+                    fileQueue.add(file);
+                });
+            } catch (Exception e) {
+                log.error("MigrationPipeline.run(): pipeline={}, Error while listing files", name, e);
+                progress.error(name + " listing", e);
+                failed = true;
+            } finally {
+                for (int i = 0; i < fetchWorkers; i++) {
+                    fileQueue.add(END);
+                }
+                sourceDone = true;
+            }
+            // Labels whose files were all written before the source ended
+            for (Map.Entry<String, AtomicInteger> entry : labelPending.entrySet()) {
+                if (entry.getValue().get() == 0) {
+                    labelDone(entry.getKey());
+                }
+            }
+            for (Future<?> worker : workers) {
+                worker.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.error("MigrationPipeline.run(): pipeline={} interrupted", name, e);
+            failed = true;
+        } catch (ExecutionException e) {
+            log.error("MigrationPipeline.run(): pipeline={} failed", name, e);
+            progress.error(name + " pipeline", e);
+            failed = true;
+        } finally {
+            executor.shutdownNow();
+            closeSinks();
+            rowBuffers.clear();
+            pooledRowBuffers.set(0);
+            gauges.forEach(MigrationMetrics::remove);
+        }
+        long elapsedMillis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        log.info("MigrationPipeline.run(): pipeline={}, files={}, bytes={}, records={}, rows={}, skippedFiles={}, skippedRecords={}, rejectedRecords={}, elapsedMs={}, rowsPerSec={}",
+                name, filesFetched.get(), bytesFetched.get(), recordsParsed.get(), rowsWritten.get(), filesSkipped.get(),
+                recordsSkipped.get(), recordsRejected.get(), elapsedMillis, rowsWritten.get() * 1000 / elapsedMillis);
+    }
+
+    private void startStage(ExecutorService executor, List<Future<?>> workers, String stage, int concurrency,
+                            BlockingQueue<Object> input, BlockingQueue<Object> output, int downstreamConcurrency,
+                            StageWorker worker) {
+        AtomicInteger running = new AtomicInteger(concurrency);
+        // Workers that hold an item, as opposed to waiting on their input queue
+        AtomicInteger busy = new AtomicInteger();
+        Gauge busyGauge = MigrationMetrics.gauge("migration.pipeline.workers.busy", "Stage workers processing an item", busy,
+                AtomicInteger::get, "run", runId, "pipeline", name, "stage", stage);
+        for (int i = 0; i < concurrency; i++) {
+            workers.add(executor.submit(() -> {
+                try {
+                    Object item;
+                    while ((item = input.take()) != END) {
+                        busy.incrementAndGet();
+                        try {
+                            worker.process(item);
+                        } catch (InterruptedException e) {
+                            throw e;
+                        } catch (Exception e) {
+                            log.error("MigrationPipeline.{}(): pipeline={}, Error while processing item", stage, name, e);
+                            progress.error(name + " " + stage, e);
+                            itemFailed(item);
+                        } finally {
+                            busy.decrementAndGet();
+                        }
+                    }
+                } finally {
+                    // The last worker of a stage tells every worker of the next stage that no more input is coming
+                    if (running.decrementAndGet() == 0) {
+                        MigrationMetrics.remove(busyGauge);
+                        if (output != null) {
+                            for (int j = 0; j < downstreamConcurrency; j++) {
+                                output.put(END);
+                            }
+                        }
+                    }
+                }
+                return null;
+            }));
+        }
+    }
+
+    private void itemFailed(Object item) {
+        failed = true;
+        if (item instanceof S3Object file) {
+            failedLabels.add(labelResolver.apply(file.key()));
+        } else if (item instanceof Block block) {
+            failedLabels.add(block.span().label());
+        } else if (item instanceof Records records) {
+            failedLabels.add(records.span().label());
+        } else if (item instanceof Rows rows) {
+            failedLabels.add(rows.span().label());
+        }
+    }
+
+    private void fetch(S3Object file, BlockingQueue<Object> blockQueue) throws Exception {
+        String label = labelResolver.apply(file.key());
+        try {
+            fetch(file, label, blockQueue);
+        } catch (Exception e) {
+            // Before the label hold is released, which may report the label
+            failedLabels.add(label);
+            throw e;
+        } finally {
+            labelWritten(label);
+        }
+    }
+
+    private void fetch(S3Object file, String label, BlockingQueue<Object> blockQueue) throws Exception {
+        String key = file.key();
+        if (checkpoint != null && skipCompleteFiles && checkpoint.isComplete(key, file.eTag())) {
+            filesSkipped.incrementAndGet();
+            progress.fileSkipped(file.size() != null ? file.size() : 0);
+            if (fileListener != null) {
+                fileListener.fileComplete(key);
+            }
+            return;
+        }
+        FileProgress fileProgress = new FileProgress(key, file.eTag());
+        int blockBytes = Math.max(1024, settings.getBlockBytes());
+        long line = 0;
+        Semaphore s3Permits = executors.getS3Permits();
+        s3Permits.acquire();
+        // Progress counts the bytes that came over the network, the blocks hold the decompressed records
+        try (InputStream inputStream = CompressedInput.decompress(key, new FetchedBytesInputStream(s3Utils.openObject(file)))) {
+            byte[] buffer = new byte[blockBytes];
+            int filled = 0;
+            int read;
+            while ((read = inputStream.read(buffer, filled, buffer.length - filled)) >= 0) {
+                filled += read;
+                if (filled < buffer.length) {
+                    continue;
+                }
+                int end = lastNewline(buffer, filled);
+                if (end < 0) {
+                    // A single record larger than the block, keep reading until its newline shows up
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                    continue;
+                }
+                byte[] next = new byte[Math.max(blockBytes, filled - end)];
+                System.arraycopy(buffer, end, next, 0, filled - end);
+                line = putBlock(blockQueue, label, fileProgress, buffer, end, line);
+                buffer = next;
+                filled -= end;
+            }
+            if (filled > 0) {
+                putBlock(blockQueue, label, fileProgress, buffer, filled, line);
+            }
+        } finally {
+            s3Permits.release();
+        }
+        filesFetched.incrementAndGet();
+        progress.fileFetched();
+        // Drop the hold of the reader, the file is complete once its last block is committed
+        blockCommitted(fileProgress);
+    }
+
+    // Returns the number of the first line after the block
+    private long putBlock(BlockingQueue<Object> blockQueue, String label, FileProgress file, byte[] data, int length,
+                          long firstLine) throws InterruptedException {
+        long lines = countLines(data, length);
+        file.pending.incrementAndGet();
+        if (labelListener != null) {
+            labelPending.get(label).incrementAndGet();
+        }
+        blockQueue.put(new Block(new Span(label, file, firstLine, firstLine + lines - 1), data, length));
+        return firstLine + lines;
+    }
+
+    private void parse(Block block, BlockingQueue<Object> recordQueue) throws Exception {
+        long start = System.nanoTime();
+        ParsedRecords parsed = new ParsedRecords();
+        try (MappingIterator<JsonNode> iterator = JSONUtils.readRecords(block.data(), 0, block.length())) {
+            while (iterator.hasNextValue()) {
+                JsonNode record = iterator.nextValue();
+                // Records are single lines, the parser stops on the line the record ends on
+                parsed.add(record, block.span().firstLine() + iterator.getCurrentLocation().getLineNr() - 1);
+            }
+        } catch (IOException | RuntimeException e) {
+            // A malformed line, the parser cannot resume after it, so the block is parsed again line by line
+            parsed = parseLines(block);
+        }
+        MigrationMetrics.record(parseTimer, start);
+        recordsParsed.addAndGet(parsed.records.size());
+        progress.recordsParsed(parsed.records.size());
+        recordQueue.put(new Records(block.span(), parsed.records, parsed.lines));
+    }
+
+    // Only lines that do not parse are set aside, the records of the other lines of the block are kept
+    private ParsedRecords parseLines(Block block) throws Exception {
+        ParsedRecords parsed = new ParsedRecords();
+        byte[] data = block.data();
+        long line = block.span().firstLine();
+        int lineStart = 0;
+        for (int i = 0; i <= block.length(); i++) {
+            if (i < block.length() && data[i] != '\n') {
+                continue;
+            }
+            if (i > lineStart) {
+                try (MappingIterator<JsonNode> iterator = JSONUtils.readRecords(data, lineStart, i - lineStart)) {
+                    while (iterator.hasNextValue()) {
+                        parsed.add(iterator.nextValue(), line);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    rejectRecord(block.span(), line, new String(data, lineStart, i - lineStart, StandardCharsets.UTF_8).trim(), e);
+                }
+            }
+            lineStart = i + 1;
+            line++;
+        }
+        return parsed;
+    }
+
+    private void project(Records records, BlockingQueue<Object> rowQueue) throws Exception {
+        long start = System.nanoTime();
+        Span span = records.span();
+        FileProgress file = span.file();
+        int width = projector.width(span.label());
+        int size = records.records().size();
+        String[] values = width > 0 && size > 0 ? borrowRowBuffer(width * size) : NO_VALUES;
+        long[] lines = records.lines();
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            JsonNode record = records.records().get(i);
+            boolean projected;
+            try {
+                projected = projector.project(span.label(), record, values, count * width);
+            } catch (Exception e) {
+                rejectRecord(span, lines[i], record.toString(), e);
+                continue;
+            }
+            // A skipped or rejected record leaves its slot to the next one
+            if (!projected) {
+                continue;
+            }
+            if (checkpoint != null && checkpoint.isCommitted(file.key, file.etag, lines[i])) {
+                recordsSkipped.incrementAndGet();
+                continue;
+            }
+            // The lines are only read up to i, so they are compacted in place along with the rows
+            lines[count] = lines[i];
+            count++;
+        }
+        MigrationMetrics.record(projectTimer, start);
+        rowQueue.put(new Rows(span, values, width, count, lines));
+    }
+
+    // A record that fails to parse or project goes to the dead-letter file of the run, the rest of its block is loaded
+    private void rejectRecord(Span span, long line, String record, Exception error) {
+        recordsRejected.incrementAndGet();
+        if (deadLetters != null) {
+            try {
+                deadLetters.writeRecord(span.label(), span.file().key, line, record, error);
+                return;
+            } catch (IOException e) {
+                log.error("MigrationPipeline.rejectRecord(): pipeline={}, Error while writing dead letter of key={}, line={}",
+                        name, span.file().key, line, e);
+            }
+        }
+        log.error("MigrationPipeline.rejectRecord(): pipeline={}, Skipping record of key={}, line={}", name, span.file().key, line, error);
+        progress.error(name + " record", error);
+    }
+
+    private void write(Rows rows) throws Exception {
+        try {
+            writeRows(rows);
+        } catch (Exception e) {
+            failedLabels.add(rows.span().label());
+            throw e;
+        } finally {
+            returnRowBuffer(rows);
+            labelWritten(rows.span().label());
+        }
+    }
+
+    private void writeRows(Rows rows) throws Exception {
+        Span span = rows.span();
+        if (rows.count() == 0) {
+            commit(span);
+            return;
+        }
+        Queue<RowSink> idle = idleSinks.computeIfAbsent(span.label(), k -> new ConcurrentLinkedQueue<>());
+        RowSink sink = idle.poll();
+        if (sink == null) {
+            sink = openSink(span.label());
+        }
+        Semaphore snowflakePermits = executors.getSnowflakePermits();
+        snowflakePermits.acquire();
+        try {
+            for (int i = 0; i < rows.count(); i++) {
+                sink.source(span.file().key, rows.lines()[i]);
+                sink.write(rows.values(), i * rows.width(), rows.width());
+            }
+            rowsWritten.addAndGet(rows.count());
+            progress.rowsLoaded(span.label(), rows.count());
+            rowCounters.computeIfAbsent(span.label(), MigrationMetrics::rows).increment(rows.count());
+            if (checkpoint != null || fileListener != null) {
+                if (sink.commitsOnFlush()) {
+                    // Flushing per block keeps the manifest exact, a crash can only repeat the rows of one block.
+                    // The file listener is only told about a file once its rows are in the table too.
+                    sink.flush();
+                    commit(span);
+                } else {
+                    uncommitted.computeIfAbsent(sink, k -> new ConcurrentLinkedQueue<>()).add(span);
+                }
+            } else {
+                commit(span);
+            }
+        } finally {
+            snowflakePermits.release();
+            idle.add(sink);
+        }
+    }
+
+    private void commit(Span span) throws Exception {
+        FileProgress file = span.file();
+        if (checkpoint != null) {
+            checkpoint.recordCommitted(file.key, file.etag, span.label(), span.firstLine(), span.lastLine());
+        }
+        blockCommitted(file);
+    }
+
+    private String[] borrowRowBuffer(int size) {
+        String[] buffer = rowBuffers.poll();
+        if (buffer != null) {
+            pooledRowBuffers.decrementAndGet();
+            if (buffer.length >= size) {
+                return buffer;
+            }
+        }
+        // Sizes are rounded up to a power of two so buffers fit blocks of other labels too
+        return new String[Math.max(64, Integer.highestOneBit(size - 1) << 1)];
+    }
+
+    private void returnRowBuffer(Rows rows) {
+        if (rows.values().length == 0) {
+            return;
+        }
+        // Drop the values so pooled buffers do not keep strings of written rows alive, a skipped
+        // record may have been projected into the slot after the last row
+        Arrays.fill(rows.values(), 0, Math.min(rows.values().length, (rows.count() + 1) * rows.width()), null);
+        if (pooledRowBuffers.incrementAndGet() <= maxPooledRowBuffers) {
+            rowBuffers.add(rows.values());
+        } else {
+            pooledRowBuffers.decrementAndGet();
+        }
+    }
+
+    private void blockCommitted(FileProgress file) throws Exception {
+        if (file.pending.decrementAndGet() != 0) {
+            return;
+        }
+        if (checkpoint != null) {
+            checkpoint.recordComplete(file.key, file.etag);
+        }
+        if (fileListener != null) {
+            fileListener.fileComplete(file.key);
+        }
+    }
+
+    // Called by a source that produces the files label by label, once it produced the last file of the label
+    public void labelComplete(String label) {
+        completeLabels.add(label);
+        AtomicInteger pending = labelPending.get(label);
+        if (labelListener != null && pending != null && pending.get() == 0) {
+            labelDone(label);
+        }
+    }
+
+    private void labelWritten(String label) {
+        if (labelListener != null && labelPending.get(label).decrementAndGet() == 0
+                && (sourceDone || completeLabels.contains(label))) {
+            labelDone(label);
+        }
+    }
+
+    // No block of the label is left, so all of its sinks are idle. Closing them commits the rows of
+    // sinks that only commit on close and hands their connections to the labels still loading.
+    private void labelDone(String label) {
+        if (!loadedLabels.add(label)) {
+            return;
+        }
+        Queue<RowSink> idle = idleSinks.remove(label);
+        if (idle != null) {
+            idle.forEach(this::releaseSink);
+        }
+        if (failedLabels.contains(label)) {
+            log.error("MigrationPipeline.labelDone(): pipeline={}, label={} is incomplete, not reporting it loaded", name, label);
+            return;
+        }
+        try {
+            labelListener.labelLoaded(label);
+        } catch (Exception e) {
+            log.error("MigrationPipeline.labelDone(): pipeline={}, Error while reporting label={}", name, label, e);
+            progress.error(name + " label listener", e);
+        }
+    }
+
+    private void closeSink(RowSink sink) {
+        Queue<Span> pending = uncommitted.remove(sink);
+        try {
+            sink.close();
+        } catch (Exception e) {
+            log.error("MigrationPipeline.closeSink(): pipeline={}, Error while closing sink", name, e);
+            progress.error(name + " close sink", e);
+            failed = true;
+            if (pending != null) {
+                pending.forEach(span -> failedLabels.add(span.label()));
+            }
+            return;
+        }
+        if (pending == null) {
+            return;
+        }
+        for (Span span : pending) {
+            try {
+                commit(span);
+            } catch (Exception e) {
+                log.error("MigrationPipeline.closeSink(): pipeline={}, Error while recording checkpoint of key={}", name, span.file().key, e);
+            }
+        }
+    }
+
+    // Every sink holds a pooled connection. The open sinks of all pipelines of a run share the sink
+    // permits of the run, so pipelines running side by side stay within max-open-sinks together. A
+    // pool that runs dry anyway, for example because other runs use it too, makes the worker close
+    // idle sinks and try again instead of dropping the rows.
+    private RowSink openSink(String label) throws Exception {
+        Semaphore sinkPermits = executors.getSinkPermits();
+        if (!sinkPermits.tryAcquire()) {
+            // Idle sinks of other labels make room first, their permits may also be wanted by another pipeline
+            closeIdleSink();
+            while (!sinkPermits.tryAcquire(OPEN_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+                closeIdleSink();
+            }
+        }
+        boolean opened = false;
+        try {
+            for (int attempt = 1; ; attempt++) {
+                try {
+                    RowSink sink = sinkFactory.open(label);
+                    openSinks.add(sink);
+                    opened = true;
+                    return sink;
+                } catch (Exception e) {
+                    if (attempt >= MAX_OPEN_ATTEMPTS) {
+                        throw e;
+                    }
+                    log.warn("MigrationPipeline.openSink(): pipeline={}, label={}, attempt={}, Unable to open sink, retrying: {}",
+                            name, label, attempt, e.toString());
+                    if (!closeIdleSink()) {
+                        Thread.sleep(Math.min(MAX_OPEN_WAIT_MILLIS, OPEN_WAIT_MILLIS << Math.min(attempt, 10)));
+                    }
+                }
+            }
+        } finally {
+            if (!opened) {
+                sinkPermits.release();
+            }
+        }
+    }
+
+    private boolean closeIdleSink() {
+        for (Queue<RowSink> idle : idleSinks.values()) {
+            RowSink sink;
+            while ((sink = idle.poll()) != null) {
+                if (releaseSink(sink)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // Closes a sink that is still open and gives its permit back, false when it was closed already
+    private boolean releaseSink(RowSink sink) {
+        if (!openSinks.remove(sink)) {
+            return false;
+        }
+        try {
+            closeSink(sink);
+        } finally {
+            executors.getSinkPermits().release();
+        }
+        return true;
+    }
+
+    private void closeSinks() {
+        RowSink sink;
+        while ((sink = openSinks.peek()) != null) {
+            releaseSink(sink);
+        }
+        idleSinks.clear();
+    }
+
+    private Gauge queueGauge(String queue, BlockingQueue<Object> items) {
+        return MigrationMetrics.gauge("migration.pipeline.queue.depth", "Items waiting in a pipeline queue", items,
+                BlockingQueue::size, "run", runId, "pipeline", name, "queue", queue);
+    }
+
+    private class FetchedBytesInputStream extends FilterInputStream {
+
+        FetchedBytesInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0) {
+                fetched(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = in.read(b, off, len);
+            if (read > 0) {
+                fetched(read);
+            }
+            return read;
+        }
+
+        private void fetched(int bytes) {
+            bytesFetched.addAndGet(bytes);
+            progress.bytesFetched(bytes);
+        }
+    }
+
+    // Returns the length of the data up to and including the last newline, or -1 when there is none
+    private static int lastNewline(byte[] buffer, int length) {
+        for (int i = length - 1; i >= 0; i--) {
+            if (buffer[i] == '\n') {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    // Number of lines in the block, a last line without a newline counts too
+    private static long countLines(byte[] buffer, int length) {
+        long lines = 0;
+        for (int i = 0; i < length; i++) {
+            if (buffer[i] == '\n') {
+                lines++;
+            }
+        }
+        return length > 0 && buffer[length - 1] != '\n' ? lines + 1 : lines;
+    }
+
+    public long getRowsWritten() {
+        return rowsWritten.get();
+    }
+}
@@ -0,0 +1,149 @@
+package com.apple.snowflakemigration.service;
+
+import com.apple.snowflakemigration.model.MigrationJobProgress;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Live counters of one migration run, updated by the workers and read by the job endpoints.
+// Rates are measured between two snapshots at least a second apart, so they follow the current speed
+// of the run instead of its average. The ETA covers the bytes of the files listed so far.
+public class MigrationProgress {
+
+    private static final int MAX_ERRORS = 50;
+
+    private final long startedAtMillis = System.currentTimeMillis();
+    private final long startedNanos = System.nanoTime();
+    private volatile String phase = "starting";
+
+    private final LongAdder filesListed = new LongAdder();
+    private final LongAdder bytesListed = new LongAdder();
+    private final LongAdder filesScanned = new LongAdder();
+    private final LongAdder filesFetched = new LongAdder();
+    private final LongAdder filesSkipped = new LongAdder();
+    private final LongAdder bytesFetched = new LongAdder();
+    private final LongAdder bytesSkipped = new LongAdder();
+    private final LongAdder recordsParsed = new LongAdder();
+    private final LongAdder rowsLoaded = new LongAdder();
+    private final Map<String, LongAdder> rowsLoadedByTable = new ConcurrentHashMap<>();
+    private final AtomicLong errorCount = new AtomicLong();
+    private final Deque<String> errors = new ArrayDeque<>();
+    private volatile Throwable failure;
+    private volatile long finishedNanos;
+
+    private long sampleNanos = startedNanos;
+    private long sampleRows;
+    private long sampleBytes;
+    private double rowsPerSec;
+    private double bytesPerSec;
+
+    public void setPhase(String phase) {
+        this.phase = phase;
+    }
+
+    public void fileListed(long bytes) {
+        filesListed.increment();
+        bytesListed.add(bytes);
+    }
+
+    public void fileScanned() {
+        filesScanned.increment();
+    }
+
+    public void fileFetched() {
+        filesFetched.increment();
+    }
+
+    public void fileSkipped(long bytes) {
+        filesSkipped.increment();
+        bytesSkipped.add(bytes);
+    }
+
+    public void bytesFetched(long bytes) {
+        bytesFetched.add(bytes);
+    }
+
+    public void recordsParsed(long records) {
+        recordsParsed.add(records);
+    }
+
+    public void rowsLoaded(String table, long rows) {
+        rowsLoaded.add(rows);
+        rowsLoadedByTable.computeIfAbsent(table, k -> new LongAdder()).add(rows);
+    }
+
+    public void error(String message, Throwable e) {
+        errorCount.incrementAndGet();
+        synchronized (errors) {
+            if (errors.size() == MAX_ERRORS) {
+                errors.removeFirst();
+            }
+            errors.addLast(message + ": " + e);
+        }
+    }
+
+    // An error that ended the whole run
+    public void fail(Throwable e) {
+        failure = e;
+        error("export failed", e);
+    }
+
+    // Freezes the elapsed time, a finished run reports no rates and no ETA
+    public void finish() {
+        finishedNanos = System.nanoTime();
+    }
+
+    public boolean isFailed() {
+        return failure != null;
+    }
+
+    public synchronized MigrationJobProgress snapshot() {
+        boolean finished = finishedNanos != 0;
+        long now = finished ? finishedNanos : System.nanoTime();
+        long rows = rowsLoaded.sum();
+        long bytes = bytesFetched.sum();
+        if (finished) {
+            rowsPerSec = 0;
+            bytesPerSec = 0;
+        } else if (now - sampleNanos >= TimeUnit.SECONDS.toNanos(1)) {
+            double seconds = (now - sampleNanos) / 1e9;
+            rowsPerSec = (rows - sampleRows) / seconds;
+            bytesPerSec = (bytes - sampleBytes) / seconds;
+            sampleNanos = now;
+            sampleRows = rows;
+            sampleBytes = bytes;
+        }
+
+        MigrationJobProgress progress = new MigrationJobProgress();
+        progress.setPhase(phase);
+        progress.setStartedAtMillis(startedAtMillis);
+        progress.setElapsedMillis(TimeUnit.NANOSECONDS.toMillis(now - startedNanos));
+        progress.setFilesListed(filesListed.sum());
+        progress.setBytesListed(bytesListed.sum());
+        progress.setFilesScanned(filesScanned.sum());
+        progress.setFilesFetched(filesFetched.sum());
+        progress.setFilesSkipped(filesSkipped.sum());
+        progress.setBytesFetched(bytes);
+        progress.setRecordsParsed(recordsParsed.sum());
+        progress.setRowsLoaded(rows);
+        Map<String, Long> byTable = new TreeMap<>();
+        rowsLoadedByTable.forEach((table, count) -> byTable.put(table, count.sum()));
+        progress.setRowsLoadedByTable(byTable);
+        progress.setRowsPerSec(rowsPerSec);
+        progress.setBytesPerSec(bytesPerSec);
+        long remaining = bytesListed.sum() - bytes - bytesSkipped.sum();
+        progress.setEtaSeconds(bytesPerSec > 0 && remaining >= 0 ? Long.valueOf((long) (remaining / bytesPerSec)) : null);
+        progress.setErrorCount(errorCount.get());
+        synchronized (errors) {
+            progress.setErrors(new ArrayList<>(errors));
+        }
+        return progress;
+    }
+}
@@ -0,0 +1,120 @@
+package com.apple.snowflakemigration.service;
+
+import com.apple.snowflakemigration.model.SnowflakeProperties;
+import com.apple.snowflakemigration.util.CheckpointManifest;
+import com.apple.snowflakemigration.util.DeadLetterFile;
+import com.apple.snowflakemigration.util.ShardCoordinator;
+import com.apple.snowflakemigration.util.SyncState;
+import com.apple.snowflakemigration.util.VertexIdIndex;
+
+// State of one export, passed along instead of kept in SnowflakeService fields so that runs with
+// different SnowflakeProperties can execute at the same time.
+public class MigrationRun implements AutoCloseable {
+
+    private final String id;
+    private final SnowflakeProperties snowflakeProperties;
+    private final MigrationExecutors executors;
+    private final MigrationProgress progress = new MigrationProgress();
+    private volatile boolean cancelled;
+    private VertexIdIndex vertexIdIndex;
+    private CheckpointManifest checkpoint;
+    private ShardCoordinator shards;
+    private SyncState syncState;
+    private DeadLetterFile deadLetters;
+
+    public MigrationRun(String id, SnowflakeProperties snowflakeProperties, MigrationExecutors executors) {
+        this.id = id;
+        this.snowflakeProperties = snowflakeProperties;
+        this.executors = executors;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public SnowflakeProperties getSnowflakeProperties() {
+        return snowflakeProperties;
+    }
+
+    public MigrationExecutors getExecutors() {
+        return executors;
+    }
+
+    public MigrationProgress getProgress() {
+        return progress;
+    }
+
+    // Stops the workers of the run, the export returns at its next phase boundary
+    public void cancel() {
+        cancelled = true;
+        executors.close();
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public VertexIdIndex getVertexIdIndex() {
+        return vertexIdIndex;
+    }
+
+    public void setVertexIdIndex(VertexIdIndex vertexIdIndex) {
+        this.vertexIdIndex = vertexIdIndex;
+    }
+
+    // null when the run does not keep a checkpoint manifest
+    public CheckpointManifest getCheckpoint() {
+        return checkpoint;
+    }
+
+    public void setCheckpoint(CheckpointManifest checkpoint) {
+        this.checkpoint = checkpoint;
+    }
+
+    // null unless the run is one worker of a sharded migration
+    public ShardCoordinator getShards() {
+        return shards;
+    }
+
+    public void setShards(ShardCoordinator shards) {
+        this.shards = shards;
+    }
+
+    // null unless the run is incremental
+    public SyncState getSyncState() {
+        return syncState;
+    }
+
+    public void setSyncState(SyncState syncState) {
+        this.syncState = syncState;
+    }
+
+    // Rows the tables rejected, null when a rejected row fails its table instead
+    public DeadLetterFile getDeadLetters() {
+        return deadLetters;
+    }
+
+    public void setDeadLetters(DeadLetterFile deadLetters) {
+        this.deadLetters = deadLetters;
+    }
+
+    @Override
+    public void close() {
+        executors.close();
+        if (shards != null) {
+            shards.close();
+        }
+        if (vertexIdIndex != null) {
+            vertexIdIndex.close();
+        }
+        if (checkpoint != null) {
+            checkpoint.close();
+        }
+        if (syncState != null) {
+            syncState.close();
+        }
+        if (deadLetters != null) {
+            deadLetters.close();
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package com.apple.snowflakemigration.service;
+
+import com.apple.snowflakemigration.model.ExecutionMode;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+@Component
+public class PipelineSettings {
+
+    @Value("${migration.execution.mode:PLATFORM}")
+    private ExecutionMode executionMode;
+
+    @Value("${migration.execution.s3-permits:16}")
+    private int s3Permits;
+
+    @Value("${migration.execution.snowflake-permits:16}")
+    private int snowflakePermits;
+
+    @Value("${migration.pipeline.fetch-concurrency:8}")
+    private int fetchConcurrency;
+
+    @Value("${migration.pipeline.parse-concurrency:4}")
+    private int parseConcurrency;
+
+    @Value("${migration.pipeline.project-concurrency:4}")
+    private int projectConcurrency;
+
+    @Value("${migration.pipeline.sink-concurrency:16}")
+    private int sinkConcurrency;
+
+    // Row sinks open at once across all pipelines of a run, each holds a pooled connection, keep it below snowflake.pool.max-size
+    @Value("${migration.pipeline.max-open-sinks:32}")
+    private int maxOpenSinks;
+
+    @Value("${migration.pipeline.queue-capacity:32}")
+    private int queueCapacity;
+
+    @Value("${migration.pipeline.block-bytes:1048576}")
+    private int blockBytes;
+
+    @Value("${migration.shard.heartbeat-ms:5000}")
+    private long shardHeartbeatMillis;
+
+    @Value("${migration.shard.lease-timeout-ms:30000}")
+    private long shardLeaseTimeoutMillis;
+
+    @Value("${migration.shard.poll-ms:1000}")
+    private long shardPollMillis;
+
+    @Value("${migration.dead-letter.dir:${java.io.tmpdir}/snowflake-migration/dead-letters}")
+    private String deadLetterDir;
+
+    public ExecutionMode getExecutionMode() {
+        return executionMode;
+    }
+
+    public void setExecutionMode(ExecutionMode executionMode) {
+        this.executionMode = executionMode;
+    }
+
+    public int getS3Permits() {
+        return s3Permits;
+    }
+
+    public void setS3Permits(int s3Permits) {
+        this.s3Permits = s3Permits;
+    }
+
+    public int getSnowflakePermits() {
+        return snowflakePermits;
+    }
+
+    public void setSnowflakePermits(int snowflakePermits) {
+        this.snowflakePermits = snowflakePermits;
+    }
+
+    public int getFetchConcurrency() {
+        return fetchConcurrency;
+    }
+
+    public void setFetchConcurrency(int fetchConcurrency) {
+        this.fetchConcurrency = fetchConcurrency;
+    }
+
+    public int getParseConcurrency() {
+        return parseConcurrency;
+    }
+
+    public void setParseConcurrency(int parseConcurrency) {
+        this.parseConcurrency = parseConcurrency;
+    }
+
+    public int getProjectConcurrency() {
+        return projectConcurrency;
+    }
+
+    public void setProjectConcurrency(int projectConcurrency) {
+        this.projectConcurrency = projectConcurrency;
+    }
+
+    public int getSinkConcurrency() {
+        return sinkConcurrency;
+    }
+
+    public void setSinkConcurrency(int sinkConcurrency) {
+        this.sinkConcurrency = sinkConcurrency;
+    }
+
+    public int getMaxOpenSinks() {
+        return maxOpenSinks;
+    }
+
+    public void setMaxOpenSinks(int maxOpenSinks) {
+        this.maxOpenSinks = maxOpenSinks;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    public int getBlockBytes() {
+        return blockBytes;
+    }
+
+    public void setBlockBytes(int blockBytes) {
+        this.blockBytes = blockBytes;
+    }
+
+    public long getShardHeartbeatMillis() {
+        return shardHeartbeatMillis;
+    }
+
+    public void setShardHeartbeatMillis(long shardHeartbeatMillis) {
+        this.shardHeartbeatMillis = shardHeartbeatMillis;
+    }
+
+    public long getShardLeaseTimeoutMillis() {
+        return shardLeaseTimeoutMillis;
+    }
+
+    public void setShardLeaseTimeoutMillis(long shardLeaseTimeoutMillis) {
+        this.shardLeaseTimeoutMillis = shardLeaseTimeoutMillis;
+    }
+
+    public long getShardPollMillis() {
+        return shardPollMillis;
+    }
+
+    public void setShardPollMillis(long shardPollMillis) {
+        this.shardPollMillis = shardPollMillis;
+    }
+
+    public String getDeadLetterDir() {
+        return deadLetterDir;
+    }
+
+    public void setDeadLetterDir(String deadLetterDir) {
+        this.deadLetterDir = deadLetterDir;
+    }
+}
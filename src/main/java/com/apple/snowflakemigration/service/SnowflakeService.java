@@ -1,23 +1,47 @@
 package com.apple.snowflakemigration.service;
 
+import com.apple.snowflakemigration.model.ColumnType;
+import com.apple.snowflakemigration.model.ConnectionPoolStats;
 import com.apple.snowflakemigration.model.SnowflakeProperties;
+import com.apple.snowflakemigration.util.CheckpointManifest;
+import com.apple.snowflakemigration.util.DeadLetterFile;
+import com.apple.snowflakemigration.util.InMemoryVertexIdIndex;
 import com.apple.snowflakemigration.util.JSONUtils;
+import com.apple.snowflakemigration.util.LabelDependencies;
+import com.apple.snowflakemigration.util.LoadPlan;
+import com.apple.snowflakemigration.util.MappedVertexIdIndex;
+import com.apple.snowflakemigration.util.RecordProjector;
 import com.apple.snowflakemigration.util.S3Utils;
+import com.apple.snowflakemigration.util.SchemaChanges;
+import com.apple.snowflakemigration.util.ShardCoordinator;
+import com.apple.snowflakemigration.util.ShardedVertexIdIndex;
+import com.apple.snowflakemigration.util.SnowflakeConnectionPools;
+import com.apple.snowflakemigration.util.RowSink;
+import com.apple.snowflakemigration.util.RowSinkProvider;
 import com.apple.snowflakemigration.util.SnowflakeUtils;
+import com.apple.snowflakemigration.util.SyncState;
+import com.apple.snowflakemigration.util.VertexIdIndex;
 import com.fasterxml.jackson.databind.JsonNode;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
 import software.amazon.awssdk.services.s3.model.S3Object;
 
 import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.sql.Connection;
-import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.util.*;
 import java.util.concurrent.*;
-import java.util.stream.IntStream;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 @Service
 public class SnowflakeService {
@@ -33,236 +57,757 @@ public class SnowflakeService {
     @Autowired
     private S3Utils s3Utils;
 
-    private final LinkedBlockingQueue<Runnable> vertexTableCreationQueue = new LinkedBlockingQueue<>();
-    private final LinkedBlockingQueue<Runnable> edgeTableCreationQueue = new LinkedBlockingQueue<>();
-    private final LinkedBlockingQueue<Runnable> jsonObjectsQueue = new LinkedBlockingQueue<>();
-    private ThreadPoolExecutor vertexTableCreationExecutor;
+    @Autowired
+    private PipelineSettings pipelineSettings;
 
-    private ThreadPoolExecutor edgeTableCreationExecutor;
-    private ThreadPoolExecutor jsonObjectsExecutor;
+    @Autowired
+    private SnowflakeConnectionPools connectionPools;
 
-    private Map<String, List<String>> tableNameVertexIdsMap;
+    // Tables are created and rows written through snowflakeUtils unless the load test harness sets another provider
+    private RowSinkProvider sinkProvider;
 
-    private static final int batchSize = 100;
+    public void setSinkProvider(RowSinkProvider sinkProvider) {
+        this.sinkProvider = sinkProvider;
+    }
 
+    private RowSinkProvider getSinkProvider() {
+        return sinkProvider != null ? sinkProvider : snowflakeUtils;
+    }
 
     public void exportS3ObjectsToSnowflake(SnowflakeProperties snowflakeProperties) {
+        try (MigrationRun run = newRun(UUID.randomUUID().toString(), snowflakeProperties)) {
+            exportS3ObjectsToSnowflake(run);
+        }
+    }
+
+    // The run owns its executors, index and progress, runs with different properties share nothing but the connection pools
+    public MigrationRun newRun(String id, SnowflakeProperties snowflakeProperties) {
+        MigrationExecutors executors = new MigrationExecutors(id, pipelineSettings.getExecutionMode(),
+                pipelineSettings.getS3Permits(), pipelineSettings.getSnowflakePermits(), pipelineSettings.getMaxOpenSinks());
+        return new MigrationRun(id, snowflakeProperties, executors);
+    }
+
+    public void exportS3ObjectsToSnowflake(MigrationRun run) {
         s3Utils.getS3Client();
-        // List files from vertex and edges folders
-        List<S3Object> vertexFiles = s3Utils.listFiles("nodes");
-        log.info("S3ToSnowflake.exportS3ObjectsToMySQL(): vertex files size ={}", vertexFiles.size());
-        List<S3Object> edgeFiles = s3Utils.listFiles("edges");
-        log.info("S3ToSnowflake.exportS3ObjectsToMySQL(): edges files size={}", edgeFiles.size());
-        Connection vertexConn = snowflakeUtils.getConnection(snowflakeProperties, snowflakeProperties.getVertexSchema());
-        Connection edgeConn = snowflakeUtils.getConnection(snowflakeProperties, snowflakeProperties.getEdgeSchema());
+        SnowflakeProperties snowflakeProperties = run.getSnowflakeProperties();
         try {
-            tableNameVertexIdsMap = new HashMap<>();
-            createVertexTables(vertexFiles, snowflakeProperties, vertexConn);
-            tableNameVertexIdsMap.forEach((k, v) -> log.info("S3ToSnowflake.exportS3ObjectsToMySQL(): tableName = {}, vertex ids size = {}", k, v.size()));
-            createEdgeTables(edgeFiles, snowflakeProperties, edgeConn);
+            if (StringUtils.hasText(snowflakeProperties.getShardDir())) {
+                run.setShards(ShardCoordinator.open(Path.of(snowflakeProperties.getShardDir()), getWorkerId(snowflakeProperties),
+                        pipelineSettings.getShardHeartbeatMillis(), pipelineSettings.getShardLeaseTimeoutMillis(),
+                        pipelineSettings.getShardPollMillis()));
+            }
+            run.setVertexIdIndex(openVertexIdIndex(run));
+            String checkpointFile = snowflakeProperties.getCheckpointFile();
+            if (!StringUtils.hasText(checkpointFile) && run.getShards() != null) {
+                // A worker that restarts under the same id resumes its partly loaded files
+                checkpointFile = run.getShards().getWorkerDirectory("checkpoints").resolve("manifest.tsv").toString();
+            }
+            if (StringUtils.hasText(checkpointFile)) {
+                run.setCheckpoint(CheckpointManifest.open(Path.of(checkpointFile)));
+            }
+            if (snowflakeProperties.isIncremental()) {
+                run.setSyncState(openSyncState(run));
+            }
+            run.setDeadLetters(new DeadLetterFile(getDeadLetterFile(run)));
+            if (snowflakeProperties.isEdgesOnly()) {
+                log.info("S3ToSnowflake.exportS3ObjectsToMySQL(): Skipping vertex files, reusing vertex id index size = {}", run.getVertexIdIndex().size());
+                createEdgeTables(run);
+            } else if (run.getShards() != null) {
+                // Edges of a sharded run wait for the vertex phase of every worker
+                createVertexTables(run);
+                log.info("S3ToSnowflake.exportS3ObjectsToMySQL(): vertex id index size = {}", run.getVertexIdIndex().size());
+                if (!run.isCancelled()) {
+                    createEdgeTables(run);
+                }
+            } else {
+                createTables(run);
+            }
+            run.getProgress().setPhase(run.isCancelled() ? "cancelled" : "done");
         } catch (Exception e) {
             log.error("S3ToSnowflake.exportS3ObjectsToMySQL(): Error while exporting S3 objects to MySQL", e);
-        } finally {
-            try {
-                log.info("Closing vertex connection");
-                vertexConn.close();
-                log.info("Closing Edge connection");
-                edgeConn.close();
-            } catch (SQLException e) {
-                throw new RuntimeException(e);
+            if (!run.isCancelled()) {
+                run.getProgress().fail(e);
             }
         }
-        // Create tables and insert data for vertex
+    }
 
+    // Each run gets its own file unless the properties name one, a sharded worker keeps it in its shard directory
+    private Path getDeadLetterFile(MigrationRun run) throws IOException {
+        String deadLetterFile = run.getSnowflakeProperties().getDeadLetterFile();
+        if (StringUtils.hasText(deadLetterFile)) {
+            return Path.of(deadLetterFile);
+        }
+        if (run.getShards() != null) {
+            return run.getShards().getWorkerDirectory("dead-letters").resolve(run.getId() + ".ndjson");
+        }
+        return Path.of(pipelineSettings.getDeadLetterDir(), run.getId() + ".ndjson");
     }
 
-    public boolean isTableExists(SnowflakeProperties snowflakeProperties, String tableName) {
-        Connection vertexConn = snowflakeUtils.getConnection(snowflakeProperties, snowflakeProperties.getVertexSchema());
-        return snowflakeUtils.isTableExists(vertexConn, tableName, "VERTEX");
-    }
-
-
-    private void createVertexTables(List<S3Object> vertexFiles, SnowflakeProperties snowflakeProperties, Connection vertexConn) throws IOException {
-        Map<String, List<JsonNode>> fileNameJsonObjectsMap = getJsonObjectsFromFilesWithSameName(vertexFiles, "nodes/");
-        vertexTableCreationExecutor = new ThreadPoolExecutor(50,
-                50, 60, TimeUnit.SECONDS, vertexTableCreationQueue);
-        List<Future<?>> futureResp = new ArrayList<>();
-        for (Map.Entry<String, List<JsonNode>> entry : fileNameJsonObjectsMap.entrySet()) {
-            futureResp.add(vertexTableCreationExecutor.submit(() -> {
-                log.info("S3ToSnowflake.createVertexTables(): file name = {}, json objects size = {}", entry.getKey(), entry.getValue().size());
-                List<JsonNode> jsonObjects = entry.getValue();
-                String[] columns = getColumnsToBeCreated(jsonObjects);
-                if (snowflakeUtils.isTableExists(vertexConn, entry.getKey(), snowflakeProperties.getVertexSchema())) {
-                    log.info("S3ToSnowflake.createVertexTables(): Table already exists. tableName={}", entry.getKey());
-                } else {
-                    snowflakeUtils.createTable(vertexConn, entry.getKey(), columns);
-                }
-                insertRecordsIntoVertexTable(jsonObjects, columns, vertexConn, entry.getKey());
-            }));
+    private VertexIdIndex openVertexIdIndex(MigrationRun run) throws IOException {
+        SnowflakeProperties snowflakeProperties = run.getSnowflakeProperties();
+        if (run.getShards() != null) {
+            // Each worker keeps its share in the shard directory, where the others open it for the edges
+            return new ShardedVertexIdIndex(MappedVertexIdIndex.open(run.getShards().getWorkerDirectory("index")));
+        }
+        if (StringUtils.hasText(snowflakeProperties.getVertexIndexDir())) {
+            return MappedVertexIdIndex.open(Path.of(snowflakeProperties.getVertexIndexDir()));
+        }
+        if (snowflakeProperties.isEdgesOnly()) {
+            log.warn("S3ToSnowflake.openVertexIdIndex(): edgesOnly without vertexIndexDir, edge tables will be created without foreign keys");
         }
+        return new InMemoryVertexIdIndex();
+    }
 
-        for (Future<?> resp : futureResp) {
-            try {
-                resp.get();
-            } catch (InterruptedException | ExecutionException e) {
-                log.error("S3ToSnowflake.createVertexTables(): Error while creating vertex tables", e);
+    // Every run keeps its own file in the sync state directory and starts from the union of all files there,
+    // so the workers of a sharded run see the objects any of them loaded last time
+    private SyncState openSyncState(MigrationRun run) throws IOException {
+        SnowflakeProperties snowflakeProperties = run.getSnowflakeProperties();
+        if (!StringUtils.hasText(snowflakeProperties.getSyncStateDir())) {
+            throw new IllegalArgumentException("An incremental run needs a syncStateDir");
+        }
+        Path directory = Path.of(snowflakeProperties.getSyncStateDir());
+        Path own = directory.resolve((run.getShards() != null ? getWorkerId(snowflakeProperties) : "state") + ".tsv");
+        SyncState syncState = SyncState.open(own);
+        try (Stream<Path> shares = Files.list(directory)) {
+            for (Path share : shares.filter(share -> share.toString().endsWith(".tsv") && !share.equals(own)).toList()) {
+                syncState.readShare(share);
             }
         }
-        log.info("S3ToSnowflake.createVertexTables(): Creation and Insertion of vertex tables is completed");
-        vertexTableCreationExecutor.shutdown();
+        log.info("S3ToSnowflake.openSyncState(): file={}, synced files={}", own, syncState.getSyncedCount());
+        return syncState;
+    }
 
+    public List<ConnectionPoolStats> getConnectionPoolStats() {
+        return connectionPools.getStats();
     }
 
+    public boolean isTableExists(SnowflakeProperties snowflakeProperties, String tableName) {
+        try (Connection vertexConn = snowflakeUtils.getConnection(snowflakeProperties, snowflakeProperties.getVertexSchema())) {
+            return snowflakeUtils.isTableExists(vertexConn, tableName, "VERTEX");
+        } catch (SQLException e) {
+            log.error("S3ToSnowflake.isTableExists(): Error while releasing connection", e);
+            return false;
+        }
+    }
 
-    private Map<String, List<JsonNode>> getJsonObjectsFromFilesWithSameName(List<S3Object> vertexFiles, String folderName) {
-        jsonObjectsExecutor = new ThreadPoolExecutor(100,
-                100, 60, TimeUnit.SECONDS, jsonObjectsQueue);
-        Map<String, List<JsonNode>> fileNameJsonObjectsMap = new ConcurrentHashMap<>();
-        List<Future<?>> response = new ArrayList<>();
-        for (S3Object file : vertexFiles) {
-            response.add(jsonObjectsExecutor.submit(() -> {
-                String fileName = file.key().split(folderName)[1].split("-")[0];
-                if (fileNameJsonObjectsMap.containsKey(fileName)) {
-                    List<JsonNode> existingNodes = fileNameJsonObjectsMap.get(fileName);
-                    existingNodes.addAll(s3Utils.getFileContent(file.key()));
-                    fileNameJsonObjectsMap.put(fileName, existingNodes);
-                } else {
-                    fileNameJsonObjectsMap.put(fileName, s3Utils.getFileContent(file.key()));
-                }
-            }));
+
+    // Sharded runs only. Every worker creates the tables from the schemas all workers scanned, so the
+    // tables of a sharded run are created once the whole folder is scanned.
+    private void createVertexTables(MigrationRun run) {
+        SnowflakeProperties snowflakeProperties = run.getSnowflakeProperties();
+        List<S3Object> vertexFiles = Collections.synchronizedList(new ArrayList<>());
+        run.getProgress().setPhase("scanning vertices");
+        Map<String, LabelSchema> labelSchemas = scanLabelSchemasSharded(run, "nodes", vertexFiles);
+        if (run.isCancelled()) {
+            return;
         }
+        log.info("S3ToSnowflake.createVertexTables(): vertex files size ={}", vertexFiles.size());
+        LabelTables tables = new LabelTables();
+        SchemaChanges changes = newSchemaChanges(run, snowflakeProperties.getVertexSchema());
+        labelSchemas.forEach((label, schema) -> addVertexTable(run, label, schema, tables, changes));
+        getSinkProvider().applySchemaChanges(snowflakeProperties, snowflakeProperties.getVertexSchema(), changes);
+        run.getProgress().setPhase("loading vertices");
+        runPipeline(run, "load-nodes", newVertexPipeline(run, tables), planLoad("load-nodes", vertexFiles, "nodes/"));
+        log.info("S3ToSnowflake.createVertexTables(): Creation and Insertion of vertex tables is completed");
+    }
 
-        for (Future<?> resp : response) {
+    private void createEdgeTables(MigrationRun run) {
+        if (run.getShards() == null) {
             try {
-                resp.get();
-            } catch (InterruptedException | ExecutionException e) {
-                log.error("getJsonObjectsFromFilesWithSameName(): Error while getting json objects from file", e);
+                loadEdgeTables(run, null);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                log.error("S3ToSnowflake.createEdgeTables(): Interrupted while loading edge tables", e);
             }
+            return;
+        }
+        openVertexIndexShares(run);
+        SnowflakeProperties snowflakeProperties = run.getSnowflakeProperties();
+        List<S3Object> edgeFiles = Collections.synchronizedList(new ArrayList<>());
+        run.getProgress().setPhase("scanning edges");
+        Map<String, LabelSchema> labelSchemas = scanLabelSchemasSharded(run, "edges", edgeFiles);
+        if (run.isCancelled()) {
+            return;
         }
-        jsonObjectsExecutor.shutdown();
-        return fileNameJsonObjectsMap;
+        log.info("S3ToSnowflake.createEdgeTables(): edges files size={}", edgeFiles.size());
+        LabelTables tables = new LabelTables();
+        SchemaChanges changes = newSchemaChanges(run, snowflakeProperties.getEdgeSchema());
+        labelSchemas.forEach((label, schema) -> addEdgeTable(run, label, schema, tables, changes));
+        getSinkProvider().applySchemaChanges(snowflakeProperties, snowflakeProperties.getEdgeSchema(), changes);
+        run.getProgress().setPhase("loading edges");
+        runPipeline(run, "load-edges", newEdgePipeline(run, tables), planLoad("load-edges", edgeFiles, "edges/"));
+        log.info("S3ToSnowflake.createEdgeTables(): Creation and Insertion of edge tables is completed");
     }
 
-    private void insertRecordsIntoVertexTable(List<JsonNode> jsonObjects, String[] columns, Connection connection, String tableName) {
-        List<String> ids = new ArrayList<>();
+    // Creates and loads the table of each label as soon as the scan of its files is over, while the files
+    // of other labels are still scanning. The scan of the vertices indexes their ids, so the scan of the
+    // edges, which starts once it is over and runs during the vertex load, finds the vertex labels every
+    // edge label references. An edge label is loaded once its files are scanned and the vertex tables of
+    // those labels are committed, all remaining ones once the vertex load is over. When the vertex load
+    // fails, edge labels still waiting on a vertex table are not loaded.
+    private void createTables(MigrationRun run) {
+        SnowflakeProperties snowflakeProperties = run.getSnowflakeProperties();
+        VertexIdIndex vertexIdIndex = run.getVertexIdIndex();
+        LabelTables tables = new LabelTables();
+        MigrationPipeline vertexPipeline = newVertexPipeline(run, tables);
+        // Vertex labels become pending as the scan finds them, before the first of their files is loaded
+        LabelDependencies dependencies = new LabelDependencies(Set.of());
+        vertexPipeline.setLabelListener(label -> {
+            log.info("S3ToSnowflake.createTables(): vertex table={} is loaded", label);
+            dependencies.loaded(label);
+        });
+        List<S3Object> vertexFiles = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch vertexScan = new CountDownLatch(1);
+        run.getProgress().setPhase("loading vertices");
+        ExecutorService executor = run.getExecutors().newExecutor("load-nodes", 1);
+        Future<?> vertexLoad = executor.submit(() -> {
+            boolean loaded = false;
+            try {
+                vertexPipeline.run(consumer -> {
+                    try {
+                        scanLabels(run, "nodes", vertexFiles, (label, record) -> {
+                            String id = getVertexId(record, "id");
+                            if (id != null) {
+                                vertexIdIndex.put(id, label);
+                            }
+                        }, scanned -> {
+                            SchemaChanges changes = newSchemaChanges(run, snowflakeProperties.getVertexSchema());
+                            if (addVertexTable(run, scanned.label(), scanned.schema(), tables, changes)) {
+                                dependencies.pending(scanned.label());
+                                getSinkProvider().applySchemaChanges(snowflakeProperties, snowflakeProperties.getVertexSchema(), changes);
+                                LoadPlan.largestFirst(scanned.files()).forEach(consumer);
+                            }
+                            vertexPipeline.labelComplete(scanned.label());
+                        });
+                    } finally {
+                        vertexScan.countDown();
+                    }
+                });
+                loaded = !vertexPipeline.isFailed() && !run.isCancelled();
+                log.info("S3ToSnowflake.createTables(): Creation and Insertion of vertex tables is completed, loaded={}", loaded);
+            } finally {
+                vertexScan.countDown();
+                if (loaded) {
+                    dependencies.allLoaded();
+                } else {
+                    dependencies.loadFailed();
+                }
+            }
+        });
         try {
+            vertexScan.await();
+            if (!run.isCancelled()) {
+                logLoadPlan("load-nodes", vertexFiles, "nodes/");
+                log.info("S3ToSnowflake.createTables(): vertex id index size = {}", vertexIdIndex.size());
+                Set<String> heldBack = loadEdgeTables(run, dependencies);
+                if (!heldBack.isEmpty() && !run.isCancelled()) {
+                    log.error("S3ToSnowflake.createTables(): edge tables={} not loaded, vertex tables they reference failed to load", heldBack);
+                    run.getProgress().error("load-edges", new IllegalStateException("Edge tables " + heldBack
+                            + " not loaded, vertex tables they reference failed to load"));
+                }
+            }
+            vertexLoad.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.error("S3ToSnowflake.createTables(): Interrupted while loading tables", e);
+        } catch (ExecutionException e) {
+            log.error("S3ToSnowflake.createTables(): Error while loading vertex tables", e);
+            run.getProgress().error("load-nodes", e);
+        } finally {
+            executor.shutdown();
+        }
+    }
 
-            jsonObjects.stream().forEach(jsonNode -> {
-                String[] finalColumns = columns;
-                String[] values = jsonUtils.parseJsonValues(jsonNode);
-                for (int i = 0; i < columns.length; i++) {
-                    if (columns[i].equals("id")) {
-                        ids.add(values[i]);
-                        break;
-                    }
+    // Scans the edge files and creates and loads the table of each edge label once its files are scanned.
+    // With dependencies set, the scan records the vertex labels the from and to ids of every edge resolve
+    // to, and an edge label also waits for the vertex tables it references. Returns the edge labels held
+    // back because a vertex table they reference failed to load.
+    private Set<String> loadEdgeTables(MigrationRun run, LabelDependencies dependencies) throws InterruptedException {
+        SnowflakeProperties snowflakeProperties = run.getSnowflakeProperties();
+        VertexIdIndex vertexIdIndex = run.getVertexIdIndex();
+        LabelTables tables = new LabelTables();
+        MigrationPipeline pipeline = newEdgePipeline(run, tables);
+        List<S3Object> edgeFiles = Collections.synchronizedList(new ArrayList<>());
+        Set<String> heldBack = ConcurrentHashMap.newKeySet();
+        run.getProgress().setPhase("loading edges");
+        pipeline.run(consumer -> {
+            Consumer<ScannedLabel> load = scanned -> {
+                SchemaChanges changes = newSchemaChanges(run, snowflakeProperties.getEdgeSchema());
+                if (addEdgeTable(run, scanned.label(), scanned.schema(), tables, changes)) {
+                    getSinkProvider().applySchemaChanges(snowflakeProperties, snowflakeProperties.getEdgeSchema(), changes);
+                    LoadPlan.largestFirst(scanned.files()).forEach(consumer);
                 }
-                if (jsonObjects.indexOf(jsonNode) < 100) {
-                    snowflakeUtils.insertData(connection, tableName, finalColumns, values);
+                pipeline.labelComplete(scanned.label());
+            };
+            Map<String, List<ScannedLabel>> waiting = new LinkedHashMap<>();
+            scanLabels(run, "edges", edgeFiles, dependencies == null ? null : (label, record) -> {
+                dependencies.addReference(label, getVertexLabel(vertexIdIndex, getVertexId(record, "from")));
+                dependencies.addReference(label, getVertexLabel(vertexIdIndex, getVertexId(record, "to")));
+            }, scanned -> {
+                waiting.put(scanned.label(), List.of(scanned));
+                // Labels scanned earlier may have become ready since
+                for (Iterator<List<ScannedLabel>> it = waiting.values().iterator(); it.hasNext(); ) {
+                    ScannedLabel next = it.next().get(0);
+                    if (dependencies == null || dependencies.isReady(next.label())) {
+                        it.remove();
+                        load.accept(next);
+                    }
                 }
             });
+            if (!waiting.isEmpty() && !run.isCancelled()) {
+                for (String label : waiting.keySet()) {
+                    log.info("S3ToSnowflake.loadEdgeTables(): edge table={} waits for vertex tables={}", label, dependencies.getReferences(label));
+                }
+                heldBack.addAll(dependencies.forEachReady(waiting, load, run::isCancelled));
+            }
+        });
+        logLoadPlan("load-edges", edgeFiles, "edges/");
+        log.info("S3ToSnowflake.loadEdgeTables(): Creation and Insertion of edge tables is completed");
+        return heldBack;
+    }
 
-        } catch (Exception e) {
-            log.error("S3ToSnowflake.insertRecordsIntoTable(): Error while inserting record into table={}", tableName, e);
+    // Without shards the scan indexes the vertex ids, a sharded run indexes them while loading so
+    // every worker publishes the ids of the files it loaded. Labels are loaded once added to tables.
+    private MigrationPipeline newVertexPipeline(MigrationRun run, LabelTables tables) {
+        SnowflakeProperties snowflakeProperties = run.getSnowflakeProperties();
+        VertexIdIndex vertexIdIndex = run.getVertexIdIndex();
+        boolean indexOnScan = run.getShards() == null;
+        MigrationPipeline pipeline = new MigrationPipeline("vertex", pipelineSettings, run, s3Utils,
+                key -> getLabel(key, "nodes/"),
+                new TableRowProjector(tables.tables) {
+                    @Override
+                    public boolean project(String label, JsonNode record, String[] row, int offset) {
+                        if (!super.project(label, record, row, offset)) {
+                            return false;
+                        }
+                        if (indexOnScan) {
+                            return true;
+                        }
+                        int idIndex = tables.idOrdinals.get(label);
+                        if (idIndex >= 0 && row[offset + idIndex] != null) {
+                            vertexIdIndex.put(row[offset + idIndex], label);
+                        }
+                        return true;
+                    }
+                },
+                label -> openRowSink(run, snowflakeProperties.getVertexSchema(), label, tables.tables.get(label), tables.mergeKeys.get(label)));
+        // Complete vertex files are only skipped when their ids are already in a persistent index
+        pipeline.setSkipCompleteFiles(StringUtils.hasText(snowflakeProperties.getVertexIndexDir()) || run.getShards() != null);
+        pipeline.setFileListener(newFileListener(run, "load-nodes"));
+        return pipeline;
+    }
+
+    private MigrationPipeline newEdgePipeline(MigrationRun run, LabelTables tables) {
+        SnowflakeProperties snowflakeProperties = run.getSnowflakeProperties();
+        MigrationPipeline pipeline = new MigrationPipeline("edge", pipelineSettings, run, s3Utils,
+                key -> getLabel(key, "edges/"),
+                new TableRowProjector(tables.tables),
+                label -> openRowSink(run, snowflakeProperties.getEdgeSchema(), label, tables.tables.get(label), tables.mergeKeys.get(label)));
+        pipeline.setSkipCompleteFiles(true);
+        pipeline.setFileListener(newFileListener(run, "load-edges"));
+        return pipeline;
+    }
+
+    private SchemaChanges newSchemaChanges(MigrationRun run, String schema) {
+        return new SchemaChanges(getSinkProvider().getCatalog(run.getSnowflakeProperties(), schema));
+    }
+
+    // Adds the table of a vertex label to tables and its DDL to changes, false when the label has no columns
+    private boolean addVertexTable(MigrationRun run, String label, LabelSchema schema, LabelTables tables, SchemaChanges changes) {
+        log.info("S3ToSnowflake.createVertexTables(): file name = {}, json objects size = {}", label, schema.getRecordCount());
+        LabelTable table = new LabelTable(schema.getFields(), schema.getColumns(), schema.getTypes());
+        if (table.columns().length == 0) {
+            return false;
         }
-        if (tableNameVertexIdsMap.containsKey(tableName)) {
-            List<String> addedIds = tableNameVertexIdsMap.get(tableName);
-            addedIds.addAll(ids);
-            tableNameVertexIdsMap.put(tableName, addedIds);
-        } else {
-            tableNameVertexIdsMap.put(tableName, ids);
+        changes.ensureTable(label, table.columns(), table.types());
+        tables.add(label, table, table.indexOf("id"), getMergeKeys(run, label, table, "id"));
+        return true;
+    }
+
+    // Adds the table of an edge label to tables and its DDL to changes, false when the label has no columns.
+    // The first record of the label finds the vertex tables its foreign keys reference.
+    private boolean addEdgeTable(MigrationRun run, String label, LabelSchema schema, LabelTables tables, SchemaChanges changes) {
+        log.info("S3ToSnowflake.createEdgeTables(): file name = {}, json objects size = {}", label, schema.getRecordCount());
+        if (schema.getColumns().length == 0) {
+            return false;
         }
-        log.info("S3ToSnowflake.insertRecordsIntoTable(): Inserting data into table ={} is completed", tableName);
+        String[] columns = Arrays.stream(schema.getColumns())
+                .map(column -> column.equalsIgnoreCase("from") ? "fromVertex" : column)
+                .map(column -> column.equalsIgnoreCase("to") ? "toVertex" : column)
+                .toArray(String[]::new);
+        LabelTable table = new LabelTable(schema.getFields(), columns, schema.getTypes());
+        JsonNode firstRecord = schema.getFirstRecord();
+        int fromIndex = table.indexOf("fromVertex");
+        int toIndex = table.indexOf("toVertex");
+        String fromVertex = fromIndex >= 0 ? firstRecord.path(table.fields()[fromIndex]).asText() : "";
+        String toVertex = toIndex >= 0 ? firstRecord.path(table.fields()[toIndex]).asText() : "";
+        String fromVertexRefTable = getVertexRefTable(run, fromVertex);
+        String toVertexRefTable = getVertexRefTable(run, toVertex);
+        log.info("S3ToSnowflake.createEdgeTables(): edge table ={}, fromVertexRefTable={},toVertexRefTable={}", label, fromVertexRefTable, toVertexRefTable);
+        changes.ensureEdgeTable(label, columns, table.types(), fromVertexRefTable, toVertexRefTable);
+        tables.add(label, table, -1, getMergeKeys(run, label, table, "id", "fromVertex", "toVertex"));
+        return true;
     }
 
-    private void insertRecordsIntoEdgeTable(List<JsonNode> jsonObjects, String[] columns, Connection connection, String tableName) {
-        if (jsonObjects.size() > 100) {
-            jsonObjects = jsonObjects.subList(0, 100);
+    // Lists the folder and streams every file once, as soon as its listing page arrives, to work out the
+    // columns of each label without keeping the records. Each label goes to labelScanned, on the calling
+    // thread, as soon as all of its files are listed and scanned, while the files of other labels are still
+    // scanning. The listed files are added to files, and recordListener, if set, sees every record with its
+    // label. Returns early when the run is cancelled.
+    private void scanLabels(MigrationRun run, String folderName, List<S3Object> files, BiConsumer<String, JsonNode> recordListener,
+                            Consumer<ScannedLabel> labelScanned) throws InterruptedException {
+        Map<String, LabelSchema> labelSchemas = new ConcurrentHashMap<>();
+        Map<String, List<S3Object>> filesByLabel = new ConcurrentHashMap<>();
+        // The listing holds one count of every label until it is over, the scans of its files one each
+        Map<String, AtomicInteger> pendingScans = new ConcurrentHashMap<>();
+        BlockingQueue<String> scannedLabels = new LinkedBlockingQueue<>();
+        ExecutorService executor = run.getExecutors().newExecutor("scan-" + folderName, pipelineSettings.getFetchConcurrency());
+        Semaphore s3Permits = run.getExecutors().getS3Permits();
+        MigrationProgress progress = run.getProgress();
+        try {
+            ExecutorService listExecutor = run.getExecutors().newExecutor("list-" + folderName, s3Utils.getListParallelism());
+            s3Utils.listFiles(folderName, listExecutor, file -> {
+                progress.fileListed(file.size() != null ? file.size() : 0);
+                if (!isChanged(run, file)) {
+                    progress.fileSkipped(file.size() != null ? file.size() : 0);
+                    return;
+                }
+                files.add(file);
+                String label = getLabel(file.key(), folderName + "/");
+                LabelSchema labelSchema = labelSchemas.computeIfAbsent(label, k -> new LabelSchema());
+                filesByLabel.computeIfAbsent(label, k -> Collections.synchronizedList(new ArrayList<>())).add(file);
+                AtomicInteger pending = pendingScans.computeIfAbsent(label, k -> new AtomicInteger(1));
+                pending.incrementAndGet();
+                Consumer<JsonNode> consumer = recordListener == null ? labelSchema::accept : record -> {
+                    labelSchema.accept(record);
+                    recordListener.accept(label, record);
+                };
+                executor.submit(() -> {
+                    try {
+                        s3Permits.acquire();
+                        try {
+                            s3Utils.forEachRecord(file, consumer);
+                        } finally {
+                            s3Permits.release();
+                        }
+                        progress.fileScanned();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        log.error("S3ToSnowflake.scanLabels(): Interrupted while scanning key={}", file.key(), e);
+                    } catch (Exception e) {
+                        log.error("S3ToSnowflake.scanLabels(): Error while getting json objects from key={}", file.key(), e);
+                        progress.error("scan " + folderName, e);
+                    } finally {
+                        if (pending.decrementAndGet() == 0) {
+                            scannedLabels.add(label);
+                        }
+                    }
+                });
+            });
+            listExecutor.shutdown();
+            for (Map.Entry<String, AtomicInteger> entry : pendingScans.entrySet()) {
+                if (entry.getValue().decrementAndGet() == 0) {
+                    scannedLabels.add(entry.getKey());
+                }
+            }
+            for (int i = 0; i < pendingScans.size(); i++) {
+                String label;
+                while ((label = scannedLabels.poll(1, TimeUnit.SECONDS)) == null) {
+                    if (run.isCancelled()) {
+                        return;
+                    }
+                }
+                labelScanned.accept(new ScannedLabel(label, labelSchemas.get(label), List.copyOf(filesByLabel.get(label))));
+            }
+        } finally {
+            executor.shutdown();
         }
-        jsonObjects.stream().forEach(jsonNode -> {
-            String[] finalColumns = columns;
-            try {
-                String[] values = jsonUtils.parseJsonValues(jsonNode);
-                snowflakeUtils.insertData(connection, tableName, finalColumns, values);
-            } catch (Exception e) {
-                log.error("S3ToSnowflake.insertRecordsIntoTable(): Error while inserting record into table={}", tableName, e);
+    }
+
+    // Every worker lists the whole folder but only scans the files it claims. The schema of each file is
+    // published with its done marker, so all workers merge the same schemas and issue the same idempotent DDL.
+    private Map<String, LabelSchema> scanLabelSchemasSharded(MigrationRun run, String folderName, List<S3Object> files) {
+        ShardCoordinator shards = run.getShards();
+        MigrationProgress progress = run.getProgress();
+        String phase = "scan-" + folderName;
+        ExecutorService listExecutor = run.getExecutors().newExecutor("list-" + folderName, s3Utils.getListParallelism());
+        s3Utils.listFiles(folderName, listExecutor, file -> {
+            progress.fileListed(file.size() != null ? file.size() : 0);
+            if (isChanged(run, file)) {
+                files.add(file);
+            } else {
+                progress.fileSkipped(file.size() != null ? file.size() : 0);
             }
         });
-        log.info("S3ToSnowflake.insertRecordsIntoTable(): Inserting data into table ={} is completed", tableName);
-    }
-
-
-    private void createEdgeTables(List<S3Object> edgeFiles, SnowflakeProperties snowflakeProperties, Connection edgeConn) throws IOException {
-        Map<String, List<JsonNode>> fileNameJsonObjectsMap = getJsonObjectsFromFilesWithSameName(edgeFiles, "edges/");
-        edgeTableCreationExecutor = new ThreadPoolExecutor(50,
-                50, 60, TimeUnit.SECONDS, edgeTableCreationQueue);
-        List<Future<?>> futureResp = new ArrayList<>();
-        for (Map.Entry<String, List<JsonNode>> entry : fileNameJsonObjectsMap.entrySet()) {
-            futureResp.add(edgeTableCreationExecutor.submit(() -> {
-                log.info("S3ToSnowflake.createEdgeTables(): file name = {}, json objects size = {}", entry.getKey(), entry.getValue().size());
-                List<JsonNode> jsonObjects = entry.getValue();
-                String[] columns = Arrays.stream(getColumnsToBeCreated(jsonObjects))
-                        .map(column -> column.equalsIgnoreCase("from") ? "fromVertex" : column)
-                        .map(column -> column.equalsIgnoreCase("to") ? "toVertex" : column)
-                        .toArray(String[]::new);
-                String[] values = jsonUtils.parseJsonValues(jsonObjects.get(0));
-                String fromVertex = "";
-                String toVertex = "";
-                for (int i = 0; i < columns.length; i++) {
-                    if (columns[i].equalsIgnoreCase("fromVertex")) {
-                        fromVertex = values[i];
-                    } else if (columns[i].equalsIgnoreCase("toVertex")) {
-                        toVertex = values[i];
+        listExecutor.shutdown();
+        Map<String, S3Object> filesByKey = new HashMap<>();
+        files.forEach(file -> filesByKey.put(file.key(), file));
+        List<String> keys = files.stream().map(S3Object::key).toList();
+        ExecutorService executor = run.getExecutors().newExecutor("scan-" + folderName, pipelineSettings.getFetchConcurrency());
+        Semaphore s3Permits = run.getExecutors().getS3Permits();
+        try {
+            runShardedPhase(run, phase, keys, () -> {
+                List<Future<?>> response = new ArrayList<>();
+                shards.forEachClaimed(phase, keys, run::isCancelled, key -> response.add(executor.submit(() -> {
+                    LabelSchema fileSchema = new LabelSchema();
+                    s3Permits.acquire();
+                    try {
+                        s3Utils.forEachRecord(filesByKey.get(key), fileSchema::accept);
+                    } finally {
+                        s3Permits.release();
                     }
-                }
-                String fromVertexRefTable = getVertexRefTable(fromVertex);
-                String toVertexRefTable = getVertexRefTable(toVertex);
-                log.info("S3ToSnowflake.createEdgeTables(): edge table ={}, fromVertexRefTable={},toVertexRefTable={}", fromVertexRefTable, toVertexRefTable);
-                if (snowflakeUtils.isTableExists(edgeConn, entry.getKey(), snowflakeProperties.getVertexSchema())) {
-                    log.info("S3ToSnowflake.createEdgeTables(): Table already exists. tableName={}", entry.getKey());
-                } else {
-                    snowflakeUtils.createEdgeTable(edgeConn, entry.getKey(), columns, fromVertexRefTable, toVertexRefTable);
-                }
-                insertRecordsIntoEdgeTable(jsonObjects, columns, edgeConn, entry.getKey());
-            }));
+                    progress.fileScanned();
+                    shards.complete(phase, key, fileSchema.toPayload());
+                    return null;
+                })));
+                awaitScans(response, folderName, progress);
+            });
+        } finally {
+            executor.shutdown();
         }
 
-        for (Future<?> resp : futureResp) {
+        Map<String, LabelSchema> labelSchemas = new HashMap<>();
+        try {
+            for (Map.Entry<String, String> payload : shards.getPayloads(phase).entrySet()) {
+                labelSchemas.computeIfAbsent(getLabel(payload.getKey(), folderName + "/"), k -> new LabelSchema()).merge(payload.getValue());
+            }
+        } catch (IOException e) {
+            log.error("S3ToSnowflake.scanLabelSchemasSharded(): Error while reading schemas of folder={}", folderName, e);
+            progress.error("scan " + folderName, e);
+        }
+        return labelSchemas;
+    }
+
+    private void awaitScans(List<Future<?>> response, String folderName, MigrationProgress progress) {
+        for (Future<?> resp : response) {
             try {
                 resp.get();
-            } catch (InterruptedException | ExecutionException e) {
-                log.error("S3ToSnowflake.createEdgeTables(): Error while creating edge tables", e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                log.error("S3ToSnowflake.scanLabelSchemas(): Interrupted while scanning folder={}", folderName, e);
+                break;
+            } catch (ExecutionException | CancellationException e) {
+                log.error("S3ToSnowflake.scanLabelSchemas(): Error while getting json objects from file", e);
+                progress.error("scan " + folderName, e);
             }
         }
-        log.info("S3ToSnowflake.createEdgeTables(): Creation and Insertion of edge tables is completed");
-        edgeTableCreationExecutor.shutdown();
     }
 
-    private String getVertexRefTable(String vertexValue) {
-        Optional<String> tableName = tableNameVertexIdsMap.entrySet().stream()
-                .filter(entry -> entry.getValue().contains(vertexValue))
-                .map(Map.Entry::getKey)
-                .findFirst();
+    private interface ShardPass {
+        void run() throws Exception;
+    }
+
+    // Runs passes over the files this worker claims until some worker finished every file of the phase.
+    // A pass ends with the claims that did not complete given back, a later pass or another worker retries them.
+    private void runShardedPhase(MigrationRun run, String phase, Collection<String> keys, ShardPass pass) {
+        ShardCoordinator shards = run.getShards();
+        try {
+            do {
+                pass.run();
+                shards.releaseUnfinished(phase);
+            } while (!run.isCancelled() && !Thread.currentThread().isInterrupted() && !shards.isPhaseDone(phase, keys));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.error("S3ToSnowflake.runShardedPhase(): Interrupted during phase={}", phase, e);
+        } catch (Exception e) {
+            log.error("S3ToSnowflake.runShardedPhase(): Error during phase={}", phase, e);
+            run.getProgress().error(phase, e);
+        }
+    }
+
+    private void runPipeline(MigrationRun run, String phase, MigrationPipeline pipeline, List<S3Object> files) {
+        ShardCoordinator shards = run.getShards();
+        if (shards == null) {
+            pipeline.run(files);
+            return;
+        }
+        Map<String, S3Object> filesByKey = new LinkedHashMap<>();
+        files.forEach(file -> filesByKey.put(file.key(), file));
+        runShardedPhase(run, phase, filesByKey.keySet(), () -> pipeline.run(consumer ->
+                shards.forEachClaimed(phase, filesByKey.keySet(), run::isCancelled, key -> consumer.accept(filesByKey.get(key)))));
+    }
 
-        return tableName.isPresent() ? tableName.get() : "";
+    // Orders the files largest first and logs how the bytes spread over the labels, a label with most of
+    // the bytes still loads on every worker since the pipeline shares its files and blocks out
+    private List<S3Object> planLoad(String phase, List<S3Object> files, String folderName) {
+        List<S3Object> ordered = LoadPlan.largestFirst(files);
+        logLoadPlan(phase, ordered, folderName);
+        return ordered;
     }
 
+    // Phases that load label by label order the files of each label on their own and log the plan after the scan
+    private void logLoadPlan(String phase, List<S3Object> files, String folderName) {
+        List<S3Object> ordered = LoadPlan.largestFirst(files);
+        Map<String, Long> bytesByLabel = LoadPlan.bytesByLabel(ordered, key -> getLabel(key, folderName));
+        long totalBytes = bytesByLabel.values().stream().mapToLong(Long::longValue).sum();
+        Map.Entry<String, Long> largest = bytesByLabel.isEmpty() ? null : bytesByLabel.entrySet().iterator().next();
+        log.info("S3ToSnowflake.planLoad(): phase={}, files={}, bytes={}, labels={}, largestLabel={}, largestLabelShare={}%, largestFileBytes={}",
+                phase, ordered.size(), totalBytes, bytesByLabel.size(), largest != null ? largest.getKey() : "",
+                largest != null && totalBytes > 0 ? largest.getValue() * 100 / totalBytes : 0,
+                ordered.isEmpty() ? 0 : LoadPlan.sizeOf(ordered.get(0)));
+        long cacheBytes = s3Utils.getCacheMaxBytes();
+        if (cacheBytes > 0 && totalBytes > cacheBytes) {
+            log.warn("S3ToSnowflake.planLoad(): phase={}, bytes={} exceed the object cache of {} bytes, objects evicted since the scan are downloaded again",
+                    phase, totalBytes, cacheBytes);
+        }
+    }
 
-    private String[] getColumnsToBeCreated(List<JsonNode> jsonObjects) {
-        List<String[]> columnsArray = new ArrayList<>();
-        jsonObjects.forEach(jsonNode -> {
-            try {
-                columnsArray.add(jsonUtils.parseJsonColumns(jsonNode));
-            } catch (IOException e) {
-                log.error("Error while preparing columns array list");
+    // Edges of a sharded run reference vertices every worker loaded, the vertex phase is done on all of them by now
+    private void openVertexIndexShares(MigrationRun run) {
+        ShardedVertexIdIndex index = (ShardedVertexIdIndex) run.getVertexIdIndex();
+        try {
+            for (Path share : run.getShards().getOtherWorkerDirectories("index")) {
+                index.addShare(MappedVertexIdIndex.openReadOnly(share));
             }
-        });
+            log.info("S3ToSnowflake.openVertexIndexShares(): shares={}, vertex ids={}", index.getShareCount(), index.size());
+        } catch (IOException e) {
+            log.error("S3ToSnowflake.openVertexIndexShares(): Error while opening vertex index shares", e);
+            run.getProgress().error("open vertex index shares", e);
+        }
+    }
 
-        String[] coulmnsToBeCreated = columnsArray.stream()
-                .max(Comparator.comparingInt(arr -> arr.length))
-                .orElse(null);
-        return coulmnsToBeCreated;
+    // Incremental runs leave out the objects the sync state holds at the listed version. Only the tables of
+    // changed objects are scanned, their missing columns are added and the other columns are left alone.
+    private static boolean isChanged(MigrationRun run, S3Object file) {
+        return run.getSyncState() == null || run.getSyncState().isChanged(file);
     }
 
+    // Columns the rows of an incremental run are merged on, null when the rows are appended
+    private static String[] getMergeKeys(MigrationRun run, String tableName, LabelTable table, String... keys) {
+        if (run.getSyncState() == null) {
+            return null;
+        }
+        String[] columns = Arrays.stream(keys).filter(key -> table.indexOf(key) >= 0)
+                .map(key -> table.columns()[table.indexOf(key)]).toArray(String[]::new);
+        if (columns.length == 0) {
+            log.warn("S3ToSnowflake.getMergeKeys(): table={} has none of the key columns={}, its rows are appended", tableName, keys);
+            return null;
+        }
+        return columns;
+    }
 
+    // Null when nobody needs to hear about finished files
+    private static MigrationPipeline.FileListener newFileListener(MigrationRun run, String phase) {
+        ShardCoordinator shards = run.getShards();
+        SyncState syncState = run.getSyncState();
+        if (shards == null && syncState == null) {
+            return null;
+        }
+        return key -> {
+            if (syncState != null) {
+                syncState.markSynced(key);
+            }
+            if (shards != null) {
+                // The ids of a file must be on disk before other workers see the file as done
+                if (run.getVertexIdIndex() instanceof ShardedVertexIdIndex shardedIndex && phase.equals("load-nodes")) {
+                    shardedIndex.publish();
+                }
+                shards.complete(phase, key, "");
+            }
+        };
+    }
+
+    private static String getWorkerId(SnowflakeProperties snowflakeProperties) {
+        if (StringUtils.hasText(snowflakeProperties.getWorkerId())) {
+            return snowflakeProperties.getWorkerId();
+        }
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            host = "worker";
+        }
+        return host + "-" + ProcessHandle.current().pid();
+    }
+
+    // fields are the record field names, columns the table columns at the same positions
+    private record LabelTable(String[] fields, String[] columns, ColumnType[] types, RecordProjector projector) {
+        LabelTable(String[] fields, String[] columns, ColumnType[] types) {
+            this(fields, columns, types, new RecordProjector(fields, types));
+        }
+
+        int indexOf(String column) {
+            for (int i = 0; i < columns.length; i++) {
+                if (columns[i].equalsIgnoreCase(column)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    // Tables of the labels of one phase, the scan adds a label before the first of its files is loaded
+    private static class LabelTables {
+        private final Map<String, LabelTable> tables = new ConcurrentHashMap<>();
+        private final Map<String, Integer> idOrdinals = new ConcurrentHashMap<>();
+        private final Map<String, String[]> mergeKeys = new ConcurrentHashMap<>();
+
+        // mergeKeys is null when the rows of the table are appended
+        void add(String label, LabelTable table, int idOrdinal, String[] labelMergeKeys) {
+            idOrdinals.put(label, idOrdinal);
+            if (labelMergeKeys != null) {
+                mergeKeys.put(label, labelMergeKeys);
+            }
+            tables.put(label, table);
+        }
+    }
+
+    // A label whose files are all scanned, files in listing order
+    private record ScannedLabel(String label, LabelSchema schema, List<S3Object> files) {
+    }
+
+    // Projects the records of a label with the projector compiled for its table, labels without a table are skipped
+    private static class TableRowProjector implements MigrationPipeline.RowProjector {
+        private final Map<String, LabelTable> tables;
+
+        TableRowProjector(Map<String, LabelTable> tables) {
+            this.tables = tables;
+        }
+
+        @Override
+        public int width(String label) {
+            LabelTable table = tables.get(label);
+            return table != null ? table.projector().width() : 0;
+        }
+
+        @Override
+        public boolean project(String label, JsonNode record, String[] row, int offset) {
+            LabelTable table = tables.get(label);
+            if (table == null) {
+                return false;
+            }
+            table.projector().project(record, row, offset);
+            return true;
+        }
+    }
+
+    private static String getLabel(String key, String folderName) {
+        return key.split(folderName)[1].split("-")[0];
+    }
+
+    // mergeKeys are the key columns of an incremental run, whose rows replace the rows with the same keys
+    private RowSink openRowSink(MigrationRun run, String schema, String tableName, LabelTable table,
+                                String[] mergeKeys) throws Exception {
+        return getSinkProvider().openRowSink(run.getSnowflakeProperties(), schema, tableName, table.columns(), table.types(),
+                mergeKeys, run.getDeadLetters());
+    }
+
+    // The id of a vertex, or the from or to id of an edge, as the projector writes it into the row
+    private static String getVertexId(JsonNode record, String field) {
+        JsonNode id = record.has("~" + field) ? record.get("~" + field) : record.get(field);
+        if (id == null || id.isNull()) {
+            return null;
+        }
+        return id.isTextual() ? id.textValue() : id.asText();
+    }
+
+    private static String getVertexLabel(VertexIdIndex vertexIdIndex, String vertexId) {
+        return vertexId != null ? vertexIdIndex.getLabel(vertexId) : null;
+    }
+
+    private String getVertexRefTable(MigrationRun run, String vertexValue) {
+        String tableName = run.getVertexIdIndex().getLabel(vertexValue);
+        return tableName != null ? tableName : "";
+    }
 
 }
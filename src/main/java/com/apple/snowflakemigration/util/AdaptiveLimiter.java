@@ -0,0 +1,138 @@
+package com.apple.snowflakemigration.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Limits the Snowflake statements in flight against one warehouse with additive increase,
+// multiplicative decrease. Every sample within the latency tolerance of the no-load latency grows
+// the limit by 1/limit, so by about one per round of in-flight statements, as long as the limit is
+// actually used. A failed statement, or a sample slower than tolerance times the no-load latency,
+// cuts the limit by backoffRatio, at most once per round so a burst of slow statements counts once.
+// The no-load latency follows faster samples right away and slower ones only slowly, which lets it
+// drift up when the statements get bigger without taking queuing for the new normal.
+public class AdaptiveLimiter {
+
+    private static Logger log = LoggerFactory.getLogger(AdaptiveLimiter.class);
+
+    private static final double NO_LOAD_DRIFT = 0.01;
+
+    private final String name;
+    private final int minLimit;
+    private final int maxLimit;
+    private final double latencyTolerance;
+    private final double backoffRatio;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+    private double limit;
+    private int inFlight;
+    private double noLoadNanos;
+    // Statements started before the last decrease do not cause another one
+    private long decreasedAtNanos;
+
+    public AdaptiveLimiter(String name, int initialLimit, int minLimit, int maxLimit, double latencyTolerance, double backoffRatio) {
+        this.name = name;
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.latencyTolerance = latencyTolerance;
+        this.backoffRatio = backoffRatio;
+        this.limit = Math.min(this.maxLimit, Math.max(this.minLimit, initialLimit));
+        this.decreasedAtNanos = System.nanoTime();
+    }
+
+    // Blocks until a statement may start, returns its start time for release
+    public long acquire() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (inFlight >= (int) limit) {
+                released.await();
+            }
+            inFlight++;
+        } finally {
+            lock.unlock();
+        }
+        return System.nanoTime();
+    }
+
+    // The statement succeeded, its latency is compared with the no-load latency
+    public void release(long startNanos) {
+        release(startNanos, System.nanoTime() - startNanos);
+    }
+
+    void release(long startNanos, long latency) {
+        lock.lock();
+        try {
+            int used = inFlight--;
+            if (noLoadNanos == 0 || latency < noLoadNanos) {
+                noLoadNanos = latency;
+            } else {
+                noLoadNanos += (latency - noLoadNanos) * NO_LOAD_DRIFT;
+            }
+            if (latency > noLoadNanos * latencyTolerance) {
+                decrease(startNanos, "latencyMs=" + latency / 1_000_000);
+            } else if (used * 2 >= (int) limit) {
+                setLimit(limit + 1 / limit);
+            }
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // The statement succeeded but its latency says nothing about the load, for example a COPY of a large file
+    public void releaseIgnored() {
+        lock.lock();
+        try {
+            inFlight--;
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void releaseFailed(long startNanos) {
+        lock.lock();
+        try {
+            inFlight--;
+            decrease(startNanos, "failed");
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void decrease(long startNanos, String reason) {
+        if (startNanos - decreasedAtNanos < 0) {
+            return;
+        }
+        decreasedAtNanos = System.nanoTime();
+        int before = (int) limit;
+        setLimit(limit * backoffRatio);
+        log.debug("AdaptiveLimiter.decrease(): limiter={}, limit={} -> {}, {}", name, before, (int) limit, reason);
+    }
+
+    private void setLimit(double newLimit) {
+        limit = Math.min(maxLimit, Math.max(minLimit, newLimit));
+    }
+}
@@ -0,0 +1,191 @@
+package com.apple.snowflakemigration.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Append-only journal of the work a migration has committed, so a failed export can resume instead
+// of starting over. Every line is one tab separated entry:
+//   C <key> <etag> <table> <firstLine> <lastLine>   lines of an S3 object committed to a table
+//   D <key> <etag>                                  every line of the object is committed
+// Entries are forced to disk before append returns. Progress recorded for another ETag of the same
+// key is ignored because the object has been rewritten since. A torn last line from a crash is skipped.
+public class CheckpointManifest implements AutoCloseable {
+
+    private static Logger log = LoggerFactory.getLogger(CheckpointManifest.class);
+
+    private static final class FileProgress {
+        private final String etag;
+        // first line -> last line of committed ranges, merged and never overlapping
+        private final TreeMap<Long, Long> ranges = new TreeMap<>();
+        private boolean complete;
+
+        private FileProgress(String etag) {
+            this.etag = etag;
+        }
+
+        private void add(long firstLine, long lastLine) {
+            Map.Entry<Long, Long> before = ranges.floorEntry(firstLine);
+            if (before != null && before.getValue() >= firstLine - 1) {
+                firstLine = before.getKey();
+                lastLine = Math.max(lastLine, before.getValue());
+            }
+            Map.Entry<Long, Long> after;
+            while ((after = ranges.ceilingEntry(firstLine)) != null && after.getKey() <= lastLine + 1) {
+                lastLine = Math.max(lastLine, after.getValue());
+                ranges.remove(after.getKey());
+            }
+            ranges.put(firstLine, lastLine);
+        }
+
+        private boolean contains(long line) {
+            Map.Entry<Long, Long> range = ranges.floorEntry(line);
+            return range != null && range.getValue() >= line;
+        }
+    }
+
+    private final Path file;
+    private final FileChannel channel;
+    private final Map<String, FileProgress> files = new ConcurrentHashMap<>();
+
+    private CheckpointManifest(Path file, FileChannel channel) {
+        this.file = file;
+        this.channel = channel;
+    }
+
+    public static CheckpointManifest open(Path file) throws IOException {
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        CheckpointManifest manifest = new CheckpointManifest(file, channel);
+        manifest.replay();
+        return manifest;
+    }
+
+    public boolean isComplete(String key, String etag) {
+        FileProgress progress = progress(key, etag);
+        if (progress == null) {
+            return false;
+        }
+        synchronized (progress) {
+            return progress.complete;
+        }
+    }
+
+    public boolean isCommitted(String key, String etag, long line) {
+        FileProgress progress = progress(key, etag);
+        if (progress == null) {
+            return false;
+        }
+        synchronized (progress) {
+            return progress.complete || progress.contains(line);
+        }
+    }
+
+    public void recordCommitted(String key, String etag, String table, long firstLine, long lastLine) throws IOException {
+        append("C\t" + key + "\t" + etag + "\t" + table + "\t" + firstLine + "\t" + lastLine + "\n");
+        FileProgress progress = startProgress(key, etag);
+        synchronized (progress) {
+            progress.add(firstLine, lastLine);
+        }
+    }
+
+    public void recordComplete(String key, String etag) throws IOException {
+        append("D\t" + key + "\t" + etag + "\n");
+        FileProgress progress = startProgress(key, etag);
+        synchronized (progress) {
+            progress.complete = true;
+            progress.ranges.clear();
+        }
+    }
+
+    public int getCompleteCount() {
+        int count = 0;
+        for (FileProgress progress : files.values()) {
+            synchronized (progress) {
+                count += progress.complete ? 1 : 0;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.error("CheckpointManifest.close(): Error while closing file={}", file, e);
+        }
+    }
+
+    private FileProgress progress(String key, String etag) {
+        FileProgress progress = files.get(key);
+        return progress != null && Objects.equals(progress.etag, etag) ? progress : null;
+    }
+
+    private FileProgress startProgress(String key, String etag) {
+        return files.compute(key, (k, current) -> current != null && Objects.equals(current.etag, etag) ? current : new FileProgress(etag));
+    }
+
+    private synchronized void append(String entry) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(entry.getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        channel.force(false);
+    }
+
+    private void replay() throws IOException {
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        // A crash can leave the last entry without its newline. It is dropped and the next entry starts on a line of its own.
+        if (channel.size() > 0 && !endsWithNewline()) {
+            log.warn("CheckpointManifest.replay(): Dropping torn last entry of file={}", file);
+            lines.remove(lines.size() - 1);
+            append("\n");
+        }
+        int entries = 0;
+        for (String line : lines) {
+            if (line.isEmpty()) {
+                continue;
+            }
+            String[] fields = line.split("\t", -1);
+            try {
+                if (fields[0].equals("C") && fields.length == 6) {
+                    startProgress(fields[1], fields[2]).add(Long.parseLong(fields[4]), Long.parseLong(fields[5]));
+                } else if (fields[0].equals("D") && fields.length == 3) {
+                    FileProgress progress = startProgress(fields[1], fields[2]);
+                    progress.complete = true;
+                    progress.ranges.clear();
+                } else {
+                    log.warn("CheckpointManifest.replay(): Skipping malformed entry in file={}", file);
+                    continue;
+                }
+                entries++;
+            } catch (NumberFormatException e) {
+                log.warn("CheckpointManifest.replay(): Skipping malformed entry in file={}", file);
+            }
+        }
+        log.info("CheckpointManifest.open(): file={}, entries={}, completeFiles={}", file, entries, getCompleteCount());
+    }
+
+    private boolean endsWithNewline() throws IOException {
+        try (FileChannel reader = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer last = ByteBuffer.allocate(1);
+            reader.read(last, reader.size() - 1);
+            return last.get(0) == '\n';
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.apple.snowflakemigration.util;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+import org.apache.commons.compress.compressors.zstandard.ZstdCompressorInputStream;
+
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+
+// Decompresses export files while they stream from S3. The codec comes from the extension of the
+// key, or from the magic bytes at the start of the object when the extension says nothing, so
+// renamed files still work. Nothing is buffered beyond the decoder windows.
+public final class CompressedInput {
+
+    public enum Codec {
+        NONE, GZIP, ZSTD, BZIP2
+    }
+
+    private static final int BUFFER_BYTES = 64 * 1024;
+
+    private CompressedInput() {
+    }
+
+    public static InputStream decompress(String key, InputStream in) throws IOException {
+        BufferedInputStream buffered = new BufferedInputStream(in, BUFFER_BYTES);
+        Codec codec = detect(key, buffered);
+        return switch (codec) {
+            // GZIPInputStream also reads files made of several concatenated members
+            case GZIP -> new DecompressedInputStream(new GZIPInputStream(buffered, BUFFER_BYTES));
+            case ZSTD -> new DecompressedInputStream(new ZstdCompressorInputStream(buffered));
+            case BZIP2 -> new DecompressedInputStream(new BZip2CompressorInputStream(buffered, true));
+            case NONE -> buffered;
+        };
+    }
+
+    // in must support mark, the magic bytes are peeked and pushed back
+    public static Codec detect(String key, InputStream in) throws IOException {
+        Codec codec = fromExtension(key);
+        return codec != null ? codec : fromMagic(in);
+    }
+
+    // null when the extension does not tell
+    static Codec fromExtension(String key) {
+        String name = key.toLowerCase(Locale.ROOT);
+        if (name.endsWith(".gz") || name.endsWith(".gzip")) {
+            return Codec.GZIP;
+        }
+        if (name.endsWith(".zst") || name.endsWith(".zstd")) {
+            return Codec.ZSTD;
+        }
+        if (name.endsWith(".bz2")) {
+            return Codec.BZIP2;
+        }
+        if (name.endsWith(".json") || name.endsWith(".jsonl") || name.endsWith(".ndjson")) {
+            return Codec.NONE;
+        }
+        return null;
+    }
+
+    static Codec fromMagic(InputStream in) throws IOException {
+        byte[] magic = new byte[4];
+        in.mark(magic.length);
+        int length = in.readNBytes(magic, 0, magic.length);
+        in.reset();
+        if (length >= 2 && (magic[0] & 0xff) == 0x1f && (magic[1] & 0xff) == 0x8b) {
+            return Codec.GZIP;
+        }
+        if (length >= 4 && (magic[0] & 0xff) == 0x28 && (magic[1] & 0xff) == 0xb5 && (magic[2] & 0xff) == 0x2f && (magic[3] & 0xff) == 0xfd) {
+            return Codec.ZSTD;
+        }
+        if (length >= 3 && magic[0] == 'B' && magic[1] == 'Z' && magic[2] == 'h') {
+            return Codec.BZIP2;
+        }
+        return Codec.NONE;
+    }
+
+    // Adds the bytes handed to the parser to the decompressed byte counter, next to the S3 byte counter
+    private static class DecompressedInputStream extends FilterInputStream {
+
+        DecompressedInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0) {
+                MigrationMetrics.DECOMPRESSED_BYTES.increment();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = in.read(b, off, len);
+            if (read > 0) {
+                MigrationMetrics.DECOMPRESSED_BYTES.increment(read);
+            }
+            return read;
+        }
+    }
+}
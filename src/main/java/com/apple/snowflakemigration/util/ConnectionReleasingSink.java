@@ -0,0 +1,49 @@
+package com.apple.snowflakemigration.util;
+
+import java.sql.Connection;
+
+// Gives the pooled connection of a sink back to its pool once the sink is closed.
+public class ConnectionReleasingSink implements RowSink {
+
+    private final RowSink delegate;
+    private final Connection connection;
+
+    public ConnectionReleasingSink(RowSink delegate, Connection connection) {
+        this.delegate = delegate;
+        this.connection = connection;
+    }
+
+    @Override
+    public void source(String key, long line) {
+        delegate.source(key, line);
+    }
+
+    @Override
+    public void write(String[] values) throws Exception {
+        delegate.write(values);
+    }
+
+    @Override
+    public void write(String[] values, int offset, int length) throws Exception {
+        delegate.write(values, offset, length);
+    }
+
+    @Override
+    public void flush() throws Exception {
+        delegate.flush();
+    }
+
+    @Override
+    public boolean commitsOnFlush() {
+        return delegate.commitsOnFlush();
+    }
+
+    @Override
+    public void close() throws Exception {
+        try {
+            delegate.close();
+        } finally {
+            connection.close();
+        }
+    }
+}
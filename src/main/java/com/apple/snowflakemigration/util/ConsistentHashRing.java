@@ -0,0 +1,50 @@
+package com.apple.snowflakemigration.util;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Assigns keys to nodes on a hash ring. Every node is placed on the ring VIRTUAL_NODES times, so the
+// nodes get similar shares and adding or removing one only moves the keys on the arcs of that node.
+public class ConsistentHashRing {
+
+    private static final int VIRTUAL_NODES = 128;
+
+    private final TreeMap<Long, String> ring = new TreeMap<>();
+
+    public ConsistentHashRing(Collection<String> nodes) {
+        for (String node : nodes) {
+            for (int i = 0; i < VIRTUAL_NODES; i++) {
+                ring.put(hash(node + "#" + i), node);
+            }
+        }
+    }
+
+    // Returns the node that owns the key, or null when the ring is empty
+    public String nodeFor(String key) {
+        if (ring.isEmpty()) {
+            return null;
+        }
+        Map.Entry<Long, String> entry = ring.ceilingEntry(hash(key));
+        return entry != null ? entry.getValue() : ring.firstEntry().getValue();
+    }
+
+    public boolean isEmpty() {
+        return ring.isEmpty();
+    }
+
+    // FNV-1a followed by the murmur3 finalizer, similar keys like file-0001 and file-0002 land far apart
+    static long hash(String value) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            h ^= value.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
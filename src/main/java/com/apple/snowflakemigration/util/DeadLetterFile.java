@@ -0,0 +1,99 @@
+package com.apple.snowflakemigration.util;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Rows a table rejected, one JSON object per line with the table, the S3 key and line the row came
+// from, the error and the values by column, so they can be fixed and loaded again on their own.
+// Records that could not be parsed or projected into a row are kept as their original text instead.
+// The file is only created once the first row arrives.
+public class DeadLetterFile implements AutoCloseable {
+
+    private static Logger log = LoggerFactory.getLogger(DeadLetterFile.class);
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final Path file;
+    private final AtomicLong rows = new AtomicLong();
+    private Writer writer;
+
+    public DeadLetterFile(Path file) {
+        this.file = file;
+    }
+
+    // Lines count from 0 like in the checkpoint manifest, key is null and line -1 when the origin of the row is unknown
+    public void write(String table, String key, long line, String[] columns, String[] values, int offset, Throwable error) throws IOException {
+        ObjectNode entry = MAPPER.createObjectNode();
+        entry.put("table", table);
+        entry.put("key", key);
+        entry.put("line", line);
+        entry.put("error", String.valueOf(error.getMessage()));
+        ObjectNode row = entry.putObject("values");
+        for (int i = 0; i < columns.length; i++) {
+            row.put(columns[i], values[offset + i]);
+        }
+        append(entry, table, key, line, error);
+    }
+
+    // A line of the export that never became a row, record is its text as read
+    public void writeRecord(String table, String key, long line, String record, Throwable error) throws IOException {
+        ObjectNode entry = MAPPER.createObjectNode();
+        entry.put("table", table);
+        entry.put("key", key);
+        entry.put("line", line);
+        entry.put("error", String.valueOf(error.getMessage()));
+        entry.put("record", record);
+        append(entry, table, key, line, error);
+    }
+
+    private void append(ObjectNode entry, String table, String key, long line, Throwable error) throws IOException {
+        String text = MAPPER.writeValueAsString(entry);
+        synchronized (this) {
+            if (writer == null) {
+                if (file.getParent() != null) {
+                    Files.createDirectories(file.getParent());
+                }
+                writer = new BufferedWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND));
+            }
+            writer.write(text);
+            writer.write('\n');
+            // Rows are rare and every one of them matters, they are not left in the buffer
+            writer.flush();
+        }
+        rows.incrementAndGet();
+        MigrationMetrics.deadLetters(table).increment();
+        log.warn("DeadLetterFile.write(): table={} rejected row of key={}, line={}: {}", table, key, line, error.getMessage());
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    public long getRowCount() {
+        return rows.get();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.close();
+            log.info("DeadLetterFile.close(): file={}, rows={}", file, rows.get());
+        } catch (IOException e) {
+            log.error("DeadLetterFile.close(): Error while closing file={}", file, e);
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.apple.snowflakemigration.util;
+
+import com.apple.snowflakemigration.model.ColumnType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPOutputStream;
+
+// Writes rows of one table into gzip compressed CSV chunk files and rolls to a new chunk once the
+// compressed size reaches chunkBytes. Every finished chunk is handed to the TableStage right away,
+// the COPY into the table runs on close once all chunks are staged.
+public class GzipCsvChunkWriter implements RowSink {
+
+    private static Logger log = LoggerFactory.getLogger(GzipCsvChunkWriter.class);
+
+    private final TableStage stage;
+    private final String tableName;
+    private final String[] columns;
+    private final ColumnType[] types;
+    private final Path directory;
+    private final long chunkBytes;
+
+    private Path chunkFile;
+    private CountingOutputStream compressedOut;
+    private Writer writer;
+    private int chunkCount;
+    private long chunkRows;
+    private long rowsWritten;
+
+    public GzipCsvChunkWriter(TableStage stage, String tableName, String[] columns, Path directory, long chunkBytes) {
+        this(stage, tableName, columns, null, directory, chunkBytes);
+    }
+
+    // A null value is written as an empty unquoted field, which the COPY loads as NULL
+    public GzipCsvChunkWriter(TableStage stage, String tableName, String[] columns, ColumnType[] types, Path directory,
+                              long chunkBytes) {
+        this.stage = stage;
+        this.tableName = tableName;
+        this.columns = columns;
+        this.types = types;
+        this.directory = directory;
+        this.chunkBytes = chunkBytes;
+    }
+
+    @Override
+    public void write(String[] values) throws Exception {
+        write(values, 0, values.length);
+    }
+
+    // The row goes straight into the chunk, nothing of values is kept
+    @Override
+    public void write(String[] values, int offset, int length) throws Exception {
+        if (writer == null) {
+            openChunk();
+        }
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            // Records with fewer properties than the table are padded, same as the INSERT path
+            writeField(i < length ? values[offset + i] : "");
+        }
+        writer.write('\n');
+        chunkRows++;
+        rowsWritten++;
+        if (compressedOut.getCount() >= chunkBytes) {
+            flush();
+        }
+    }
+
+    // Closes the current chunk and stages it. The next write starts a new chunk.
+    @Override
+    public void flush() throws Exception {
+        if (writer == null) {
+            return;
+        }
+        writer.close();
+        writer = null;
+        log.debug("GzipCsvChunkWriter.flush(): table={}, chunk={}, rows={}, compressedBytes={}",
+                tableName, chunkFile.getFileName(), chunkRows, compressedOut.getCount());
+        stage.upload(tableName, chunkFile);
+        Files.deleteIfExists(chunkFile);
+    }
+
+    // Staged chunks only reach the table with the COPY on close
+    @Override
+    public boolean commitsOnFlush() {
+        return false;
+    }
+
+    @Override
+    public void close() throws Exception {
+        flush();
+        if (chunkCount > 0) {
+            stage.load(tableName, columns, types);
+        }
+        log.info("GzipCsvChunkWriter.close(): table={}, rows={}, chunks={}", tableName, rowsWritten, chunkCount);
+    }
+
+    public long getRowsWritten() {
+        return rowsWritten;
+    }
+
+    private void openChunk() throws IOException {
+        Files.createDirectories(directory);
+        chunkFile = Files.createTempFile(directory, tableName + "_" + chunkCount + "_", ".csv.gz");
+        compressedOut = new CountingOutputStream(Files.newOutputStream(chunkFile));
+        writer = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(compressedOut, 64 * 1024), StandardCharsets.UTF_8), 64 * 1024);
+        chunkCount++;
+        chunkRows = 0;
+    }
+
+    private void writeField(String value) throws IOException {
+        if (value == null) {
+            return;
+        }
+        writer.write('"');
+        int start = 0;
+        int quote;
+        while ((quote = value.indexOf('"', start)) >= 0) {
+            writer.write(value, start, quote - start + 1);
+            writer.write('"');
+            start = quote + 1;
+        }
+        writer.write(value, start, value.length() - start);
+        writer.write('"');
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+
+        private long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        long getCount() {
+            return count;
+        }
+    }
+}
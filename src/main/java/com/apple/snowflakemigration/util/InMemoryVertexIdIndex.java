@@ -0,0 +1,32 @@
+package com.apple.snowflakemigration.util;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class InMemoryVertexIdIndex implements VertexIdIndex {
+
+    private final LabelDictionary labels = new LabelDictionary();
+    // The boxed ordinal comes from the dictionary, so entries share one Integer per label
+    private final Map<String, Integer> vertexLabels = new ConcurrentHashMap<>();
+
+    @Override
+    public void put(String vertexId, String label) {
+        vertexLabels.put(vertexId, labels.ordinalOf(label));
+    }
+
+    @Override
+    public String getLabel(String vertexId) {
+        Integer ordinal = vertexLabels.get(vertexId);
+        return ordinal == null ? null : labels.labelOf(ordinal);
+    }
+
+    @Override
+    public long size() {
+        return vertexLabels.size();
+    }
+
+    @Override
+    public void close() {
+        vertexLabels.clear();
+    }
+}
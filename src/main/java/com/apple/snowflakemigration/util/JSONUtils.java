@@ -1,10 +1,13 @@
 package com.apple.snowflakemigration.util;
 
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingIterator;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 import org.springframework.stereotype.Component;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.*;
 import java.util.stream.StreamSupport;
 
@@ -13,6 +16,18 @@ public class JSONUtils {
 
     private static final ObjectMapper objectMapper = new ObjectMapper();
 
+    private static final ObjectReader recordReader = objectMapper.readerFor(JsonNode.class);
+
+    // Neptune exports are newline delimited JSON, one record per line. The returned iterator
+    // pulls records from the stream one at a time and closes the stream when it is closed.
+    public static MappingIterator<JsonNode> readRecords(InputStream inputStream) throws IOException {
+        return recordReader.readValues(inputStream);
+    }
+
+    public static MappingIterator<JsonNode> readRecords(byte[] data, int offset, int length) throws IOException {
+        return recordReader.readValues(data, offset, length);
+    }
+
     public static String[] parseJsonColumns(JsonNode jsonNode) throws IOException {
         Iterator<String> fieldNames = jsonNode.fieldNames();
         return StreamSupport.stream(
@@ -22,6 +37,7 @@ public class JSONUtils {
     }
 
     public static String[] parseJsonValues(JsonNode jsonNode)  {
+        long start = System.nanoTime();
         List<String> resultList = new ArrayList<>();
 
         // Iterate through all fields in the JSON node
@@ -46,6 +62,7 @@ public class JSONUtils {
             }
 
         }
+        MigrationMetrics.record(MigrationMetrics.JSON_VALUES, start);
         return resultList.toArray(new String[0]);
     }
 }
@@ -0,0 +1,106 @@
+package com.apple.snowflakemigration.util;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+// The vertex labels the edges of each edge label reference, and which of the vertex labels a run loads
+// are still loading. An edge label is ready once none of the vertex labels it references is pending,
+// references to labels the run does not load, or ids no vertex table holds, never hold an edge label back.
+public class LabelDependencies {
+
+    private static final long CANCEL_POLL_MILLIS = 1000;
+
+    private final Map<String, Set<String>> references = new ConcurrentHashMap<>();
+    // Guarded by this
+    private final Set<String> pending;
+    private boolean allLoaded;
+    private boolean failed;
+
+    public LabelDependencies(Collection<String> pendingVertexLabels) {
+        this.pending = new HashSet<>(pendingVertexLabels);
+    }
+
+    // vertexLabel is null for an id no vertex table holds, the edge label is still known to have edges
+    public void addReference(String edgeLabel, String vertexLabel) {
+        Set<String> labels = references.computeIfAbsent(edgeLabel, k -> ConcurrentHashMap.newKeySet());
+        if (vertexLabel != null) {
+            labels.add(vertexLabel);
+        }
+    }
+
+    public Set<String> getReferences(String edgeLabel) {
+        return Collections.unmodifiableSet(references.getOrDefault(edgeLabel, Set.of()));
+    }
+
+    // A vertex label found while the vertex load already runs, before any of its rows are loaded
+    public synchronized void pending(String vertexLabel) {
+        pending.add(vertexLabel);
+    }
+
+    public synchronized void loaded(String vertexLabel) {
+        if (pending.remove(vertexLabel)) {
+            notifyAll();
+        }
+    }
+
+    // The vertex load is over and every label loaded, nothing is held back any longer
+    public synchronized void allLoaded() {
+        allLoaded = true;
+        pending.clear();
+        notifyAll();
+    }
+
+    // The vertex load ended without loading every label. Edge labels waiting on a label that did not
+    // load are never handed out, they would reference rows and ids that are missing.
+    public synchronized void loadFailed() {
+        failed = true;
+        notifyAll();
+    }
+
+    public synchronized boolean isReady(String edgeLabel) {
+        return allLoaded || Collections.disjoint(pending, getReferences(edgeLabel));
+    }
+
+    // Hands the items of each edge label to the consumer as soon as the label is ready, labels in the
+    // order they become ready. Returns once every label was handed out, or early when cancelled or when
+    // the vertex load failed, with the labels that were held back.
+    public <T> Set<String> forEachReady(Map<String, ? extends Collection<T>> itemsByLabel, Consumer<T> consumer,
+                                        BooleanSupplier cancelled) throws InterruptedException {
+        Map<String, Collection<T>> waiting = new LinkedHashMap<>(itemsByLabel);
+        while (!waiting.isEmpty()) {
+            Map<String, Collection<T>> ready = new LinkedHashMap<>();
+            synchronized (this) {
+                while (true) {
+                    if (cancelled.getAsBoolean()) {
+                        return Set.copyOf(waiting.keySet());
+                    }
+                    for (Map.Entry<String, Collection<T>> entry : waiting.entrySet()) {
+                        if (isReady(entry.getKey())) {
+                            ready.put(entry.getKey(), entry.getValue());
+                        }
+                    }
+                    if (!ready.isEmpty()) {
+                        break;
+                    }
+                    if (failed) {
+                        return Set.copyOf(waiting.keySet());
+                    }
+                    wait(CANCEL_POLL_MILLIS);
+                }
+            }
+            // Outside the lock, the consumer may block while the vertex load goes on
+            for (Map.Entry<String, Collection<T>> entry : ready.entrySet()) {
+                waiting.remove(entry.getKey());
+                entry.getValue().forEach(consumer);
+            }
+        }
+        return Set.of();
+    }
+}
@@ -0,0 +1,41 @@
+package com.apple.snowflakemigration.util;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// Assigns a small ordinal to every label so indexes can store an int per vertex instead of the name.
+class LabelDictionary {
+
+    private final Map<String, Integer> ordinals = new ConcurrentHashMap<>();
+    private final List<String> labels = new CopyOnWriteArrayList<>();
+
+    LabelDictionary() {
+    }
+
+    LabelDictionary(List<String> existingLabels) {
+        existingLabels.forEach(this::ordinalOf);
+    }
+
+    Integer ordinalOf(String label) {
+        Integer ordinal = ordinals.get(label);
+        if (ordinal != null) {
+            return ordinal;
+        }
+        synchronized (this) {
+            return ordinals.computeIfAbsent(label, k -> {
+                labels.add(k);
+                return labels.size() - 1;
+            });
+        }
+    }
+
+    String labelOf(int ordinal) {
+        return ordinal >= 0 && ordinal < labels.size() ? labels.get(ordinal) : null;
+    }
+
+    List<String> labels() {
+        return labels;
+    }
+}
@@ -0,0 +1,56 @@
+package com.apple.snowflakemigration.util;
+
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+// Sizes the labels of a load from the listed object sizes and orders the files largest first. The
+// pipeline workers take files from one shared queue and the blocks of a file from shared queues too,
+// so a label holding most of the bytes is spread over every worker already. What is left is the tail:
+// a large file picked up last keeps one fetch worker busy while the others have run dry, starting the
+// large files first lets the small ones fill in around them.
+public final class LoadPlan {
+
+    private LoadPlan() {
+    }
+
+    public static long sizeOf(S3Object file) {
+        return file.size() != null ? file.size() : 0;
+    }
+
+    // Stable, files of the same size keep their listing order
+    public static List<S3Object> largestFirst(Collection<S3Object> files) {
+        List<S3Object> ordered = new ArrayList<>(files);
+        ordered.sort(Comparator.comparingLong(LoadPlan::sizeOf).reversed());
+        return ordered;
+    }
+
+    // Bytes per label, the largest label first
+    public static Map<String, Long> bytesByLabel(Collection<S3Object> files, Function<String, String> labelResolver) {
+        Map<String, Long> bytes = new HashMap<>();
+        for (S3Object file : files) {
+            bytes.merge(labelResolver.apply(file.key()), sizeOf(file), Long::sum);
+        }
+        Map<String, Long> ordered = new LinkedHashMap<>();
+        bytes.entrySet().stream()
+                .sorted(Map.Entry.<String, Long>comparingByValue().reversed())
+                .forEach(entry -> ordered.put(entry.getKey(), entry.getValue()));
+        return ordered;
+    }
+
+    // Files per label in the order of files, pass them largest first to get the labels with the largest file first
+    public static Map<String, List<S3Object>> groupByLabel(Collection<S3Object> files, Function<String, String> labelResolver) {
+        Map<String, List<S3Object>> filesByLabel = new LinkedHashMap<>();
+        for (S3Object file : files) {
+            filesByLabel.computeIfAbsent(labelResolver.apply(file.key()), k -> new ArrayList<>()).add(file);
+        }
+        return filesByLabel;
+    }
+}
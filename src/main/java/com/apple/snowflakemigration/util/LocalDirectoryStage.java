@@ -0,0 +1,49 @@
+package com.apple.snowflakemigration.util;
+
+import com.apple.snowflakemigration.model.ColumnType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Stands in for a Snowflake stage: chunks are moved to <directory>/<table>/ and load only records
+// which chunks a COPY would have picked up. Used to run the bulk-load path without Snowflake.
+public class LocalDirectoryStage implements TableStage {
+
+    private static Logger log = LoggerFactory.getLogger(LocalDirectoryStage.class);
+
+    private final Path directory;
+    private final Map<String, List<Path>> stagedFiles = new ConcurrentHashMap<>();
+    private final Map<String, List<Path>> loadedFiles = new ConcurrentHashMap<>();
+
+    public LocalDirectoryStage(Path directory) {
+        this.directory = directory;
+    }
+
+    @Override
+    public void upload(String tableName, Path chunkFile) throws IOException {
+        Path tableDirectory = Files.createDirectories(directory.resolve(tableName));
+        Path target = Files.move(chunkFile, tableDirectory.resolve(chunkFile.getFileName()), StandardCopyOption.REPLACE_EXISTING);
+        stagedFiles.computeIfAbsent(tableName, k -> new ArrayList<>()).add(target);
+    }
+
+    @Override
+    public void load(String tableName, String[] columns, ColumnType[] types) {
+        List<Path> staged = stagedFiles.remove(tableName);
+        if (staged != null) {
+            loadedFiles.computeIfAbsent(tableName, k -> new ArrayList<>()).addAll(staged);
+            log.info("LocalDirectoryStage.load(): table={}, chunks={}", tableName, staged.size());
+        }
+    }
+
+    public List<Path> getLoadedFiles(String tableName) {
+        return loadedFiles.getOrDefault(tableName, List.of());
+    }
+}
@@ -0,0 +1,317 @@
+package com.apple.snowflakemigration.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// Vertex id index kept in memory mapped files so it can hold hundreds of millions of vertices
+// without using heap, and can be reopened by a later run (for example an edges only rerun).
+// Ids are stored as 64-bit hashes next to the label ordinal in open addressing tables split over
+// SHARD_COUNT files. Each shard has its own lock and doubles its file when it fills up.
+// An index opened read only, like the share of another worker, never writes, creates or flushes a file.
+public class MappedVertexIdIndex implements VertexIdIndex {
+
+    private static Logger log = LoggerFactory.getLogger(MappedVertexIdIndex.class);
+
+    private static final String LABELS_FILE = "labels.txt";
+    private static final int SHARD_BITS = 6;
+    private static final int SHARD_COUNT = 1 << SHARD_BITS;
+    private static final int MAGIC = 0x56494458;
+    private static final int HEADER_BYTES = 16;
+    private static final int SLOT_BYTES = 12;
+    private static final int INITIAL_CAPACITY = 1 << 16;
+    // Keeps a shard file below 2GB, the most a single MappedByteBuffer can address
+    private static final int MAX_CAPACITY = 1 << 27;
+    private static final double LOAD_FACTOR = 0.7;
+
+    private final Path directory;
+    private final LabelDictionary labels;
+    private final Shard[] shards = new Shard[SHARD_COUNT];
+    private final boolean readOnly;
+    private volatile int persistedLabels;
+
+    private MappedVertexIdIndex(Path directory, List<String> existingLabels, int initialCapacity, boolean readOnly) throws IOException {
+        this.directory = directory;
+        this.labels = new LabelDictionary(existingLabels);
+        this.readOnly = readOnly;
+        this.persistedLabels = existingLabels.size();
+        for (int i = 0; i < SHARD_COUNT; i++) {
+            shards[i] = new Shard(directory.resolve(String.format("shard-%02d.idx", i)), initialCapacity, readOnly);
+        }
+    }
+
+    public static MappedVertexIdIndex open(Path directory) throws IOException {
+        return open(directory, INITIAL_CAPACITY);
+    }
+
+    static MappedVertexIdIndex open(Path directory, int initialCapacity) throws IOException {
+        Files.createDirectories(directory);
+        return open(directory, initialCapacity, false);
+    }
+
+    // Maps the files another process writes as they are now, missing shards read as empty
+    public static MappedVertexIdIndex openReadOnly(Path directory) throws IOException {
+        return open(directory, INITIAL_CAPACITY, true);
+    }
+
+    private static MappedVertexIdIndex open(Path directory, int initialCapacity, boolean readOnly) throws IOException {
+        Path labelsFile = directory.resolve(LABELS_FILE);
+        List<String> existingLabels = Files.exists(labelsFile)
+                ? Files.readAllLines(labelsFile, StandardCharsets.UTF_8)
+                : List.of();
+        MappedVertexIdIndex index = new MappedVertexIdIndex(directory, existingLabels, initialCapacity, readOnly);
+        log.info("MappedVertexIdIndex.open(): directory={}, readOnly={}, labels={}, vertex ids={}", directory, readOnly,
+                existingLabels.size(), index.size());
+        return index;
+    }
+
+    @Override
+    public void put(String vertexId, String label) {
+        if (readOnly) {
+            throw new UnsupportedOperationException("Vertex index " + directory + " is open read only");
+        }
+        int ordinal = labels.ordinalOf(label);
+        if (ordinal >= persistedLabels) {
+            persistLabels();
+        }
+        long hash = hash(vertexId);
+        shardFor(hash).put(hash, ordinal);
+    }
+
+    @Override
+    public String getLabel(String vertexId) {
+        long hash = hash(vertexId);
+        int ordinal = shardFor(hash).get(hash);
+        return ordinal < 0 ? null : labels.labelOf(ordinal);
+    }
+
+    @Override
+    public long size() {
+        long size = 0;
+        for (Shard shard : shards) {
+            size += shard.size();
+        }
+        return size;
+    }
+
+    // Writes everything put so far to the files, for example before another process opens them
+    public void flush() {
+        if (readOnly) {
+            return;
+        }
+        for (Shard shard : shards) {
+            shard.force();
+        }
+        persistLabels();
+    }
+
+    @Override
+    public void close() {
+        flush();
+        log.info("MappedVertexIdIndex.close(): directory={}, vertex ids={}", directory, size());
+    }
+
+    private Shard shardFor(long hash) {
+        return shards[(int) (hash >>> (64 - SHARD_BITS))];
+    }
+
+    private synchronized void persistLabels() {
+        List<String> snapshot = new ArrayList<>(labels.labels());
+        try {
+            Path labelsFile = directory.resolve(LABELS_FILE);
+            Path tmp = directory.resolve(LABELS_FILE + ".tmp");
+            Files.write(tmp, snapshot, StandardCharsets.UTF_8);
+            Files.move(tmp, labelsFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            persistedLabels = snapshot.size();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to write vertex index labels to " + directory, e);
+        }
+    }
+
+    static long hash(String vertexId) {
+        // FNV-1a followed by the murmur3 finalizer, so both the shard bits and the slot bits are mixed
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < vertexId.length(); i++) {
+            h ^= vertexId.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static class Shard {
+
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        private final Path file;
+        private MappedByteBuffer buffer;
+        private int capacity;
+        private long size;
+
+        Shard(Path file, int initialCapacity, boolean readOnly) throws IOException {
+            this.file = file;
+            if (readOnly) {
+                openReadOnly();
+            } else if (Files.exists(file) && Files.size(file) >= HEADER_BYTES) {
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                    MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+                    if (header.getInt(0) != MAGIC) {
+                        throw new IOException("Not a vertex index shard: " + file);
+                    }
+                    capacity = header.getInt(4);
+                    size = header.getLong(8);
+                }
+                buffer = map(file, capacity);
+            } else {
+                capacity = Integer.highestOneBit(Math.max(2, initialCapacity));
+                buffer = create(file, capacity);
+            }
+        }
+
+        // Leaves buffer null for a shard the owner has not created yet
+        private void openReadOnly() throws IOException {
+            if (!Files.exists(file) || Files.size(file) < HEADER_BYTES) {
+                return;
+            }
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+                if (header.getInt(0) != MAGIC) {
+                    throw new IOException("Not a vertex index shard: " + file);
+                }
+                capacity = header.getInt(4);
+                size = header.getLong(8);
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES + (long) capacity * SLOT_BYTES);
+            }
+        }
+
+        void put(long hash, int ordinal) {
+            lock.writeLock().lock();
+            try {
+                if (size + 1 > (long) (capacity * LOAD_FACTOR)) {
+                    grow();
+                }
+                if (insert(buffer, capacity - 1, hash, ordinal + 1)) {
+                    size++;
+                    buffer.putLong(8, size);
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        int get(long hash) {
+            lock.readLock().lock();
+            try {
+                if (buffer == null) {
+                    return -1;
+                }
+                int mask = capacity - 1;
+                int slot = (int) hash & mask;
+                while (true) {
+                    int offset = HEADER_BYTES + slot * SLOT_BYTES;
+                    int value = buffer.getInt(offset + 8);
+                    if (value == 0) {
+                        return -1;
+                    }
+                    if (buffer.getLong(offset) == hash) {
+                        return value - 1;
+                    }
+                    slot = (slot + 1) & mask;
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        long size() {
+            lock.readLock().lock();
+            try {
+                return size;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        void force() {
+            lock.writeLock().lock();
+            try {
+                buffer.force();
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        private void grow() {
+            if (capacity >= MAX_CAPACITY) {
+                throw new IllegalStateException("Vertex index shard is full: " + file);
+            }
+            int newCapacity = capacity << 1;
+            Path grown = file.resolveSibling(file.getFileName() + ".grow");
+            try {
+                Files.deleteIfExists(grown);
+                MappedByteBuffer next = create(grown, newCapacity);
+                for (int slot = 0; slot < capacity; slot++) {
+                    int offset = HEADER_BYTES + slot * SLOT_BYTES;
+                    int value = buffer.getInt(offset + 8);
+                    if (value != 0) {
+                        insert(next, newCapacity - 1, buffer.getLong(offset), value);
+                    }
+                }
+                next.putLong(8, size);
+                next.force();
+                Files.move(grown, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                buffer = next;
+                capacity = newCapacity;
+            } catch (IOException e) {
+                throw new UncheckedIOException("Unable to grow vertex index shard " + file, e);
+            }
+        }
+
+        private static boolean insert(MappedByteBuffer buffer, int mask, long hash, int value) {
+            int slot = (int) hash & mask;
+            while (true) {
+                int offset = HEADER_BYTES + slot * SLOT_BYTES;
+                int existing = buffer.getInt(offset + 8);
+                if (existing == 0) {
+                    buffer.putLong(offset, hash);
+                    buffer.putInt(offset + 8, value);
+                    return true;
+                }
+                if (buffer.getLong(offset) == hash) {
+                    buffer.putInt(offset + 8, value);
+                    return false;
+                }
+                slot = (slot + 1) & mask;
+            }
+        }
+
+        private static MappedByteBuffer create(Path file, int capacity) throws IOException {
+            MappedByteBuffer buffer = map(file, capacity);
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, capacity);
+            buffer.putLong(8, 0);
+            return buffer;
+        }
+
+        private static MappedByteBuffer map(Path file, int capacity) throws IOException {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                return channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES + (long) capacity * SLOT_BYTES);
+            }
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.apple.snowflakemigration.util;
+
+import com.apple.snowflakemigration.model.ColumnType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.Arrays;
+
+// Upserts rows instead of appending them. The rows go to a temporary staging table through the
+// staged sink, and close merges the staging table into the target table on the key columns, so
+// loading a changed object again replaces its rows instead of duplicating them. The staging table
+// lives in the session of the connection and is dropped once merged.
+public class MergingSink implements RowSink {
+
+    private static Logger log = LoggerFactory.getLogger(MergingSink.class);
+
+    // Every staged row also carries the S3 key and line it came from, so of the rows sharing a key the
+    // merge deterministically keeps the last one, the highest line of the last S3 key in key order
+    public static final String SOURCE_KEY_COLUMN = "MIGRATION_SOURCE_KEY";
+    public static final String SOURCE_LINE_COLUMN = "MIGRATION_SOURCE_LINE";
+
+    private final Connection connection;
+    private final String tableName;
+    private final String stagingTable;
+    private final String[] columns;
+    private final String[] keyColumns;
+    private final RowSink staged;
+    private final AdaptiveLimiter limiter;
+    private RetryPolicy retryPolicy = RetryPolicy.NONE;
+    private String sourceKey;
+    private long sourceLine = -1;
+    private String[] row;
+
+    public MergingSink(Connection connection, String tableName, String stagingTable, String[] columns, String[] keyColumns,
+                       RowSink staged) {
+        this(connection, tableName, stagingTable, columns, keyColumns, staged, null);
+    }
+
+    public MergingSink(Connection connection, String tableName, String stagingTable, String[] columns, String[] keyColumns,
+                       RowSink staged, AdaptiveLimiter limiter) {
+        this.connection = connection;
+        this.tableName = tableName;
+        this.stagingTable = stagingTable;
+        this.columns = columns;
+        this.keyColumns = keyColumns;
+        this.staged = staged;
+        this.limiter = limiter;
+    }
+
+    // MERGE is idempotent, merging the staging table again after a transient error gives the same table
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    // The columns and types of the staging table, which the staged sink writes
+    public static String[] stagingColumns(String[] columns) {
+        String[] staging = Arrays.copyOf(columns, columns.length + 2);
+        staging[columns.length] = SOURCE_KEY_COLUMN;
+        staging[columns.length + 1] = SOURCE_LINE_COLUMN;
+        return staging;
+    }
+
+    public static ColumnType[] stagingTypes(ColumnType[] types) {
+        if (types == null) {
+            return null;
+        }
+        ColumnType[] staging = Arrays.copyOf(types, types.length + 2);
+        staging[types.length] = ColumnType.TEXT;
+        staging[types.length + 1] = ColumnType.NUMBER;
+        return staging;
+    }
+
+    @Override
+    public void source(String key, long line) {
+        sourceKey = key;
+        sourceLine = line;
+        staged.source(key, line);
+    }
+
+    @Override
+    public void write(String[] values) throws Exception {
+        write(values, 0, values.length);
+    }
+
+    @Override
+    public void write(String[] values, int offset, int length) throws Exception {
+        if (row == null || row.length != length + 2) {
+            row = new String[length + 2];
+        }
+        System.arraycopy(values, offset, row, 0, length);
+        row[length] = sourceKey;
+        row[length + 1] = sourceLine >= 0 ? String.valueOf(sourceLine) : null;
+        staged.write(row, 0, row.length);
+    }
+
+    @Override
+    public void flush() throws Exception {
+        staged.flush();
+    }
+
+    // Flushed rows sit in the staging table until close merges them
+    @Override
+    public boolean commitsOnFlush() {
+        return false;
+    }
+
+    @Override
+    public void close() throws Exception {
+        try (Statement stmt = connection.createStatement()) {
+            staged.close();
+            long start = System.nanoTime();
+            String sql = SnowflakeUtils.buildMergeSql(tableName, stagingTable, columns, keyColumns);
+            int merged = retryPolicy.call(tableName, () -> merge(stmt, sql));
+            MigrationMetrics.record(MigrationMetrics.snowflakeStage("merge"), start);
+            log.info("MergingSink.close(): MERGE INTO table={} from staging table={}, rows={}", tableName, stagingTable, merged);
+        } finally {
+            try (Statement stmt = connection.createStatement()) {
+                stmt.execute("DROP TABLE IF EXISTS " + stagingTable);
+            }
+        }
+    }
+
+    private int merge(Statement stmt, String sql) throws Exception {
+        long permit = limiter != null ? limiter.acquire() : 0;
+        int merged;
+        try {
+            merged = stmt.executeUpdate(sql);
+        } catch (Exception e) {
+            if (limiter != null) {
+                if (RetryPolicy.isTransient(e)) {
+                    limiter.releaseFailed(permit);
+                } else {
+                    limiter.releaseIgnored();
+                }
+            }
+            throw e;
+        }
+        if (limiter != null) {
+            // A MERGE takes as long as its staging table is large
+            limiter.releaseIgnored();
+        }
+        return merged;
+    }
+}
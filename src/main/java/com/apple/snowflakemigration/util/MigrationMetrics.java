@@ -0,0 +1,122 @@
+package com.apple.snowflakemigration.util;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+
+// Meters of the hot paths, registered in the global Micrometer registry. Spring Boot adds its own
+// registry to the global one, so everything recorded here shows up in /actuator/prometheus, while
+// the plain classes that record them (writers, streams, static parsers) need no injection.
+// Meters without a tag are resolved once, tagged ones are looked up on the registry per call.
+public final class MigrationMetrics {
+
+    public static final Timer S3_LIST = Timer.builder("migration.s3.list")
+            .description("Latency of one S3 listing page")
+            .register(Metrics.globalRegistry);
+
+    public static final Timer S3_GET = Timer.builder("migration.s3.get")
+            .description("Time until the response of an S3 GET arrives")
+            .register(Metrics.globalRegistry);
+
+    public static final Counter S3_BYTES = Counter.builder("migration.s3.bytes")
+            .description("Bytes read from S3 objects")
+            .baseUnit("bytes")
+            .register(Metrics.globalRegistry);
+
+    public static final Counter DECOMPRESSED_BYTES = Counter.builder("migration.s3.bytes.decompressed")
+            .description("Bytes of compressed S3 objects after decompression")
+            .baseUnit("bytes")
+            .register(Metrics.globalRegistry);
+
+    public static final Timer JSON_VALUES = Timer.builder("migration.json.values")
+            .description("Time of JSONUtils.parseJsonValues per record")
+            .register(Metrics.globalRegistry);
+
+    private MigrationMetrics() {
+    }
+
+    public static Timer parse(String pipeline) {
+        return Timer.builder("migration.pipeline.parse")
+                .description("NDJSON parse time of one pipeline block")
+                .tag("pipeline", pipeline)
+                .register(Metrics.globalRegistry);
+    }
+
+    public static Timer project(String pipeline) {
+        return Timer.builder("migration.pipeline.project")
+                .description("Time to project the records of one pipeline block into rows")
+                .tag("pipeline", pipeline)
+                .register(Metrics.globalRegistry);
+    }
+
+    public static Counter cacheRequests(String result) {
+        return Counter.builder("migration.s3.cache.requests")
+                .description("Reads of S3 objects through the local object cache")
+                .tag("result", result)
+                .register(Metrics.globalRegistry);
+    }
+
+    public static Counter rows(String table) {
+        return Counter.builder("migration.rows")
+                .description("Rows written to a table")
+                .tag("table", table)
+                .register(Metrics.globalRegistry);
+    }
+
+    public static Counter deadLetters(String table) {
+        return Counter.builder("migration.rows.dead-lettered")
+                .description("Rows a table rejected, written to the dead-letter file")
+                .tag("table", table)
+                .register(Metrics.globalRegistry);
+    }
+
+    public static Timer snowflakeBatch(String table) {
+        return Timer.builder("migration.snowflake.batch")
+                .description("Latency of one JDBC executeBatch")
+                .tag("table", table)
+                .register(Metrics.globalRegistry);
+    }
+
+    // operation is put or copy
+    public static Timer snowflakeStage(String operation) {
+        return Timer.builder("migration.snowflake.stage")
+                .description("Latency of staging a chunk or copying staged chunks into a table")
+                .tag("operation", operation)
+                .register(Metrics.globalRegistry);
+    }
+
+    public static Timer connectionWait(String pool) {
+        return Timer.builder("migration.snowflake.connection.wait")
+                .description("Time spent waiting for a pooled Snowflake connection")
+                .tag("pool", pool)
+                .register(Metrics.globalRegistry);
+    }
+
+    public static Counter connectionTimeouts(String pool) {
+        return Counter.builder("migration.snowflake.connection.timeouts")
+                .description("Connection requests that timed out")
+                .tag("pool", pool)
+                .register(Metrics.globalRegistry);
+    }
+
+    // The caller keeps the gauge and removes it once obj goes away
+    public static <T> Gauge gauge(String name, String description, T obj, ToDoubleFunction<T> value, String... tags) {
+        return Gauge.builder(name, obj, value)
+                .description(description)
+                .tags(tags)
+                .register(Metrics.globalRegistry);
+    }
+
+    public static void remove(Meter meter) {
+        Metrics.globalRegistry.remove(meter);
+    }
+
+    public static void record(Timer timer, long startNanos) {
+        timer.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+}
@@ -0,0 +1,77 @@
+package com.apple.snowflakemigration.util;
+
+import com.apple.snowflakemigration.model.ColumnType;
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+// Projects records onto the columns of one table. The field -> ordinal map is built once per table,
+// after that a record is projected with one pass over its own fields, straight into a row buffer owned
+// by the caller, so sparse records cost nothing for the columns they do not have. Fields missing from
+// the record are null. Thread safe, the projector holds no per-record state.
+public class RecordProjector {
+
+    private final String[] fields;
+    private final Map<String, Integer> ordinals;
+    private final boolean[] variant;
+
+    // types may be null when every column is TEXT
+    public RecordProjector(String[] fields, ColumnType[] types) {
+        this.fields = fields;
+        this.ordinals = new HashMap<>(fields.length * 2);
+        this.variant = new boolean[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            ordinals.putIfAbsent(fields[i], i);
+            variant[i] = types != null && types[i] == ColumnType.VARIANT;
+        }
+    }
+
+    public int width() {
+        return fields.length;
+    }
+
+    // Returns the ordinal of the field, or -1 when the table has no column for it
+    public int ordinalOf(String field) {
+        Integer ordinal = ordinals.get(field);
+        return ordinal != null ? ordinal : -1;
+    }
+
+    // Writes the values of the record into row[offset .. offset + width())
+    public void project(JsonNode record, String[] row, int offset) {
+        Arrays.fill(row, offset, offset + fields.length, null);
+        Iterator<Map.Entry<String, JsonNode>> iterator = record.fields();
+        while (iterator.hasNext()) {
+            Map.Entry<String, JsonNode> field = iterator.next();
+            Integer ordinal = ordinals.get(field.getKey());
+            if (ordinal != null) {
+                row[offset + ordinal] = toText(field.getValue(), variant[ordinal]);
+            }
+        }
+    }
+
+    public String[] project(JsonNode record) {
+        String[] row = new String[fields.length];
+        project(record, row, 0);
+        return row;
+    }
+
+    // Text and boolean values come out without a copy, only numbers and VARIANT values build a new string
+    private static String toText(JsonNode node, boolean variant) {
+        if (node.isNull()) {
+            return null;
+        }
+        if (variant) {
+            return node.toString();
+        }
+        if (node.isTextual()) {
+            return node.textValue();
+        }
+        if (node.isBoolean()) {
+            return node.booleanValue() ? "true" : "false";
+        }
+        return node.asText();
+    }
+}
@@ -0,0 +1,83 @@
+package com.apple.snowflakemigration.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientException;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+// Runs an operation again when it fails with a transient error, after an exponential backoff with
+// full jitter: attempt n waits a random time between 0 and min(maxDelay, baseDelay * 2^(n-1)), so
+// writers that failed together do not come back together. Other errors are thrown right away.
+public class RetryPolicy {
+
+    private static Logger log = LoggerFactory.getLogger(RetryPolicy.class);
+
+    public static final RetryPolicy NONE = new RetryPolicy(1, 0, 0);
+
+    // Connection problems, serialization failures, lack of resources, operator intervention
+    private static final Set<String> TRANSIENT_SQL_STATE_CLASSES = Set.of("08", "40", "53", "57");
+    // Snowflake statement and warehouse timeouts
+    private static final Set<Integer> TRANSIENT_SNOWFLAKE_CODES = Set.of(625, 630);
+
+    public interface Attempt<T, E extends Exception> {
+        T run() throws E;
+    }
+
+    private final int maxAttempts;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+
+    public RetryPolicy(int maxAttempts, long baseDelayMillis, long maxDelayMillis) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.baseDelayMillis = Math.max(0, baseDelayMillis);
+        this.maxDelayMillis = Math.max(this.baseDelayMillis, maxDelayMillis);
+    }
+
+    // The error of the last attempt is thrown, an interrupt during the backoff ends the retries
+    @SuppressWarnings("unchecked")
+    public <T, E extends Exception> T call(String operation, Attempt<T, E> attempt) throws E {
+        for (int n = 1; ; n++) {
+            try {
+                return attempt.run();
+            } catch (Exception e) {
+                if (n >= maxAttempts || !isTransient(e)) {
+                    throw (E) e;
+                }
+                long delay = delayMillis(n);
+                log.warn("RetryPolicy.call(): operation={} failed on attempt={}, retrying in delayMs={}: {}", operation, n, delay, e.toString());
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw (E) e;
+                }
+            }
+        }
+    }
+
+    public static boolean isTransient(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLTransientException || cause instanceof SQLRecoverableException || cause instanceof IOException) {
+                return true;
+            }
+            if (cause instanceof SQLException sql) {
+                String state = sql.getSQLState();
+                if ((state != null && state.length() >= 2 && TRANSIENT_SQL_STATE_CLASSES.contains(state.substring(0, 2)))
+                        || TRANSIENT_SNOWFLAKE_CODES.contains(sql.getErrorCode())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    long delayMillis(int attempt) {
+        long cap = Math.min(maxDelayMillis, baseDelayMillis << Math.min(30, attempt - 1));
+        return cap > 0 ? ThreadLocalRandom.current().nextLong(cap + 1) : 0;
+    }
+}
@@ -0,0 +1,30 @@
+package com.apple.snowflakemigration.util;
+
+import java.util.Arrays;
+
+// Destination for the rows of one table. Implementations buffer rows and decide when to send them,
+// flush forces out anything pending and close flushes and releases resources.
+public interface RowSink extends AutoCloseable {
+
+    // Tells the sink where the next row written comes from, so a row the table rejects can be traced back
+    default void source(String key, long line) {
+    }
+
+    void write(String[] values) throws Exception;
+
+    // Writes the row held in values[offset .. offset + length). The array belongs to the caller and is
+    // reused for later rows once this returns, so a sink must copy whatever it keeps.
+    default void write(String[] values, int offset, int length) throws Exception {
+        write(Arrays.copyOfRange(values, offset, offset + length));
+    }
+
+    void flush() throws Exception;
+
+    // True when the rows are committed to the table once flush returns, false when only close commits them
+    default boolean commitsOnFlush() {
+        return true;
+    }
+
+    @Override
+    void close() throws Exception;
+}
@@ -0,0 +1,20 @@
+package com.apple.snowflakemigration.util;
+
+import com.apple.snowflakemigration.model.ColumnType;
+import com.apple.snowflakemigration.model.SnowflakeProperties;
+
+// Where the tables of a run are created and their rows written. SnowflakeUtils is the provider of
+// every export, the load test harness swaps in providers that keep the rows out of Snowflake so the
+// pipeline can be measured on its own.
+public interface RowSinkProvider {
+
+    // The tables and columns the schema has, the DDL of a run is worked out against it
+    SchemaCatalog getCatalog(SnowflakeProperties snowflakeProps, String schema);
+
+    void applySchemaChanges(SnowflakeProperties snowflakeProps, String schema, SchemaChanges changes);
+
+    // mergeKeys are the key columns whose rows the new rows replace, null to append. Rows the table
+    // rejects go to deadLetters, a rejected row fails the sink when it is null.
+    RowSink openRowSink(SnowflakeProperties snowflakeProps, String schema, String tableName, String[] columns,
+                        ColumnType[] types, String[] mergeKeys, DeadLetterFile deadLetters) throws Exception;
+}
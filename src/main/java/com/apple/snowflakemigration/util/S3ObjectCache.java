@@ -0,0 +1,315 @@
+package com.apple.snowflakemigration.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+// Local copies of S3 objects, so a run that reads an object again, or the next run, reads it from
+// disk instead of S3. A file is named after the hash of bucket, key and ETag, a rewritten object
+// gets a new file and the old one ages out. An object is written through while it is read the first
+// time and only enters the cache once every byte arrived. Cached files are read through memory
+// mappings. The least recently used files are deleted once the cache grows over maxBytes; the
+// order survives restarts through the modification time of the files.
+public class S3ObjectCache {
+
+    private static Logger log = LoggerFactory.getLogger(S3ObjectCache.class);
+
+    private static final String SUFFIX = ".obj";
+    private static final String PART_SUFFIX = ".part";
+    private static final long MAP_WINDOW_BYTES = 64L * 1024 * 1024;
+
+    private final Path directory;
+    private final long maxBytes;
+    // file name -> size, in access order
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long sizeBytes;
+
+    private S3ObjectCache(Path directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    // Picks up the files an earlier process left, partial downloads are deleted
+    public static S3ObjectCache open(Path directory, long maxBytes) throws IOException {
+        Files.createDirectories(directory);
+        S3ObjectCache cache = new S3ObjectCache(directory, maxBytes);
+        try (Stream<Path> files = Files.list(directory)) {
+            List<Path> cached = files.filter(file -> {
+                if (file.getFileName().toString().endsWith(PART_SUFFIX)) {
+                    deleteQuietly(file);
+                    return false;
+                }
+                return file.getFileName().toString().endsWith(SUFFIX);
+            }).sorted(Comparator.comparing(S3ObjectCache::lastModified)).toList();
+            for (Path file : cached) {
+                long size = Files.size(file);
+                cache.entries.put(file.getFileName().toString(), size);
+                cache.sizeBytes += size;
+            }
+        }
+        synchronized (cache) {
+            cache.evict();
+        }
+        log.info("S3ObjectCache.open(): directory={}, files={}, bytes={}, maxBytes={}", directory, cache.entries.size(), cache.sizeBytes, maxBytes);
+        return cache;
+    }
+
+    // Reads the object from the cache, or from fetch while keeping a copy. Objects without an ETag
+    // or larger than the cache are passed through.
+    public InputStream open(String bucket, String key, String etag, Long size, Supplier<InputStream> fetch) throws IOException {
+        if (etag == null || (size != null && size > maxBytes)) {
+            return fetch.get();
+        }
+        String name = fileName(bucket, key, etag);
+        Path file = directory.resolve(name);
+        synchronized (this) {
+            Long cachedBytes = entries.get(name);
+            if (cachedBytes != null && Files.exists(file)) {
+                MigrationMetrics.cacheRequests("hit").increment();
+                touch(file);
+                return new MappedInputStream(FileChannel.open(file, StandardOpenOption.READ));
+            }
+            if (cachedBytes != null) {
+                // Deleted behind our back, fetch it again
+                entries.remove(name);
+                sizeBytes -= cachedBytes;
+            }
+        }
+        MigrationMetrics.cacheRequests("miss").increment();
+        Path part = directory.resolve(name + "." + UUID.randomUUID() + PART_SUFFIX);
+        return new WriteThroughInputStream(fetch.get(), part, name, size);
+    }
+
+    public synchronized long getSizeBytes() {
+        return sizeBytes;
+    }
+
+    public synchronized int getFileCount() {
+        return entries.size();
+    }
+
+    // Another reader may have cached the same object meanwhile, the copies are identical
+    private synchronized void admit(String name, Path part, long size) throws IOException {
+        if (entries.containsKey(name)) {
+            Files.deleteIfExists(part);
+            return;
+        }
+        Files.move(part, directory.resolve(name), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        entries.put(name, size);
+        sizeBytes += size;
+        evict();
+    }
+
+    // Readers of an evicted file keep their open channel, the space is freed once they close it
+    private void evict() {
+        Iterator<Map.Entry<String, Long>> eldest = entries.entrySet().iterator();
+        while (sizeBytes > maxBytes && eldest.hasNext()) {
+            Map.Entry<String, Long> entry = eldest.next();
+            deleteQuietly(directory.resolve(entry.getKey()));
+            sizeBytes -= entry.getValue();
+            eldest.remove();
+            log.debug("S3ObjectCache.evict(): Evicted file={}, bytes={}", entry.getKey(), entry.getValue());
+        }
+    }
+
+    static String fileName(String bucket, String key, String etag) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest((bucket + "\n" + key + "\n" + etag).getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(hash) + SUFFIX;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void touch(Path file) {
+        try {
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            log.debug("S3ObjectCache.touch(): Unable to touch file={}", file, e);
+        }
+    }
+
+    private static FileTime lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("S3ObjectCache.deleteQuietly(): Unable to delete file={}", file, e);
+        }
+    }
+
+    // Copies what is read from S3 into the part file and admits it once the expected size arrived, or
+    // the stream ended when the size is unknown. A part file that is closed early is deleted.
+    private class WriteThroughInputStream extends FilterInputStream {
+
+        private final Path part;
+        private final String name;
+        private final Long expectedBytes;
+        private OutputStream copy;
+        private long written;
+        private boolean done;
+
+        WriteThroughInputStream(InputStream in, Path part, String name, Long expectedBytes) throws IOException {
+            super(in);
+            this.part = part;
+            this.name = name;
+            this.expectedBytes = expectedBytes;
+            this.copy = new BufferedOutputStream(Files.newOutputStream(part), 64 * 1024);
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            int read = read(one, 0, 1);
+            return read < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = in.read(b, off, len);
+            if (copy != null) {
+                try {
+                    if (read > 0) {
+                        copy.write(b, off, read);
+                        written += read;
+                    }
+                    if (read < 0 || (expectedBytes != null && written == expectedBytes)) {
+                        finish(true);
+                    }
+                } catch (IOException e) {
+                    // The cache is best effort, the reader still gets the bytes from S3
+                    log.warn("S3ObjectCache.read(): Unable to cache file={}", name, e);
+                    finish(false);
+                }
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // Skipped bytes would leave a hole in the copy
+            finish(false);
+            return in.skip(n);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                in.close();
+            } finally {
+                finish(false);
+            }
+        }
+
+        private void finish(boolean complete) throws IOException {
+            if (done) {
+                return;
+            }
+            done = true;
+            OutputStream out = copy;
+            copy = null;
+            try {
+                out.close();
+                if (complete && (expectedBytes == null || written == expectedBytes)) {
+                    admit(name, part, written);
+                    return;
+                }
+            } catch (IOException e) {
+                log.warn("S3ObjectCache.finish(): Unable to cache file={}", name, e);
+            }
+            deleteQuietly(part);
+        }
+    }
+
+    // Reads a cached file through read-only mappings of up to MAP_WINDOW_BYTES, so files of any
+    // size are read without copying them through a channel buffer
+    private static class MappedInputStream extends InputStream {
+
+        private final FileChannel channel;
+        private final long size;
+        private long position;
+        private MappedByteBuffer window;
+
+        MappedInputStream(FileChannel channel) throws IOException {
+            this.channel = channel;
+            this.size = channel.size();
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!nextWindow()) {
+                return -1;
+            }
+            position++;
+            return window.get() & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!nextWindow()) {
+                return -1;
+            }
+            int read = Math.min(len, window.remaining());
+            window.get(b, off, read);
+            position += read;
+            return read;
+        }
+
+        @Override
+        public int available() {
+            return window != null ? window.remaining() : 0;
+        }
+
+        @Override
+        public void close() throws IOException {
+            window = null;
+            channel.close();
+        }
+
+        private boolean nextWindow() throws IOException {
+            if (window != null && window.hasRemaining()) {
+                return true;
+            }
+            if (position >= size) {
+                return false;
+            }
+            window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAP_WINDOW_BYTES, size - position));
+            return true;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.apple.snowflakemigration.util;
+
+import software.amazon.awssdk.core.ResponseBytes;
+import software.amazon.awssdk.core.async.AsyncResponseTransformer;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+// Reads an S3 object as consecutive byte ranges fetched with up to `parallelism` concurrent GETs.
+// Parts are handed out in order, so the reader sees the plain object content; a record split over
+// two parts is joined again when the fetch stage cuts the stream on newlines.
+public class S3RangedInputStream extends InputStream {
+
+    private final S3AsyncClient s3AsyncClient;
+    private final String bucket;
+    private final String key;
+    private final String eTag;
+    private final long objectSize;
+    private final long partSize;
+    private final int parallelism;
+
+    private final Deque<CompletableFuture<ResponseBytes<GetObjectResponse>>> inFlight = new ArrayDeque<>();
+    private long nextRangeStart;
+    private byte[] part;
+    private int position;
+    private boolean closed;
+
+    public S3RangedInputStream(S3AsyncClient s3AsyncClient, String bucket, String key, String eTag, long objectSize,
+                               long partSize, int parallelism) {
+        this.s3AsyncClient = s3AsyncClient;
+        this.bucket = bucket;
+        this.key = key;
+        this.eTag = eTag;
+        this.objectSize = objectSize;
+        this.partSize = Math.max(1, partSize);
+        this.parallelism = Math.max(1, parallelism);
+        fillWindow();
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!ensurePart()) {
+            return -1;
+        }
+        return part[position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        if (!ensurePart()) {
+            return -1;
+        }
+        int count = Math.min(length, part.length - position);
+        System.arraycopy(part, position, buffer, offset, count);
+        position += count;
+        return count;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        part = null;
+        inFlight.forEach(future -> future.cancel(true));
+        inFlight.clear();
+    }
+
+    private boolean ensurePart() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed for key " + key);
+        }
+        while (part == null || position >= part.length) {
+            CompletableFuture<ResponseBytes<GetObjectResponse>> next = inFlight.poll();
+            if (next == null) {
+                return false;
+            }
+            try {
+                part = next.join().asByteArrayUnsafe();
+            } catch (CompletionException e) {
+                close();
+                throw new IOException("Error while fetching range of key " + key, e.getCause());
+            }
+            position = 0;
+            fillWindow();
+        }
+        return true;
+    }
+
+    private void fillWindow() {
+        while (inFlight.size() < parallelism && nextRangeStart < objectSize) {
+            long rangeEnd = Math.min(objectSize, nextRangeStart + partSize) - 1;
+            GetObjectRequest.Builder request = GetObjectRequest.builder()
+                    .bucket(bucket)
+                    .key(key)
+                    .range("bytes=" + nextRangeStart + "-" + rangeEnd);
+            if (eTag != null) {
+                // Fail instead of mixing parts of two versions if the object is replaced mid download
+                request.ifMatch(eTag);
+            }
+            inFlight.add(s3AsyncClient.getObject(request.build(), AsyncResponseTransformer.toBytes()));
+            nextRangeStart = rangeEnd + 1;
+        }
+    }
+}
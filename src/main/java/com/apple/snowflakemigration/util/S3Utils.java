@@ -1,26 +1,40 @@
 package com.apple.snowflakemigration.util;
 
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import jakarta.annotation.PostConstruct;
+import com.fasterxml.jackson.databind.MappingIterator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
 import software.amazon.awssdk.auth.credentials.AwsSessionCredentials;
 import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
 import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.S3AsyncClientBuilder;
 import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.S3ClientBuilder;
 import software.amazon.awssdk.services.s3.model.GetObjectRequest;
 import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
 import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
 import software.amazon.awssdk.services.s3.model.S3Object;
 
-import java.io.BufferedReader;
+import java.io.FilterInputStream;
+import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 @Component
 public class S3Utils {
@@ -32,6 +46,51 @@ public class S3Utils {
 
     S3Client s3Client;
 
+    S3AsyncClient s3AsyncClient;
+
+    @Value("${cloud.aws.s3.bucket:" + BUCKET_NAME + "}")
+    private String bucketName = BUCKET_NAME;
+
+    @Value("${cloud.aws.s3.prefix:" + PREFIX + "}")
+    private String prefix = PREFIX;
+
+    @Value("${cloud.aws.region:us-east-1}")
+    private String region = "us-east-1";
+
+    // Points the client at an S3 compatible server (MinIO, LocalStack) when set
+    @Value("${cloud.aws.s3.endpoint:}")
+    private String endpoint;
+
+    // Reads the export from a local directory laid out like the bucket instead of S3 when set, keys are
+    // paths relative to the directory. Used by the load test harness and for runs against a local copy.
+    @Value("${cloud.aws.s3.local-dir:}")
+    private String localDir;
+
+    @Value("${cloud.aws.s3.list-parallelism:4}")
+    private int listParallelism = 4;
+
+    // Objects of at least threshold-bytes are downloaded as parallel ranged GETs on the async client
+    @Value("${cloud.aws.s3.ranged-get.enabled:false}")
+    private boolean rangedGetEnabled;
+
+    @Value("${cloud.aws.s3.ranged-get.threshold-bytes:67108864}")
+    private long rangedGetThresholdBytes = 64L * 1024 * 1024;
+
+    @Value("${cloud.aws.s3.ranged-get.part-bytes:8388608}")
+    private long rangedGetPartBytes = 8L * 1024 * 1024;
+
+    @Value("${cloud.aws.s3.ranged-get.parallelism:8}")
+    private int rangedGetParallelism = 8;
+
+    // Local copies of downloaded objects, off unless a directory is set
+    @Value("${cloud.aws.s3.cache.dir:}")
+    private String cacheDir;
+
+    @Value("${cloud.aws.s3.cache.max-bytes:10737418240}")
+    private long cacheMaxBytes = 10L * 1024 * 1024 * 1024;
+
+    private volatile S3ObjectCache cache;
+
     @Value("${cloud.aws.credentials.accessKey}")
     private String accessKeyId;
 
@@ -41,18 +100,11 @@ public class S3Utils {
     @Value("${cloud.aws.credentials.sessionToken}")
     private String sessionToken;
 
-    private ObjectMapper objectMapper;
-
-    @PostConstruct
-    public void init(){
-        objectMapper = new ObjectMapper();
-    }
-
    public void getS3Client(){
-
-        System.out.println("accessKeyId: "+accessKeyId);
-        System.out.println("secretKey: "+secretKey);
-        System.out.println("sessionToken: "+sessionToken);
+        if (StringUtils.hasText(localDir)) {
+            log.info("S3Utils.getS3Client(): Reading objects from local dir={}", localDir);
+            return;
+        }
 
        // Create AWS session credentialsTest
        AwsSessionCredentials sessionCredentials = AwsSessionCredentials.create(
@@ -62,58 +114,280 @@ public class S3Utils {
        );
 
        // Create an S3 client
-        s3Client = S3Client.builder()
-               .region(Region.US_EAST_1) // Replace with your region
-               .credentialsProvider(StaticCredentialsProvider.create(sessionCredentials))
-               .build();
+        S3ClientBuilder builder = S3Client.builder()
+               .region(Region.of(region))
+               .credentialsProvider(StaticCredentialsProvider.create(sessionCredentials));
+        if (StringUtils.hasText(endpoint)) {
+            builder.endpointOverride(URI.create(endpoint)).forcePathStyle(true);
+        }
+        s3Client = builder.build();
 
+        if (rangedGetEnabled) {
+            S3AsyncClientBuilder asyncBuilder = S3AsyncClient.builder()
+                    .region(Region.of(region))
+                    .credentialsProvider(StaticCredentialsProvider.create(sessionCredentials));
+            if (StringUtils.hasText(endpoint)) {
+                asyncBuilder.endpointOverride(URI.create(endpoint)).forcePathStyle(true);
+            }
+            s3AsyncClient = asyncBuilder.build();
+        }
+
+        if (cache == null && StringUtils.hasText(cacheDir)) {
+            openCache();
+        }
 
    }
+    private synchronized void openCache() {
+        if (cache != null) {
+            return;
+        }
+        try {
+            cache = S3ObjectCache.open(Path.of(cacheDir), cacheMaxBytes);
+            MigrationMetrics.gauge("migration.s3.cache.bytes", "Bytes held by the local object cache", cache, S3ObjectCache::getSizeBytes);
+        } catch (IOException e) {
+            log.error("S3Utils.openCache(): Error while opening object cache in dir={}, reading from S3 only", cacheDir, e);
+        }
+    }
+
+    // 0 when no cache is open
+    public long getCacheMaxBytes() {
+        return cache != null ? cacheMaxBytes : 0;
+    }
+
     public List<S3Object> listFiles(String folderName) {
-        ListObjectsV2Request request = ListObjectsV2Request.builder()
-                .bucket(BUCKET_NAME)
-                .prefix(PREFIX+folderName + "/")
-                .build();
+        List<S3Object> files = Collections.synchronizedList(new ArrayList<>());
+        listFiles(folderName, null, files::add);
+        return files;
+    }
+
+    public int getListParallelism() {
+        return listParallelism;
+    }
 
-        ListObjectsV2Response response = s3Client.listObjectsV2(request);
-        return response.contents();
+    // Lists every key under the folder, following continuation tokens, and hands each S3Object to the
+    // consumer as soon as its page arrives. Given an executor and list-parallelism above 1, the key space
+    // is split into ranges on the first character after the folder prefix and the ranges are listed
+    // concurrently on the executor, so the consumer must be thread safe. The executor is the caller's,
+    // it is left running.
+    public long listFiles(String folderName, ExecutorService executor, Consumer<S3Object> consumer) {
+        String folderPrefix = prefix + folderName + "/";
+        if (StringUtils.hasText(localDir)) {
+            return listLocal(folderPrefix, consumer);
+        }
+        List<Character> boundaries = listRangeBoundaries(listParallelism);
+        if (executor == null || boundaries.isEmpty()) {
+            return listRange(folderPrefix, null, null, consumer);
+        }
+        List<Future<Long>> ranges = new ArrayList<>();
+        try {
+            for (int i = 0; i <= boundaries.size(); i++) {
+                Character lower = i == 0 ? null : boundaries.get(i - 1);
+                Character upper = i == boundaries.size() ? null : boundaries.get(i);
+                ranges.add(executor.submit(() -> listRange(folderPrefix, lower, upper, consumer)));
+            }
+            long count = 0;
+            for (Future<Long> range : ranges) {
+                count += range.get();
+            }
+            log.info("S3Utils.listFiles(): folder={}, files={}, ranges={}", folderName, count, ranges.size());
+            return count;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while listing " + folderPrefix, e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Error while listing " + folderPrefix, e.getCause());
+        } finally {
+            // Ranges still listing after a failure stop with it
+            ranges.forEach(range -> range.cancel(true));
+        }
     }
 
-    public List<JsonNode> getFileContent(String key) {
+    // Lists the keys whose first character after the prefix is in [lower, upper), null means unbounded
+    private long listRange(String folderPrefix, Character lower, Character upper, Consumer<S3Object> consumer) {
+        ListObjectsV2Request.Builder request = ListObjectsV2Request.builder()
+                .bucket(bucketName)
+                .prefix(folderPrefix);
+        String lowerKey = lower == null ? null : folderPrefix + lower;
+        String upperKey = upper == null ? null : folderPrefix + upper;
+        if (lower != null) {
+            // Every key starting with the previous character sorts before this one
+            request.startAfter(folderPrefix + (char) (lower - 1) + '\uffff');
+        }
+        long count = 0;
+        String continuationToken = null;
+        do {
+            long start = System.nanoTime();
+            ListObjectsV2Response response = s3Client.listObjectsV2(request.continuationToken(continuationToken).build());
+            MigrationMetrics.record(MigrationMetrics.S3_LIST, start);
+            for (S3Object object : response.contents()) {
+                if (lowerKey != null && object.key().compareTo(lowerKey) < 0) {
+                    continue;
+                }
+                if (upperKey != null && object.key().compareTo(upperKey) >= 0) {
+                    return count;
+                }
+                consumer.accept(object);
+                count++;
+            }
+            continuationToken = Boolean.TRUE.equals(response.isTruncated()) ? response.nextContinuationToken() : null;
+        } while (continuationToken != null);
+        return count;
+    }
 
-        List<JsonNode> jsonList = new ArrayList<>();
+    // Files are listed in key order like S3 does, the ETag stands in for the content by size and modification time
+    private long listLocal(String folderPrefix, Consumer<S3Object> consumer) {
+        Path root = Path.of(localDir);
+        Path folder = root.resolve(folderPrefix);
+        if (!Files.isDirectory(folder)) {
+            return 0;
+        }
+        long start = System.nanoTime();
+        List<Path> paths;
+        try (Stream<Path> walk = Files.walk(folder)) {
+            paths = walk.filter(Files::isRegularFile).sorted().toList();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error while listing " + folder, e);
+        }
+        MigrationMetrics.record(MigrationMetrics.S3_LIST, start);
+        for (Path path : paths) {
+            try {
+                long size = Files.size(path);
+                long modified = Files.getLastModifiedTime(path).toMillis();
+                consumer.accept(S3Object.builder()
+                        .key(root.relativize(path).toString().replace('\\', '/'))
+                        .size(size)
+                        .lastModified(Instant.ofEpochMilli(modified))
+                        .eTag("\"" + Long.toHexString(size) + "-" + Long.toHexString(modified) + "\"")
+                        .build());
+            } catch (IOException e) {
+                throw new UncheckedIOException("Error while listing " + path, e);
+            }
+        }
+        log.info("S3Utils.listLocal(): folder={}, files={}", folder, paths.size());
+        return paths.size();
+    }
+
+    // Splits the printable range '0'..'z' into evenly sized ranges, the first and last range are open ended
+    static List<Character> listRangeBoundaries(int parallelism) {
+        List<Character> boundaries = new ArrayList<>();
+        int first = '0';
+        int last = 'z';
+        for (int i = 1; i < parallelism; i++) {
+            boundaries.add((char) (first + (last - first + 1) * i / parallelism));
+        }
+        return boundaries;
+    }
+
+    public InputStream openObject(String key) {
+        if (StringUtils.hasText(localDir)) {
+            try {
+                return new CountingInputStream(Files.newInputStream(Path.of(localDir).resolve(key)));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Error while opening " + key, e);
+            }
+        }
         GetObjectRequest request = GetObjectRequest.builder()
-                .bucket(BUCKET_NAME)
+                .bucket(bucketName)
                 .key(key)
                 .build();
 
-        try (InputStream inputStream = s3Client.getObject(request);
-             BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream))) {
-            // Read the entire content as a single string
-            StringBuilder contentBuilder = new StringBuilder();
-            contentBuilder.append("[");
-            String line;
-            while ((line = reader.readLine()) != null) {
-                line+= ",";
-                contentBuilder.append(line);
-            }
-            contentBuilder.deleteCharAt(contentBuilder.length()-1);
-            contentBuilder.append("]");
-
-            // Parse the content into a list of JSON objects
-           // ObjectMapper objectMapper = new ObjectMapper();
-            JsonNode rootNode = objectMapper.readTree(contentBuilder.toString());
-            if (rootNode.isArray()) {
-                for (JsonNode node : rootNode) {
-                    jsonList.add(node);
-                }
-            } else {
-                throw new IllegalArgumentException("Expected JSON array but found a different structure.");
+        long start = System.nanoTime();
+        InputStream inputStream = s3Client.getObject(request);
+        MigrationMetrics.record(MigrationMetrics.S3_GET, start);
+        return new CountingInputStream(inputStream);
+    }
+
+    // Objects in the local cache are read from disk, others are cached while they are read
+    public InputStream openObject(S3Object object) throws IOException {
+        S3ObjectCache objectCache = cache;
+        if (objectCache != null) {
+            return objectCache.open(bucketName, object.key(), object.eTag(), object.size(), () -> fetchObject(object));
+        }
+        return fetchObject(object);
+    }
+
+    // Large objects are fetched as concurrent byte ranges when ranged GETs are enabled
+    private InputStream fetchObject(S3Object object) {
+        Long size = object.size();
+        if (s3AsyncClient != null && size != null && size >= rangedGetThresholdBytes) {
+            return openObject(object, rangedGetPartBytes, rangedGetParallelism);
+        }
+        return openObject(object.key());
+    }
+
+    public InputStream openObject(S3Object object, long partBytes, int parallelism) {
+        int rangeCount = (int) Math.min(Integer.MAX_VALUE, (object.size() + partBytes - 1) / partBytes);
+        log.debug("S3Utils.openObject(): Ranged GET for key={}, size={}, partBytes={}, parallelism={}",
+                object.key(), object.size(), partBytes, Math.min(parallelism, rangeCount));
+        return new CountingInputStream(new S3RangedInputStream(s3AsyncClient, bucketName, object.key(), object.eTag(), object.size(),
+                partBytes, Math.min(parallelism, rangeCount)));
+    }
+
+    // Compressed objects are decompressed on the fly, see CompressedInput
+    public MappingIterator<JsonNode> openRecords(String key) throws IOException {
+        return JSONUtils.readRecords(CompressedInput.decompress(key, openObject(key)));
+    }
+
+    public MappingIterator<JsonNode> openRecords(S3Object object) throws IOException {
+        return JSONUtils.readRecords(CompressedInput.decompress(object.key(), openObject(object)));
+    }
+
+    public long forEachRecord(String key, Consumer<JsonNode> consumer) throws IOException {
+        return forEachRecord(key, () -> openRecords(key), consumer);
+    }
+
+    // Goes through the object cache, so the load after the scan reads the object from disk. A malformed
+    // line or a failed read ends the object with an exception, the records before it were already consumed.
+    public long forEachRecord(S3Object object, Consumer<JsonNode> consumer) throws IOException {
+        return forEachRecord(object.key(), () -> openRecords(object), consumer);
+    }
+
+    private interface RecordsOpener {
+        MappingIterator<JsonNode> open() throws IOException;
+    }
+
+    private long forEachRecord(String key, RecordsOpener opener, Consumer<JsonNode> consumer) throws IOException {
+        long count = 0;
+        try (MappingIterator<JsonNode> records = opener.open()) {
+            while (records.hasNextValue()) {
+                consumer.accept(records.nextValue());
+                count++;
             }
-        } catch (Exception e) {
-            log.error("S3Utils.getFileContent(): Error while getting content for key ={}",key,e);
+        } catch (IOException | RuntimeException e) {
+            throw new IOException("Error while reading records of key " + key + " after records=" + count, e);
         }
+        return count;
+    }
 
+    public List<JsonNode> getFileContent(String key) throws IOException {
+        List<JsonNode> jsonList = new ArrayList<>();
+        forEachRecord(key, jsonList::add);
         return jsonList;
     }
+
+    // Adds the bytes read from an object to the S3 byte counter
+    private static class CountingInputStream extends FilterInputStream {
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0) {
+                MigrationMetrics.S3_BYTES.increment();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = in.read(b, off, len);
+            if (read > 0) {
+                MigrationMetrics.S3_BYTES.increment(read);
+            }
+            return read;
+        }
+    }
 }
@@ -0,0 +1,98 @@
+package com.apple.snowflakemigration.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Tables and columns of one schema, loaded with a single INFORMATION_SCHEMA query instead of a
+// metadata round trip per label, and kept current by the DDL this application runs. Snowflake
+// stores unquoted identifiers upper case, so names are compared case-insensitively.
+public class SchemaCatalog {
+
+    private static Logger log = LoggerFactory.getLogger(SchemaCatalog.class);
+
+    static final String COLUMNS_SQL = "SELECT TABLE_NAME, COLUMN_NAME FROM INFORMATION_SCHEMA.COLUMNS "
+            + "WHERE UPPER(TABLE_SCHEMA) = UPPER(?) ORDER BY TABLE_NAME, ORDINAL_POSITION";
+
+    private final String schema;
+    private final long loadedAtMillis = System.currentTimeMillis();
+    private final Map<String, Set<String>> tables = new ConcurrentHashMap<>();
+
+    public SchemaCatalog(String schema) {
+        this.schema = schema;
+    }
+
+    public static SchemaCatalog load(Connection connection, String schema) throws SQLException {
+        long start = System.nanoTime();
+        SchemaCatalog catalog = new SchemaCatalog(schema);
+        try (PreparedStatement statement = connection.prepareStatement(COLUMNS_SQL)) {
+            statement.setString(1, schema);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    catalog.columnsOf(resultSet.getString(1)).add(normalize(resultSet.getString(2)));
+                }
+            }
+        }
+        log.info("SchemaCatalog.load(): schema={}, tables={}, elapsedMs={}", schema, catalog.tables.size(),
+                (System.nanoTime() - start) / 1_000_000);
+        return catalog;
+    }
+
+    public String getSchema() {
+        return schema;
+    }
+
+    public long getLoadedAtMillis() {
+        return loadedAtMillis;
+    }
+
+    public int getTableCount() {
+        return tables.size();
+    }
+
+    public boolean hasTable(String table) {
+        return tables.containsKey(normalize(table));
+    }
+
+    // Columns the table does not have yet, in the given order. All of them when the table is missing.
+    public List<String> missingColumns(String table, String[] columns) {
+        Set<String> existing = tables.get(normalize(table));
+        List<String> missing = new ArrayList<>();
+        for (String column : columns) {
+            if (existing == null || !existing.contains(normalize(column))) {
+                missing.add(column);
+            }
+        }
+        return missing;
+    }
+
+    public void tableCreated(String table, String[] columns) {
+        columnsAdded(table, List.of(columns));
+    }
+
+    public void columnsAdded(String table, Collection<String> columns) {
+        Set<String> existing = columnsOf(table);
+        for (String column : columns) {
+            existing.add(normalize(column));
+        }
+    }
+
+    private Set<String> columnsOf(String table) {
+        return tables.computeIfAbsent(normalize(table), k -> ConcurrentHashMap.newKeySet());
+    }
+
+    private static String normalize(String name) {
+        return name.toUpperCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,91 @@
+package com.apple.snowflakemigration.util;
+
+import com.apple.snowflakemigration.model.ColumnType;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// DDL that brings a schema in line with the label tables of an export, worked out against a
+// SchemaCatalog without touching the database. Missing tables are created, existing tables get the
+// columns of properties they do not have yet, tables that already match need no statement at all.
+// Every statement is idempotent, so a failed request can simply be run again statement by statement.
+public class SchemaChanges {
+
+    // columns is what the catalog learns once sql ran
+    private record Change(String table, String sql, List<String> columns) {
+    }
+
+    private final SchemaCatalog catalog;
+    private final List<Change> changes = new ArrayList<>();
+
+    public SchemaChanges(SchemaCatalog catalog) {
+        this.catalog = catalog;
+    }
+
+    // types may be null for an all TEXT table
+    public void ensureTable(String tableName, String[] columns, ColumnType[] types) {
+        if (!catalog.hasTable(tableName)) {
+            add(tableName, SnowflakeUtils.buildCreateTableSql(tableName, columns, types, true), List.of(columns));
+        } else {
+            addMissingColumns(tableName, columns, types);
+        }
+    }
+
+    public void ensureEdgeTable(String tableName, String[] columns, ColumnType[] types, String fromVertexRefTable,
+                                String toVertexRefTable) {
+        if (!catalog.hasTable(tableName)) {
+            add(tableName, SnowflakeUtils.buildCreateEdgeTableSql(tableName, columns, types, fromVertexRefTable,
+                    toVertexRefTable, true), List.of(columns));
+        } else {
+            addMissingColumns(tableName, columns, types);
+        }
+    }
+
+    public SchemaCatalog getCatalog() {
+        return catalog;
+    }
+
+    public boolean isEmpty() {
+        return changes.isEmpty();
+    }
+
+    public int size() {
+        return changes.size();
+    }
+
+    public String getTable(int index) {
+        return changes.get(index).table();
+    }
+
+    public String getSql(int index) {
+        return changes.get(index).sql();
+    }
+
+    // Called once the statement at index ran
+    public void applied(int index) {
+        Change change = changes.get(index);
+        catalog.columnsAdded(change.table(), change.columns());
+    }
+
+    private void addMissingColumns(String tableName, String[] columns, ColumnType[] types) {
+        List<String> missing = catalog.missingColumns(tableName, columns);
+        if (missing.isEmpty()) {
+            return;
+        }
+        String[] added = missing.toArray(new String[0]);
+        ColumnType[] addedTypes = null;
+        if (types != null) {
+            addedTypes = new ColumnType[added.length];
+            for (int i = 0, j = 0; i < columns.length; i++) {
+                if (j < added.length && columns[i].equals(added[j])) {
+                    addedTypes[j++] = types[i];
+                }
+            }
+        }
+        add(tableName, SnowflakeUtils.buildAddColumnsSql(tableName, added, addedTypes), missing);
+    }
+
+    private void add(String tableName, String sql, List<String> columns) {
+        changes.add(new Change(tableName, sql, columns));
+    }
+}
@@ -0,0 +1,103 @@
+package com.apple.snowflakemigration.util;
+
+import com.apple.snowflakemigration.model.ColumnType;
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+// Infers the table of one label while its records stream by: the columns are the union of the
+// fields of all records, in the order they were first seen, and each column gets the narrowest type
+// that holds every value seen for it. Only one type per field is kept, so memory does not grow with
+// the number of records. Safe to feed from several threads.
+public class SchemaInferrer {
+
+    private static final Pattern TIMESTAMP = Pattern.compile(
+            "\\d{4}-\\d{2}-\\d{2}([T ]\\d{2}:\\d{2}(:\\d{2}(\\.\\d{1,9})?)?(Z|[+-]\\d{2}(:?\\d{2})?)?)?");
+
+    // field name -> type, a null type means only nulls were seen so far
+    private final Map<String, ColumnType> fieldTypes = new LinkedHashMap<>();
+    private long recordCount;
+
+    public synchronized void accept(JsonNode record) {
+        recordCount++;
+        Iterator<Map.Entry<String, JsonNode>> fields = record.fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            ColumnType observed = typeOf(field.getValue());
+            ColumnType current = fieldTypes.get(field.getKey());
+            if (current == null) {
+                fieldTypes.put(field.getKey(), observed);
+            } else if (observed != null && observed != current) {
+                fieldTypes.put(field.getKey(), current.widen(observed));
+            }
+        }
+    }
+
+    // Adds the fields another inferrer saw, for example the one of a file scanned by another worker
+    public synchronized void merge(Map<String, ColumnType> otherFieldTypes, long otherRecordCount) {
+        recordCount += otherRecordCount;
+        for (Map.Entry<String, ColumnType> field : otherFieldTypes.entrySet()) {
+            ColumnType observed = field.getValue();
+            ColumnType current = fieldTypes.get(field.getKey());
+            if (current == null) {
+                fieldTypes.put(field.getKey(), observed);
+            } else if (observed != null && observed != current) {
+                fieldTypes.put(field.getKey(), current.widen(observed));
+            }
+        }
+    }
+
+    // field name -> type, null where only nulls were seen
+    public synchronized Map<String, ColumnType> getFieldTypes() {
+        return new LinkedHashMap<>(fieldTypes);
+    }
+
+    // Field names as they appear in the records
+    public synchronized String[] getFields() {
+        return fieldTypes.keySet().toArray(new String[0]);
+    }
+
+    // Column names, the field names without Neptune's ~ prefix
+    public synchronized String[] getColumns() {
+        return fieldTypes.keySet().stream().map(field -> field.replace("~", "")).toArray(String[]::new);
+    }
+
+    public synchronized ColumnType[] getTypes() {
+        return fieldTypes.values().stream().map(type -> type != null ? type : ColumnType.TEXT).toArray(ColumnType[]::new);
+    }
+
+    public synchronized long getRecordCount() {
+        return recordCount;
+    }
+
+    public String toCreateTableSql(String tableName) {
+        return SnowflakeUtils.buildCreateTableSql(tableName, getColumns(), getTypes());
+    }
+
+    static ColumnType typeOf(JsonNode value) {
+        if (value == null || value.isNull() || value.isMissingNode()) {
+            return null;
+        }
+        if (value.isBoolean()) {
+            return ColumnType.BOOLEAN;
+        }
+        if (value.isIntegralNumber()) {
+            return ColumnType.NUMBER;
+        }
+        if (value.isNumber()) {
+            return ColumnType.FLOAT;
+        }
+        if (value.isContainerNode()) {
+            return ColumnType.VARIANT;
+        }
+        String text = value.asText();
+        // Cheap check first, most text values are not dates
+        if (text.length() >= 10 && text.charAt(4) == '-' && text.charAt(7) == '-' && TIMESTAMP.matcher(text).matches()) {
+            return ColumnType.TIMESTAMP;
+        }
+        return ColumnType.TEXT;
+    }
+}
@@ -0,0 +1,340 @@
+package com.apple.snowflakemigration.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+// Coordinates the workers of a sharded migration through a directory they all mount, so several
+// service instances can load one export without extra infrastructure. Layout of the directory:
+//   workers/<workerId>             heartbeat, its modification time is refreshed every heartbeat interval
+//   leases/<phase>/<fileId>.<gen>  claims of a file, the highest generation counts, the content is its
+//                                  owner and an empty owner means the file was given back
+//   done/<phase>/<fileId>          the file is finished: its key, OK or FAILED, then the payload
+//   <name>/<workerId>/             data a worker publishes to the others, such as its vertex id index
+// Files go to the live workers by consistent hashing of their key. A worker whose heartbeat is older
+// than the lease timeout is dead: it drops off the ring and its unfinished files move to the workers
+// that own them now. A lease is taken by hard linking a complete file to the next generation, which
+// fails when another worker got there first, so one generation never has two owners.
+public class ShardCoordinator implements AutoCloseable {
+
+    private static Logger log = LoggerFactory.getLogger(ShardCoordinator.class);
+
+    // A file that failed this often on one worker is given up, so the other workers do not wait forever
+    private static final int MAX_ATTEMPTS = 3;
+
+    private record Lease(int generation, String owner) {
+    }
+
+    private final Path directory;
+    private final String workerId;
+    private final long leaseTimeoutMillis;
+    private final long pollMillis;
+    private final Path heartbeat;
+    private final ScheduledExecutorService heartbeats;
+    // Lease files never change once linked, their owners are read once
+    private final Map<Path, String> leaseOwners = new ConcurrentHashMap<>();
+    // phase -> keys this worker claimed and has not finished yet
+    private final Map<String, Set<String>> claimed = new ConcurrentHashMap<>();
+    private final Map<String, Integer> attempts = new ConcurrentHashMap<>();
+
+    private ShardCoordinator(Path directory, String workerId, long heartbeatMillis, long leaseTimeoutMillis, long pollMillis) {
+        this.directory = directory;
+        this.workerId = workerId;
+        this.leaseTimeoutMillis = leaseTimeoutMillis;
+        this.pollMillis = pollMillis;
+        this.heartbeat = directory.resolve("workers").resolve(workerId);
+        this.heartbeats = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "shard-heartbeat-" + workerId);
+            thread.setDaemon(true);
+            return thread;
+        });
+        heartbeats.scheduleAtFixedRate(this::beat, heartbeatMillis, heartbeatMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public static ShardCoordinator open(Path directory, String workerId, long heartbeatMillis, long leaseTimeoutMillis,
+                                        long pollMillis) throws IOException {
+        Files.createDirectories(directory.resolve("workers"));
+        Path heartbeat = directory.resolve("workers").resolve(workerId);
+        if (!Files.exists(heartbeat)) {
+            Files.createFile(heartbeat);
+        }
+        Files.setLastModifiedTime(heartbeat, FileTime.fromMillis(System.currentTimeMillis()));
+        ShardCoordinator coordinator = new ShardCoordinator(directory, workerId, heartbeatMillis, leaseTimeoutMillis, pollMillis);
+        log.info("ShardCoordinator.open(): directory={}, workerId={}, liveWorkers={}", directory, workerId, coordinator.getLiveWorkers());
+        return coordinator;
+    }
+
+    public String getWorkerId() {
+        return workerId;
+    }
+
+    public List<String> getLiveWorkers() throws IOException {
+        List<String> live = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        try (Stream<Path> workers = Files.list(directory.resolve("workers"))) {
+            for (Path worker : (Iterable<Path>) workers::iterator) {
+                try {
+                    if (now - Files.getLastModifiedTime(worker).toMillis() <= leaseTimeoutMillis) {
+                        live.add(worker.getFileName().toString());
+                    }
+                } catch (NoSuchFileException e) {
+                    // The worker left while we were listing
+                }
+            }
+        }
+        if (!live.contains(workerId)) {
+            live.add(workerId);
+        }
+        return live;
+    }
+
+    // Directory where this worker publishes data of the given kind to the other workers
+    public Path getWorkerDirectory(String name) throws IOException {
+        return Files.createDirectories(directory.resolve(name).resolve(workerId));
+    }
+
+    // The directories the other workers published data of the given kind in
+    public List<Path> getOtherWorkerDirectories(String name) throws IOException {
+        Path parent = directory.resolve(name);
+        if (!Files.isDirectory(parent)) {
+            return List.of();
+        }
+        try (Stream<Path> workers = Files.list(parent)) {
+            return workers.filter(Files::isDirectory)
+                    .filter(worker -> !worker.getFileName().toString().equals(workerId))
+                    .toList();
+        }
+    }
+
+    // Hands the keys of the phase this worker owns to consumer, as long as nobody else holds or finished
+    // them. Returns once every key is finished or claimed by this worker, taking over the keys of workers
+    // that died in the meantime, so after the caller processed its claims the phase is done unless some
+    // of them failed. Call releaseUnfinished then and run another pass.
+    public void forEachClaimed(String phase, Collection<String> keys, BooleanSupplier cancelled,
+                               Consumer<String> consumer) throws IOException, InterruptedException {
+        Set<String> remaining = new LinkedHashSet<>(keys);
+        Set<String> mine = claimed.computeIfAbsent(phase, k -> ConcurrentHashMap.newKeySet());
+        while (!remaining.isEmpty() && !cancelled.getAsBoolean()) {
+            Set<String> done = listDone(phase);
+            Map<String, Lease> leases = listLeases(phase);
+            List<String> live = getLiveWorkers();
+            ConsistentHashRing ring = new ConsistentHashRing(live);
+            boolean claimedAny = false;
+            for (Iterator<String> iterator = remaining.iterator(); iterator.hasNext(); ) {
+                String key = iterator.next();
+                String id = fileId(key);
+                if (done.contains(id) || mine.contains(key)) {
+                    iterator.remove();
+                    continue;
+                }
+                Lease lease = leases.get(id);
+                // A lease of this worker that is not in mine is left over from before a restart
+                if (lease != null && !lease.owner().isEmpty() && !lease.owner().equals(workerId) && live.contains(lease.owner())) {
+                    continue;
+                }
+                if (!workerId.equals(ring.nodeFor(key))) {
+                    continue;
+                }
+                if (link(leasePath(phase, id, lease != null ? lease.generation() + 1 : 0), workerId)) {
+                    mine.add(key);
+                    iterator.remove();
+                    claimedAny = true;
+                    consumer.accept(key);
+                }
+            }
+            if (!claimedAny && !remaining.isEmpty()) {
+                Thread.sleep(pollMillis);
+            }
+        }
+    }
+
+    public void complete(String phase, String key, String payload) throws IOException {
+        writeDone(phase, key, "OK", payload);
+        Set<String> mine = claimed.get(phase);
+        if (mine != null) {
+            mine.remove(key);
+        }
+    }
+
+    // Gives back the claims of the phase that did not complete, so the owner of the key retries it.
+    // A key that failed MAX_ATTEMPTS times on this worker is finished as FAILED instead.
+    public void releaseUnfinished(String phase) throws IOException {
+        Set<String> mine = claimed.get(phase);
+        if (mine == null) {
+            return;
+        }
+        Map<String, Lease> leases = listLeases(phase);
+        for (Iterator<String> iterator = mine.iterator(); iterator.hasNext(); ) {
+            String key = iterator.next();
+            iterator.remove();
+            int attempt = attempts.merge(phase + "\t" + key, 1, Integer::sum);
+            if (attempt >= MAX_ATTEMPTS) {
+                log.error("ShardCoordinator.releaseUnfinished(): Giving up phase={}, key={} after attempts={}", phase, key, attempt);
+                writeDone(phase, key, "FAILED", "");
+                continue;
+            }
+            Lease lease = leases.get(fileId(key));
+            if (lease != null && lease.owner().equals(workerId)) {
+                link(leasePath(phase, fileId(key), lease.generation() + 1), "");
+            }
+        }
+    }
+
+    public boolean isPhaseDone(String phase, Collection<String> keys) throws IOException {
+        Set<String> done = listDone(phase);
+        for (String key : keys) {
+            if (!done.contains(fileId(key))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // key -> payload of every key of the phase that finished OK, on any worker
+    public Map<String, String> getPayloads(String phase) throws IOException {
+        Map<String, String> payloads = new LinkedHashMap<>();
+        Path done = directory.resolve("done").resolve(phase);
+        if (!Files.isDirectory(done)) {
+            return payloads;
+        }
+        try (Stream<Path> files = Files.list(done)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                if (file.getFileName().toString().endsWith(".tmp")) {
+                    continue;
+                }
+                List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+                if (lines.size() >= 2 && lines.get(1).equals("OK")) {
+                    payloads.put(lines.get(0), String.join("\n", lines.subList(2, lines.size())));
+                }
+            }
+        }
+        return payloads;
+    }
+
+    // Leaves the ring right away instead of after the lease timeout
+    @Override
+    public void close() {
+        heartbeats.shutdownNow();
+        try {
+            Files.deleteIfExists(heartbeat);
+        } catch (IOException e) {
+            log.error("ShardCoordinator.close(): Error while removing heartbeat of workerId={}", workerId, e);
+        }
+    }
+
+    private void beat() {
+        try {
+            Files.setLastModifiedTime(heartbeat, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            log.error("ShardCoordinator.beat(): Error while refreshing heartbeat of workerId={}", workerId, e);
+        }
+    }
+
+    private Set<String> listDone(String phase) throws IOException {
+        Set<String> done = new HashSet<>();
+        Path parent = directory.resolve("done").resolve(phase);
+        if (!Files.isDirectory(parent)) {
+            return done;
+        }
+        try (Stream<Path> files = Files.list(parent)) {
+            files.map(file -> file.getFileName().toString()).filter(name -> !name.endsWith(".tmp")).forEach(done::add);
+        }
+        return done;
+    }
+
+    // file id -> lease of the highest generation
+    private Map<String, Lease> listLeases(String phase) throws IOException {
+        Map<String, Lease> leases = new HashMap<>();
+        Path parent = directory.resolve("leases").resolve(phase);
+        if (!Files.isDirectory(parent)) {
+            return leases;
+        }
+        Map<String, Integer> generations = new HashMap<>();
+        try (Stream<Path> files = Files.list(parent)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                String name = file.getFileName().toString();
+                int dot = name.lastIndexOf('.');
+                if (dot < 0 || name.endsWith(".tmp")) {
+                    continue;
+                }
+                try {
+                    generations.merge(name.substring(0, dot), Integer.parseInt(name.substring(dot + 1)), Math::max);
+                } catch (NumberFormatException e) {
+                    // Not a lease
+                }
+            }
+        }
+        for (Map.Entry<String, Integer> entry : generations.entrySet()) {
+            Path lease = leasePath(phase, entry.getKey(), entry.getValue());
+            String owner = leaseOwners.computeIfAbsent(lease, this::readOwner);
+            leases.put(entry.getKey(), new Lease(entry.getValue(), owner));
+        }
+        return leases;
+    }
+
+    private String readOwner(Path lease) {
+        try {
+            return Files.readString(lease, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to read lease " + lease, e);
+        }
+    }
+
+    // Returns false when the lease exists already
+    private boolean link(Path lease, String owner) throws IOException {
+        Files.createDirectories(lease.getParent());
+        Path tmp = lease.resolveSibling(workerId + "-" + UUID.randomUUID() + ".tmp");
+        Files.writeString(tmp, owner, StandardCharsets.UTF_8);
+        try {
+            Files.createLink(lease, tmp);
+            return true;
+        } catch (FileAlreadyExistsException e) {
+            return false;
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private void writeDone(String phase, String key, String status, String payload) throws IOException {
+        Path done = directory.resolve("done").resolve(phase).resolve(fileId(key));
+        Files.createDirectories(done.getParent());
+        Path tmp = done.resolveSibling(workerId + "-" + UUID.randomUUID() + ".tmp");
+        Files.writeString(tmp, key + "\n" + status + "\n" + payload, StandardCharsets.UTF_8);
+        Files.move(tmp, done, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private Path leasePath(String phase, String id, int generation) {
+        return directory.resolve("leases").resolve(phase).resolve(id + "." + generation);
+    }
+
+    // S3 keys contain slashes, files are named after a hash of the key instead
+    private static String fileId(String key) {
+        return UUID.nameUUIDFromBytes(key.getBytes(StandardCharsets.UTF_8)).toString();
+    }
+}
@@ -0,0 +1,60 @@
+package com.apple.snowflakemigration.util;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// Vertex id index of one worker of a sharded run. Ids go to the share of this worker, lookups also
+// search the shares the other workers published, so an edge can reference a vertex loaded anywhere.
+public class ShardedVertexIdIndex implements VertexIdIndex {
+
+    private final MappedVertexIdIndex own;
+    private final List<VertexIdIndex> others = new CopyOnWriteArrayList<>();
+
+    public ShardedVertexIdIndex(MappedVertexIdIndex own) {
+        this.own = own;
+    }
+
+    // Makes the ids put so far visible to workers that open this share
+    public void publish() {
+        own.flush();
+    }
+
+    public void addShare(VertexIdIndex share) {
+        others.add(share);
+    }
+
+    public int getShareCount() {
+        return others.size() + 1;
+    }
+
+    @Override
+    public void put(String vertexId, String label) {
+        own.put(vertexId, label);
+    }
+
+    @Override
+    public String getLabel(String vertexId) {
+        String label = own.getLabel(vertexId);
+        for (int i = 0; label == null && i < others.size(); i++) {
+            label = others.get(i).getLabel(vertexId);
+        }
+        return label;
+    }
+
+    // Ids of files that moved to another worker after a failure can be counted twice
+    @Override
+    public long size() {
+        long size = own.size();
+        for (VertexIdIndex share : others) {
+            size += share.size();
+        }
+        return size;
+    }
+
+    // The shares belong to the other workers, only their mappings are dropped
+    @Override
+    public void close() {
+        own.close();
+        others.clear();
+    }
+}
@@ -0,0 +1,267 @@
+package com.apple.snowflakemigration.util;
+
+import com.apple.snowflakemigration.model.ColumnType;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+// Prepares the INSERT for a table once and sends rows with addBatch/executeBatch. A batch is flushed
+// when it reaches maxRows rows or maxBytes of value data, whichever comes first. Not thread safe,
+// each worker should use its own writer. Pending rows are copied into one flat buffer that lives as
+// long as the writer, so buffering a batch creates no garbage per row. A batch that fails is retried
+// while the error is transient. With a dead-letter file, a batch that keeps failing is split until
+// the rows the table rejects are found, they are set aside with their S3 key and line and the rest
+// of the batch is committed. This relies on a batch being a single INSERT that commits all or nothing,
+// which is why the writer only prepares the plain VALUES form and VARIANT tables load with COPY.
+public class SnowflakeBatchWriter implements RowSink {
+
+    private static Logger log = LoggerFactory.getLogger(SnowflakeBatchWriter.class);
+
+    public interface BatchListener {
+        void onBatch(String tableName, int rows, long bytes, long elapsedNanos);
+    }
+
+    private final String tableName;
+    private final String[] columns;
+    private final int columnCount;
+    private final PreparedStatement statement;
+    private final int maxRows;
+    private final long maxBytes;
+    private final BatchListener listener;
+    private final Timer batchTimer;
+    private final AdaptiveLimiter limiter;
+    private RetryPolicy retryPolicy = RetryPolicy.NONE;
+    private DeadLetterFile deadLetters;
+
+    // Row i of the pending batch is pending[i * columnCount .. (i + 1) * columnCount), it came from
+    // line pendingLines[i] of pendingKeys[i]
+    private final String[] pending;
+    private final String[] pendingKeys;
+    private final long[] pendingLines;
+    private int pendingRows;
+    private long pendingBytes;
+    private String sourceKey;
+    private long sourceLine = -1;
+
+    private long rowsWritten;
+    private long rowsRejected;
+    private long batchCount;
+    private long totalBatchNanos;
+    private long maxBatchNanos;
+
+    public SnowflakeBatchWriter(Connection connection, String tableName, String[] columns, int maxRows, long maxBytes,
+                                BatchListener listener) throws SQLException {
+        this(connection, tableName, columns, null, maxRows, maxBytes, listener);
+    }
+
+    public SnowflakeBatchWriter(Connection connection, String tableName, String[] columns, ColumnType[] types, int maxRows,
+                                long maxBytes, BatchListener listener) throws SQLException {
+        this(connection, tableName, columns, types, maxRows, maxBytes, listener, null);
+    }
+
+    // types may be null when every column is TEXT. With a limiter every batch waits for a slot of the
+    // warehouse, and full batches report their latency to it.
+    public SnowflakeBatchWriter(Connection connection, String tableName, String[] columns, ColumnType[] types, int maxRows,
+                                long maxBytes, BatchListener listener, AdaptiveLimiter limiter) throws SQLException {
+        this.tableName = tableName;
+        this.columns = columns;
+        this.columnCount = columns.length;
+        this.maxRows = Math.max(1, maxRows);
+        this.maxBytes = Math.max(1, maxBytes);
+        this.listener = listener;
+        this.batchTimer = MigrationMetrics.snowflakeBatch(tableName);
+        this.limiter = limiter;
+        this.pending = new String[this.maxRows * columnCount];
+        this.pendingKeys = new String[this.maxRows];
+        this.pendingLines = new long[this.maxRows];
+        this.statement = connection.prepareStatement(SnowflakeUtils.buildInsertSql(tableName, columns, types));
+    }
+
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    // Without a dead-letter file a batch that keeps failing fails the flush, with all of its rows
+    public void setDeadLetters(DeadLetterFile deadLetters) {
+        this.deadLetters = deadLetters;
+    }
+
+    @Override
+    public void source(String key, long line) {
+        sourceKey = key;
+        sourceLine = line;
+    }
+
+    @Override
+    public void write(String[] values) throws SQLException {
+        write(values, 0, values.length);
+    }
+
+    @Override
+    public void write(String[] values, int offset, int length) throws SQLException {
+        int base = pendingRows * columnCount;
+        for (int i = 0; i < columnCount; i++) {
+            // Records with fewer properties than the table are padded, same as insertData
+            String value = i < length ? values[offset + i] : "";
+            pending[base + i] = value;
+            if (value != null) {
+                pendingBytes += value.length();
+            }
+        }
+        pendingKeys[pendingRows] = sourceKey;
+        pendingLines[pendingRows] = sourceLine;
+        sourceKey = null;
+        sourceLine = -1;
+        pendingRows++;
+        if (pendingRows >= maxRows || pendingBytes >= maxBytes) {
+            flush();
+        }
+    }
+
+    @Override
+    public void flush() throws SQLException {
+        if (pendingRows == 0) {
+            return;
+        }
+        int rows = pendingRows;
+        long bytes = pendingBytes;
+        long start = System.nanoTime();
+        int rejected;
+        try {
+            rejected = executeOrIsolate(0, rows);
+        } finally {
+            // Drop the references so flushed values can be collected while the writer stays open
+            Arrays.fill(pending, 0, rows * columnCount, null);
+            Arrays.fill(pendingKeys, 0, rows, null);
+            pendingRows = 0;
+            pendingBytes = 0;
+        }
+        long elapsed = System.nanoTime() - start;
+        rowsWritten += rows - rejected;
+        rowsRejected += rejected;
+        batchCount++;
+        totalBatchNanos += elapsed;
+        maxBatchNanos = Math.max(maxBatchNanos, elapsed);
+        batchTimer.record(elapsed, TimeUnit.NANOSECONDS);
+        log.debug("SnowflakeBatchWriter.flush(): table={}, rows={}, bytes={}, latencyMs={}",
+                tableName, rows, bytes, TimeUnit.NANOSECONDS.toMillis(elapsed));
+        if (listener != null) {
+            listener.onBatch(tableName, rows, bytes, elapsed);
+        }
+    }
+
+    // Returns the number of rows of pending[from, to) that went to the dead-letter file
+    private int executeOrIsolate(int from, int to) throws SQLException {
+        try {
+            retryPolicy.call(tableName, () -> {
+                executeBatch(from, to);
+                return null;
+            });
+            return 0;
+        } catch (SQLException e) {
+            if (deadLetters == null || RetryPolicy.isTransient(e)) {
+                throw e;
+            }
+            if (to - from == 1) {
+                try {
+                    deadLetters.write(tableName, pendingKeys[from], pendingLines[from], columns, pending, from * columnCount, e);
+                } catch (IOException io) {
+                    e.addSuppressed(io);
+                    throw e;
+                }
+                return 1;
+            }
+            log.debug("SnowflakeBatchWriter.executeOrIsolate(): table={}, rows={} failed, splitting the batch", tableName, to - from);
+            int middle = (from + to) >>> 1;
+            return executeOrIsolate(from, middle) + executeOrIsolate(middle, to);
+        }
+    }
+
+    private void executeBatch(int from, int to) throws SQLException {
+        long permit = acquire();
+        boolean executed = false;
+        boolean overloaded = false;
+        try {
+            for (int row = from; row < to; row++) {
+                for (int i = 0; i < columnCount; i++) {
+                    String value = pending[row * columnCount + i];
+                    if (value != null) {
+                        statement.setString(i + 1, value);
+                    } else {
+                        statement.setNull(i + 1, Types.VARCHAR);
+                    }
+                }
+                statement.addBatch();
+            }
+            statement.executeBatch();
+            executed = true;
+        } catch (SQLException e) {
+            // A rejected row says nothing about the load of the warehouse
+            overloaded = RetryPolicy.isTransient(e);
+            throw e;
+        } finally {
+            statement.clearBatch();
+            if (limiter != null) {
+                // Only full batches are comparable, the last batch of a block or a table is smaller
+                if (overloaded) {
+                    limiter.releaseFailed(permit);
+                } else if (executed && to - from == maxRows) {
+                    limiter.release(permit);
+                } else {
+                    limiter.releaseIgnored();
+                }
+            }
+        }
+    }
+
+    private long acquire() throws SQLException {
+        if (limiter == null) {
+            return 0;
+        }
+        try {
+            return limiter.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting to write a batch to table " + tableName, e);
+        }
+    }
+
+    public long getRowsWritten() {
+        return rowsWritten;
+    }
+
+    public long getRowsRejected() {
+        return rowsRejected;
+    }
+
+    public long getBatchCount() {
+        return batchCount;
+    }
+
+    public long getAverageBatchMillis() {
+        return batchCount == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalBatchNanos / batchCount);
+    }
+
+    public long getMaxBatchMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxBatchNanos);
+    }
+
+    @Override
+    public void close() throws SQLException {
+        try {
+            flush();
+        } finally {
+            statement.close();
+            log.info("SnowflakeBatchWriter.close(): table={}, rows={}, rejectedRows={}, batches={}, avgBatchMs={}, maxBatchMs={}",
+                    tableName, rowsWritten, rowsRejected, batchCount, getAverageBatchMillis(), getMaxBatchMillis());
+        }
+    }
+}
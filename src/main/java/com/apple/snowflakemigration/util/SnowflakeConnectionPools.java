@@ -0,0 +1,204 @@
+package com.apple.snowflakemigration.util;
+
+import com.apple.snowflakemigration.model.ConnectionPoolStats;
+import com.apple.snowflakemigration.model.SnowflakeProperties;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// One Hikari pool per Snowflake account/user/database/role/warehouse and schema. Pools live for the
+// lifetime of the application so repeated exports reuse warm connections, idle connections above
+// snowflake.pool.min-idle are evicted after snowflake.pool.idle-timeout-ms. A request with a rotated
+// password replaces the pool, the old one hands out no more connections and is closed once the
+// connections still borrowed from it are back.
+@Component
+public class SnowflakeConnectionPools {
+
+    private static Logger log = LoggerFactory.getLogger(SnowflakeConnectionPools.class);
+
+    @Value("${snowflake.pool.min-idle:2}")
+    private int minIdle;
+
+    @Value("${snowflake.pool.max-size:40}")
+    private int maxSize;
+
+    @Value("${snowflake.pool.idle-timeout-ms:300000}")
+    private long idleTimeoutMillis;
+
+    @Value("${snowflake.pool.connection-timeout-ms:120000}")
+    private long connectionTimeoutMillis;
+
+    @Value("${snowflake.pool.validation-timeout-ms:5000}")
+    private long validationTimeoutMillis;
+
+    private final Map<String, Pool> pools = new ConcurrentHashMap<>();
+    private final Queue<Pool> retiredPools = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger poolCount = new AtomicInteger();
+    private final Map<String, WaitTimeTracker> waitTimeTrackers = new ConcurrentHashMap<>();
+
+    // credentials is a hash of the password, so the password is not kept around
+    private record Pool(HikariDataSource dataSource, int credentials, List<Gauge> gauges) {
+    }
+
+    public Connection getConnection(SnowflakeProperties snowflakeProps, String schema) throws SQLException {
+        closeRetiredPools();
+        int credentials = Objects.hashCode(snowflakeProps.getPassword());
+        Pool pool = pools.compute(poolKey(snowflakeProps, schema), (key, current) -> {
+            if (current != null && current.credentials() == credentials) {
+                return current;
+            }
+            if (current != null) {
+                retire(current);
+            }
+            return createPool(snowflakeProps, schema, credentials);
+        });
+        return pool.dataSource().getConnection();
+    }
+
+    public List<ConnectionPoolStats> getStats() {
+        List<ConnectionPoolStats> stats = new ArrayList<>();
+        for (Pool entry : pools.values()) {
+            HikariDataSource dataSource = entry.dataSource();
+            HikariPoolMXBean pool = dataSource.getHikariPoolMXBean();
+            ConnectionPoolStats poolStats = new ConnectionPoolStats();
+            poolStats.setPoolName(dataSource.getPoolName());
+            if (pool != null) {
+                poolStats.setActive(pool.getActiveConnections());
+                poolStats.setIdle(pool.getIdleConnections());
+                poolStats.setTotal(pool.getTotalConnections());
+                poolStats.setThreadsAwaiting(pool.getThreadsAwaitingConnection());
+            }
+            WaitTimeTracker tracker = waitTimeTrackers.get(dataSource.getPoolName());
+            if (tracker != null) {
+                long acquired = tracker.acquired.sum();
+                poolStats.setAcquiredCount(acquired);
+                poolStats.setAverageWaitMillis(acquired == 0 ? 0 : tracker.waitNanos.sum() / 1_000_000.0 / acquired);
+                poolStats.setMaxWaitMillis(tracker.maxWaitNanos.get() / 1_000_000.0);
+                poolStats.setTimeouts(tracker.timeouts.sum());
+            }
+            stats.add(poolStats);
+        }
+        return stats;
+    }
+
+    @PreDestroy
+    public void close() {
+        pools.values().forEach(this::closePool);
+        pools.clear();
+        Pool pool;
+        while ((pool = retiredPools.poll()) != null) {
+            closePool(pool);
+        }
+    }
+
+    // Connections borrowed from the pool stay usable, every connection is closed instead of pooled once
+    // it is back and no new ones are opened
+    private void retire(Pool pool) {
+        log.info("SnowflakeConnectionPools.retire(): Credentials changed, retiring pool={}", pool.dataSource().getPoolName());
+        pool.dataSource().getHikariConfigMXBean().setMinimumIdle(0);
+        HikariPoolMXBean poolBean = pool.dataSource().getHikariPoolMXBean();
+        if (poolBean != null) {
+            poolBean.softEvictConnections();
+        }
+        retiredPools.add(pool);
+    }
+
+    private void closeRetiredPools() {
+        for (Pool pool : retiredPools) {
+            HikariPoolMXBean poolBean = pool.dataSource().getHikariPoolMXBean();
+            if ((poolBean == null || poolBean.getActiveConnections() == 0) && retiredPools.remove(pool)) {
+                closePool(pool);
+            }
+        }
+    }
+
+    private void closePool(Pool pool) {
+        log.info("SnowflakeConnectionPools.closePool(): Closing pool={}", pool.dataSource().getPoolName());
+        pool.dataSource().close();
+        pool.gauges().forEach(MigrationMetrics::remove);
+        waitTimeTrackers.remove(pool.dataSource().getPoolName());
+    }
+
+    private Pool createPool(SnowflakeProperties snowflakeProps, String schema, int credentials) {
+        String poolName = "snowflake-" + snowflakeProps.getDb() + "-" + schema + "-" + poolCount.getAndIncrement();
+        HikariConfig config = new HikariConfig();
+        config.setPoolName(poolName);
+        config.setJdbcUrl(snowflakeProps.getConnectionUrl());
+        config.setDataSourceProperties(SnowflakeUtils.connectionProperties(snowflakeProps, schema));
+        config.setMinimumIdle(Math.min(minIdle, maxSize));
+        config.setMaximumPoolSize(maxSize);
+        config.setIdleTimeout(idleTimeoutMillis);
+        config.setConnectionTimeout(connectionTimeoutMillis);
+        config.setValidationTimeout(validationTimeoutMillis);
+        config.setMetricsTrackerFactory((name, poolStats) -> waitTimeTrackers.computeIfAbsent(name, WaitTimeTracker::new));
+        log.info("SnowflakeConnectionPools.createPool(): Creating pool={}, minIdle={}, maxSize={}", poolName, minIdle, maxSize);
+        HikariDataSource dataSource = new HikariDataSource(config);
+        return new Pool(dataSource, credentials, registerGauges(poolName, dataSource));
+    }
+
+    private static List<Gauge> registerGauges(String poolName, HikariDataSource dataSource) {
+        return List.of(MigrationMetrics.gauge("migration.snowflake.pool.active", "Connections in use", dataSource,
+                ds -> ds.getHikariPoolMXBean() != null ? ds.getHikariPoolMXBean().getActiveConnections() : 0, "pool", poolName),
+                MigrationMetrics.gauge("migration.snowflake.pool.idle", "Idle connections", dataSource,
+                ds -> ds.getHikariPoolMXBean() != null ? ds.getHikariPoolMXBean().getIdleConnections() : 0, "pool", poolName),
+                MigrationMetrics.gauge("migration.snowflake.pool.pending", "Threads waiting for a connection", dataSource,
+                ds -> ds.getHikariPoolMXBean() != null ? ds.getHikariPoolMXBean().getThreadsAwaitingConnection() : 0, "pool", poolName));
+    }
+
+    private static String poolKey(SnowflakeProperties snowflakeProps, String schema) {
+        return String.join("|", snowflakeProps.getConnectionUrl(), snowflakeProps.getAccount(), snowflakeProps.getUsername(),
+                snowflakeProps.getDb(), snowflakeProps.getRole(), snowflakeProps.getWarehouse(), schema);
+    }
+
+    private static class WaitTimeTracker implements IMetricsTracker {
+
+        private final LongAdder acquired = new LongAdder();
+        private final LongAdder waitNanos = new LongAdder();
+        private final AtomicLong maxWaitNanos = new AtomicLong();
+        private final LongAdder timeouts = new LongAdder();
+        private final Timer waitTimer;
+        private final Counter timeoutCounter;
+
+        private WaitTimeTracker(String poolName) {
+            waitTimer = MigrationMetrics.connectionWait(poolName);
+            timeoutCounter = MigrationMetrics.connectionTimeouts(poolName);
+        }
+
+        @Override
+        public void recordConnectionAcquiredNanos(long elapsedAcquiredNanos) {
+            waitTimer.record(elapsedAcquiredNanos, TimeUnit.NANOSECONDS);
+            acquired.increment();
+            waitNanos.add(elapsedAcquiredNanos);
+            maxWaitNanos.accumulateAndGet(elapsedAcquiredNanos, Math::max);
+        }
+
+        @Override
+        public void recordConnectionTimeout() {
+            timeouts.increment();
+            timeoutCounter.increment();
+        }
+    }
+}
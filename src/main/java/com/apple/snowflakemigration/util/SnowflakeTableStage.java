@@ -0,0 +1,118 @@
+package com.apple.snowflakemigration.util;
+
+import com.apple.snowflakemigration.model.ColumnType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.UUID;
+
+// Uses the table stage (@%table) of each table: chunks are PUT as they are rolled and a single
+// COPY INTO loads all of them, which lets the warehouse ingest the files in parallel. Several sinks,
+// also of other workers, load the same table at once, so every instance keeps its chunks under its
+// own path of the stage and its COPY only loads and purges that path.
+public class SnowflakeTableStage implements TableStage {
+
+    private static Logger log = LoggerFactory.getLogger(SnowflakeTableStage.class);
+
+    private final Connection connection;
+    private final int putParallelism;
+    private final AdaptiveLimiter limiter;
+    private final RetryPolicy retryPolicy;
+    private final String path = UUID.randomUUID().toString();
+
+    public SnowflakeTableStage(Connection connection, int putParallelism) {
+        this(connection, putParallelism, null, RetryPolicy.NONE);
+    }
+
+    // PUT and COPY wait for a slot of the limiter, their latency grows with the data and is not reported.
+    // Both are run again after a transient error: PUT overwrites the file and COPY skips the files it loaded.
+    public SnowflakeTableStage(Connection connection, int putParallelism, AdaptiveLimiter limiter, RetryPolicy retryPolicy) {
+        this.connection = connection;
+        this.putParallelism = putParallelism;
+        this.limiter = limiter;
+        this.retryPolicy = retryPolicy;
+    }
+
+    @Override
+    public void upload(String tableName, Path chunkFile) throws Exception {
+        String sql = "PUT 'file://" + chunkFile.toAbsolutePath().toString().replace("\\", "/") + "' " + location(tableName)
+                + " SOURCE_COMPRESSION=GZIP AUTO_COMPRESS=FALSE OVERWRITE=TRUE PARALLEL=" + putParallelism;
+        long start = System.nanoTime();
+        execute(tableName, sql, stmt -> null);
+        MigrationMetrics.record(MigrationMetrics.snowflakeStage("put"), start);
+        log.info("SnowflakeTableStage.upload(): Uploaded chunk={} to stage of table={}, path={}", chunkFile.getFileName(), tableName, path);
+    }
+
+    public String location(String tableName) {
+        return "@%" + tableName + "/" + path + "/";
+    }
+
+    @Override
+    public void load(String tableName, String[] columns, ColumnType[] types) throws Exception {
+        String sql = "COPY INTO " + tableName + " (" + String.join(", ", columns) + ") FROM " + copySource(tableName, types)
+                + " FILE_FORMAT = (TYPE = CSV COMPRESSION = GZIP FIELD_OPTIONALLY_ENCLOSED_BY = '\"' EMPTY_FIELD_AS_NULL = TRUE)"
+                + " ON_ERROR = ABORT_STATEMENT PURGE = TRUE";
+        log.debug("SnowflakeTableStage.load(): {}", sql);
+        long start = System.nanoTime();
+        long loadedRows = execute(tableName, sql, stmt -> {
+            long rows = 0;
+            try (ResultSet resultSet = stmt.getResultSet()) {
+                while (resultSet.next()) {
+                    rows += resultSet.getLong("rows_loaded");
+                }
+            }
+            return rows;
+        });
+        MigrationMetrics.record(MigrationMetrics.snowflakeStage("copy"), start);
+        log.info("SnowflakeTableStage.load(): COPY INTO table={} loaded rows={}", tableName, loadedRows);
+    }
+
+    private interface ResultReader {
+        Long read(Statement stmt) throws Exception;
+    }
+
+    private long execute(String tableName, String sql, ResultReader reader) throws Exception {
+        return retryPolicy.call(tableName, () -> executeOnce(sql, reader));
+    }
+
+    // Runs the statement in a slot of the limiter, the reader is called when it returned a result set
+    private long executeOnce(String sql, ResultReader reader) throws Exception {
+        long permit = limiter != null ? limiter.acquire() : 0;
+        boolean overloaded = false;
+        try (Statement stmt = connection.createStatement()) {
+            Long result = stmt.execute(sql) ? reader.read(stmt) : null;
+            return result != null ? result : 0;
+        } catch (Exception e) {
+            overloaded = RetryPolicy.isTransient(e);
+            throw e;
+        } finally {
+            if (limiter != null) {
+                if (overloaded) {
+                    limiter.releaseFailed(permit);
+                } else {
+                    limiter.releaseIgnored();
+                }
+            }
+        }
+    }
+
+    // CSV fields are plain strings, VARIANT columns need a transform that parses their JSON text
+    private String copySource(String tableName, ColumnType[] types) {
+        if (types == null || Arrays.stream(types).noneMatch(type -> type == ColumnType.VARIANT)) {
+            return location(tableName);
+        }
+        StringBuilder select = new StringBuilder("(SELECT ");
+        for (int i = 0; i < types.length; i++) {
+            if (i > 0) {
+                select.append(", ");
+            }
+            select.append(types[i] == ColumnType.VARIANT ? "PARSE_JSON($" + (i + 1) + ")" : "$" + (i + 1));
+        }
+        return select.append(" FROM ").append(location(tableName)).append(')').toString();
+    }
+}
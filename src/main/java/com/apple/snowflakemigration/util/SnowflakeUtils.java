@@ -1,46 +1,124 @@
 package com.apple.snowflakemigration.util;
 
+import com.apple.snowflakemigration.model.ColumnType;
+import com.apple.snowflakemigration.model.LoadMode;
 import com.apple.snowflakemigration.model.SnowflakeProperties;
+import net.snowflake.client.jdbc.SnowflakeStatement;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import org.springframework.util.StringUtils;
 
+import java.nio.file.Path;
 import java.sql.*;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Component
-public class SnowflakeUtils {
+public class SnowflakeUtils implements RowSinkProvider {
 
 
         private static Logger log = LoggerFactory.getLogger(SnowflakeUtils.class);
 
-        private static final int batchSize = 100;
+        @Autowired
+        private SnowflakeConnectionPools connectionPools;
+
+        @Value("${snowflake.batch.rows:1000}")
+        private int batchRows;
+
+        @Value("${snowflake.batch.bytes:8388608}")
+        private long batchBytes;
+
+        @Value("${snowflake.copy.chunk-bytes:134217728}")
+        private long copyChunkBytes;
+
+        @Value("${snowflake.copy.put-parallelism:4}")
+        private int copyPutParallelism;
+
+        @Value("${snowflake.copy.work-dir:${java.io.tmpdir}/snowflake-migration}")
+        private String copyWorkDir;
+
+        @Value("${snowflake.ddl.batch-statements:100}")
+        private int ddlBatchStatements;
+
+        @Value("${snowflake.catalog.ttl-ms:300000}")
+        private long catalogTtlMillis;
+
+        // Catalogs per account, database and schema, shared by runs and refreshed once older than the ttl
+        private final Map<String, SchemaCatalog> catalogs = new ConcurrentHashMap<>();
+
+        private final AtomicLong stagingTables = new AtomicLong();
+
+        @Value("${snowflake.limiter.enabled:true}")
+        private boolean limiterEnabled = true;
+
+        @Value("${snowflake.limiter.initial-limit:8}")
+        private int limiterInitialLimit = 8;
+
+        @Value("${snowflake.limiter.min-limit:1}")
+        private int limiterMinLimit = 1;
+
+        @Value("${snowflake.limiter.max-limit:64}")
+        private int limiterMaxLimit = 64;
+
+        @Value("${snowflake.limiter.latency-tolerance:2.0}")
+        private double limiterLatencyTolerance = 2.0;
+
+        @Value("${snowflake.limiter.backoff-ratio:0.75}")
+        private double limiterBackoffRatio = 0.75;
+
+        // One limiter per account and warehouse, shared by every run that writes through the warehouse
+        private final Map<String, AdaptiveLimiter> writeLimiters = new ConcurrentHashMap<>();
+
+        @Value("${snowflake.retry.max-attempts:5}")
+        private int retryMaxAttempts = 5;
+
+        @Value("${snowflake.retry.base-delay-ms:200}")
+        private long retryBaseDelayMillis = 200;
+
+        @Value("${snowflake.retry.max-delay-ms:10000}")
+        private long retryMaxDelayMillis = 10000;
 
 
         public Connection getConnection(SnowflakeProperties snowflakeProps, String schema){
             Connection conn = null;
-            Properties properties = new Properties();
-            properties.put("user", snowflakeProps.getUsername());
-            properties.put("password", snowflakeProps.getPassword());
-            properties.put("account", snowflakeProps.getAccount());
-            properties.put("db", snowflakeProps.getDb());
-            properties.put("schema", schema);
-            properties.put("role", snowflakeProps.getRole());
             try {
-                 conn = DriverManager.getConnection(snowflakeProps.getConnectionUrl(), properties);
+                 conn = connectionPools.getConnection(snowflakeProps, schema);
             } catch (SQLException e) {
                log.error("SnowflakeUtils.getConnection(), Error while getting connection",e);
             }
             return conn;
         }
 
+        public static Properties connectionProperties(SnowflakeProperties snowflakeProps, String schema) {
+            Properties properties = new Properties();
+            putIfPresent(properties, "user", snowflakeProps.getUsername());
+            putIfPresent(properties, "password", snowflakeProps.getPassword());
+            putIfPresent(properties, "account", snowflakeProps.getAccount());
+            putIfPresent(properties, "db", snowflakeProps.getDb());
+            putIfPresent(properties, "schema", schema);
+            putIfPresent(properties, "role", snowflakeProps.getRole());
+            putIfPresent(properties, "warehouse", snowflakeProps.getWarehouse());
+            return properties;
+        }
+
+        private static void putIfPresent(Properties properties, String key, String value) {
+            if (value != null) {
+                properties.put(key, value);
+            }
+        }
+
 
         public boolean isTableExists(Connection connection, String tableName, String schema) {
-        try {
-            DatabaseMetaData dbm = connection.getMetaData();
-            ResultSet tables = dbm.getTables(null, schema, tableName, null);
+        try (ResultSet tables = connection.getMetaData().getTables(null, schema, tableName, null)) {
             return tables.next();
         } catch (Exception e) {
             log.error("SnowflakeUtils.tableExists(): Error while checking whether table exists or not",tableName,e);
@@ -49,45 +127,84 @@ public class SnowflakeUtils {
     }
 
         public void createTable(Connection connection,String tableName, String[] columns) {
+            createTable(connection, tableName, columns, null);
+        }
+
+        public void createTable(Connection connection,String tableName, String[] columns, ColumnType[] types) {
         try (Statement stmt = connection.createStatement()) {
-            StringBuilder sql = new StringBuilder("CREATE TABLE " + tableName + "(");
-            for (String column : columns) {
-                if(column.equalsIgnoreCase("id")){
-                    sql.append(column).append(" VARCHAR(255) PRIMARY KEY, ");
-                }else{
-                    sql.append(column).append(" TEXT, ");
-                }
-            }
-            sql.delete(sql.length() - 2, sql.length()).append(")");
-            stmt.executeUpdate(sql.toString());
+            getRetryPolicy().call(tableName, () -> stmt.executeUpdate(buildCreateTableSql(tableName, columns, types)));
             log.info("SnowflakeUtils.createTable(): Created table={}",tableName);
         } catch (Exception e) {
             log.error("SnowflakeUtils.createTable(): Error while creating table={}",tableName,e);
         }
     }
 
+        public static String buildCreateTableSql(String tableName, String[] columns) {
+            return buildCreateTableSql(tableName, columns, null);
+        }
 
-       public void createEdgeTable(Connection connection,String tableName,String[] columns, String fromVertexRefTable, String toVertexRefTable) {
-        try (Statement stmt = connection.createStatement()) {
-            StringBuilder sql = new StringBuilder("CREATE TABLE " + tableName + "(");
-            for (String column : columns) {
-                if(column.equalsIgnoreCase("id")){
-                    sql.append(column).append(" VARCHAR(255) PRIMARY KEY, ");
-                }
-                else{
-                    sql.append(column).append(" TEXT, ");
-                }
-            }
+        // types may be null for an all TEXT table, the id column is always the primary key
+        public static String buildCreateTableSql(String tableName, String[] columns, ColumnType[] types) {
+            return buildCreateTableSql(tableName, columns, types, false);
+        }
+
+        public static String buildCreateTableSql(String tableName, String[] columns, ColumnType[] types, boolean ifNotExists) {
+            StringBuilder sql = new StringBuilder(createTableClause(ifNotExists) + tableName + "(");
+            appendColumnDefinitions(sql, columns, types);
+            return sql.delete(sql.length() - 2, sql.length()).append(")").toString();
+        }
+
+        public static String buildCreateEdgeTableSql(String tableName, String[] columns, ColumnType[] types,
+                                                     String fromVertexRefTable, String toVertexRefTable) {
+            return buildCreateEdgeTableSql(tableName, columns, types, fromVertexRefTable, toVertexRefTable, false);
+        }
+
+        public static String buildCreateEdgeTableSql(String tableName, String[] columns, ColumnType[] types,
+                                                     String fromVertexRefTable, String toVertexRefTable, boolean ifNotExists) {
+            StringBuilder sql = new StringBuilder(createTableClause(ifNotExists) + tableName + "(");
+            appendColumnDefinitions(sql, columns, types);
             if(StringUtils.hasLength(fromVertexRefTable)){
-                sql.append("FOREIGN KEY (fromVertex) REFERENCES "+fromVertexRefTable+"(id),");
+                sql.append("FOREIGN KEY (fromVertex) REFERENCES ").append(fromVertexRefTable).append("(id), ");
             }
             if(StringUtils.hasLength(toVertexRefTable)){
-                sql.append("FOREIGN KEY (toVertex) REFERENCES "+toVertexRefTable+"(id),");
+                sql.append("FOREIGN KEY (toVertex) REFERENCES ").append(toVertexRefTable).append("(id), ");
             }
+            return sql.delete(sql.length() - 2, sql.length()).append(")").toString();
+        }
 
-            // sql.append("FOREIGN KEY (to) REFERENCES vertex(id),");
-            sql.delete(sql.length() - 2, sql.length()).append(")");
-            stmt.executeUpdate(sql.toString());
+        // Columns added later cannot become the primary key, so an added id column is a plain VARCHAR
+        public static String buildAddColumnsSql(String tableName, String[] columns, ColumnType[] types) {
+            StringBuilder sql = new StringBuilder("ALTER TABLE " + tableName + " ADD COLUMN IF NOT EXISTS ");
+            for (int i = 0; i < columns.length; i++) {
+                String type = columns[i].equalsIgnoreCase("id") ? "VARCHAR(255)" : types != null ? types[i].getSqlType() : "TEXT";
+                sql.append(columns[i]).append(' ').append(type).append(", ");
+            }
+            return sql.delete(sql.length() - 2, sql.length()).toString();
+        }
+
+        private static String createTableClause(boolean ifNotExists) {
+            return ifNotExists ? "CREATE TABLE IF NOT EXISTS " : "CREATE TABLE ";
+        }
+
+        private static void appendColumnDefinitions(StringBuilder sql, String[] columns, ColumnType[] types) {
+            for (int i = 0; i < columns.length; i++) {
+                if(columns[i].equalsIgnoreCase("id")){
+                    sql.append(columns[i]).append(" VARCHAR(255) PRIMARY KEY, ");
+                }else{
+                    sql.append(columns[i]).append(' ').append(types != null ? types[i].getSqlType() : "TEXT").append(", ");
+                }
+            }
+        }
+
+
+       public void createEdgeTable(Connection connection,String tableName,String[] columns, String fromVertexRefTable, String toVertexRefTable) {
+            createEdgeTable(connection, tableName, columns, null, fromVertexRefTable, toVertexRefTable);
+        }
+
+       public void createEdgeTable(Connection connection,String tableName,String[] columns, ColumnType[] types,
+                                   String fromVertexRefTable, String toVertexRefTable) {
+        try (Statement stmt = connection.createStatement()) {
+            getRetryPolicy().call(tableName, () -> stmt.executeUpdate(buildCreateEdgeTableSql(tableName, columns, types, fromVertexRefTable, toVertexRefTable)));
             log.info("SnowflakeUtils.createEdgeTable(): Created table={}",tableName);
         } catch (Exception e) {
             log.error("SnowflakeUtils.createEdgeTable(): Error while creating table={}",tableName,e);
@@ -96,36 +213,273 @@ public class SnowflakeUtils {
 
 
 
-        public void insertData(Connection connection,String tableName, String[] columns, String[] values) {
-            // Ensure values array length matches columns array length by adding nulls if necessary
-            PreparedStatement pstmt = null;
-            if (columns.length > values.length) {
-                values = Arrays.copyOf(values, columns.length); // Expand values array
-                for (int i = values.length - columns.length; i < values.length; i++) {
-                    if (values[i] == null) {
-                        values[i] = ""; // Replace nulls with empty strings
+        @Override
+        public SchemaCatalog getCatalog(SnowflakeProperties snowflakeProps, String schema) {
+            try (Connection connection = getConnection(snowflakeProps, schema)) {
+                if (connection == null) {
+                    return new SchemaCatalog(schema);
+                }
+                return getCatalog(connection, snowflakeProps, schema);
+            } catch (SQLException e) {
+                log.error("SnowflakeUtils.getCatalog(): Error while closing connection of schema={}", schema, e);
+                return new SchemaCatalog(schema);
+            }
+        }
+
+        public SchemaCatalog getCatalog(Connection connection, SnowflakeProperties snowflakeProps, String schema) {
+            String key = snowflakeProps.getAccount() + "/" + snowflakeProps.getDb() + "/" + schema.toUpperCase(Locale.ROOT);
+            SchemaCatalog catalog = catalogs.get(key);
+            if (catalog != null && System.currentTimeMillis() - catalog.getLoadedAtMillis() < catalogTtlMillis) {
+                return catalog;
+            }
+            try {
+                catalog = SchemaCatalog.load(connection, schema);
+                catalogs.put(key, catalog);
+                return catalog;
+            } catch (SQLException e) {
+                // Every statement of a SchemaChanges is idempotent, an empty catalog only costs the work of finding out again
+                log.error("SnowflakeUtils.getCatalog(): Error while loading catalog of schema={}", schema, e);
+                return new SchemaCatalog(schema);
+            }
+        }
+
+        // Sends the changes as multi-statement requests of up to ddlBatchStatements statements, a few round trips
+        // for hundreds of labels. When a request fails its statements are run again one by one, so the error is
+        // logged for the table it belongs to and the other tables are still created.
+        public void applySchemaChanges(Connection connection, SchemaChanges changes) {
+            long start = System.nanoTime();
+            int batchSize = Math.max(1, ddlBatchStatements);
+            for (int from = 0; from < changes.size(); from += batchSize) {
+                int to = Math.min(changes.size(), from + batchSize);
+                try (Statement stmt = connection.createStatement()) {
+                    List<String> statements = new ArrayList<>(to - from);
+                    for (int i = from; i < to; i++) {
+                        statements.add(changes.getSql(i));
+                    }
+                    stmt.unwrap(SnowflakeStatement.class).setParameter("MULTI_STATEMENT_COUNT", statements.size());
+                    stmt.execute(String.join(";\n", statements));
+                    while (stmt.getMoreResults() || stmt.getUpdateCount() != -1) {
+                        // Drain the result of every statement
                     }
+                    for (int i = from; i < to; i++) {
+                        changes.applied(i);
+                    }
+                } catch (Exception e) {
+                    log.warn("SnowflakeUtils.applySchemaChanges(): Multi-statement DDL failed, running statements={} one by one", to - from, e);
+                    for (int i = from; i < to; i++) {
+                        applySchemaChange(connection, changes, i);
+                    }
+                }
+            }
+            log.info("SnowflakeUtils.applySchemaChanges(): schema={}, statements={}, elapsedMs={}",
+                    changes.getCatalog().getSchema(), changes.size(), (System.nanoTime() - start) / 1_000_000);
+        }
+
+        @Override
+        public void applySchemaChanges(SnowflakeProperties snowflakeProps, String schema, SchemaChanges changes) {
+            if (changes.isEmpty()) {
+                return;
+            }
+            try (Connection connection = getConnection(snowflakeProps, schema)) {
+                if (connection == null) {
+                    log.error("SnowflakeUtils.applySchemaChanges(): No connection available for schema={}, statements={} not run", schema, changes.size());
+                    return;
+                }
+                applySchemaChanges(connection, changes);
+            } catch (SQLException e) {
+                log.error("SnowflakeUtils.applySchemaChanges(): Error while closing connection of schema={}", schema, e);
+            }
+        }
+
+        private void applySchemaChange(Connection connection, SchemaChanges changes, int index) {
+            try (Statement stmt = connection.createStatement()) {
+                getRetryPolicy().call(changes.getTable(index), () -> stmt.executeUpdate(changes.getSql(index)));
+                changes.applied(index);
+            } catch (Exception e) {
+                log.error("SnowflakeUtils.applySchemaChange(): Error while changing table={}", changes.getTable(index), e);
+            }
+        }
+
+        // null when the limiter is disabled. Runs without a warehouse share the limiter of the default warehouse of the user.
+        public AdaptiveLimiter getWriteLimiter(SnowflakeProperties snowflakeProps) {
+            if (!limiterEnabled) {
+                return null;
+            }
+            String warehouse = StringUtils.hasText(snowflakeProps.getWarehouse()) ? snowflakeProps.getWarehouse().toUpperCase(Locale.ROOT) : "default";
+            return writeLimiters.computeIfAbsent(snowflakeProps.getAccount() + "/" + warehouse, key -> {
+                AdaptiveLimiter limiter = new AdaptiveLimiter(key, limiterInitialLimit, limiterMinLimit, limiterMaxLimit,
+                        limiterLatencyTolerance, limiterBackoffRatio);
+                MigrationMetrics.gauge("migration.snowflake.concurrency.limit", "Statements the adaptive limiter lets run against a warehouse",
+                        limiter, AdaptiveLimiter::getLimit, "warehouse", key);
+                MigrationMetrics.gauge("migration.snowflake.concurrency.inflight", "Statements running against a warehouse",
+                        limiter, AdaptiveLimiter::getInFlight, "warehouse", key);
+                return limiter;
+            });
+        }
+
+        // Transient errors of every Snowflake statement the migration sends are retried with this policy
+        public RetryPolicy getRetryPolicy() {
+            return new RetryPolicy(retryMaxAttempts, retryBaseDelayMillis, retryMaxDelayMillis);
+        }
+
+        public SnowflakeBatchWriter newBatchWriter(Connection connection, String tableName, String[] columns) throws SQLException {
+            return newBatchWriter(connection, tableName, columns, null, null, null);
+        }
+
+        public SnowflakeBatchWriter newBatchWriter(Connection connection, String tableName, String[] columns, ColumnType[] types) throws SQLException {
+            return newBatchWriter(connection, tableName, columns, types, null, null);
+        }
+
+        // Rows the table rejects go to deadLetters, a batch with a rejected row fails the writer when it is null
+        public SnowflakeBatchWriter newBatchWriter(Connection connection, String tableName, String[] columns, ColumnType[] types,
+                                                   AdaptiveLimiter limiter, DeadLetterFile deadLetters) throws SQLException {
+            SnowflakeBatchWriter writer = new SnowflakeBatchWriter(connection, tableName, columns, types, batchRows, batchBytes, null, limiter);
+            writer.setRetryPolicy(getRetryPolicy());
+            writer.setDeadLetters(deadLetters);
+            return writer;
+        }
+
+        public SnowflakeBatchWriter newBatchWriter(Connection connection, String tableName, String[] columns, ColumnType[] types,
+                                                   SnowflakeBatchWriter.BatchListener listener) throws SQLException {
+            SnowflakeBatchWriter writer = new SnowflakeBatchWriter(connection, tableName, columns, types, batchRows, batchBytes, listener);
+            writer.setRetryPolicy(getRetryPolicy());
+            return writer;
+        }
+
+        public GzipCsvChunkWriter newStagedCopyWriter(Connection connection, String tableName, String[] columns) {
+            return newStagedCopyWriter(connection, tableName, columns, null);
+        }
+
+        public GzipCsvChunkWriter newStagedCopyWriter(Connection connection, String tableName, String[] columns, ColumnType[] types) {
+            return newStagedCopyWriter(connection, tableName, columns, types, null);
+        }
+
+        public GzipCsvChunkWriter newStagedCopyWriter(Connection connection, String tableName, String[] columns, ColumnType[] types,
+                                                      AdaptiveLimiter limiter) {
+            return newStagedCopyWriter(new SnowflakeTableStage(connection, copyPutParallelism, limiter, getRetryPolicy()), tableName, columns, types);
+        }
+
+        public GzipCsvChunkWriter newStagedCopyWriter(TableStage stage, String tableName, String[] columns, ColumnType[] types) {
+            return new GzipCsvChunkWriter(stage, tableName, columns, types, Path.of(copyWorkDir), copyChunkBytes);
+        }
+
+        // The staging table copies the definition of the target table and only lives in the session of the connection
+        public MergingSink newMergingSink(Connection connection, String tableName, String[] columns, ColumnType[] types,
+                                          String[] keyColumns, LoadMode loadMode, AdaptiveLimiter limiter,
+                                          DeadLetterFile deadLetters) throws SQLException {
+            String stagingTable = tableName + "_DELTA_" + stagingTables.incrementAndGet();
+            try (Statement stmt = connection.createStatement()) {
+                stmt.execute("CREATE OR REPLACE TEMPORARY TABLE " + stagingTable + " LIKE " + tableName);
+                stmt.execute("ALTER TABLE " + stagingTable + " ADD COLUMN " + MergingSink.SOURCE_KEY_COLUMN + " "
+                        + ColumnType.TEXT.getSqlType() + ", " + MergingSink.SOURCE_LINE_COLUMN + " " + ColumnType.NUMBER.getSqlType());
+            }
+            String[] stagingColumns = MergingSink.stagingColumns(columns);
+            ColumnType[] stagingTypes = MergingSink.stagingTypes(types);
+            RowSink staged = isStagedLoad(loadMode, types)
+                    ? newStagedCopyWriter(connection, stagingTable, stagingColumns, stagingTypes, limiter)
+                    : newBatchWriter(connection, stagingTable, stagingColumns, stagingTypes, limiter, deadLetters);
+            MergingSink sink = new MergingSink(connection, tableName, stagingTable, columns, keyColumns, staged, limiter);
+            sink.setRetryPolicy(getRetryPolicy());
+            return sink;
+        }
+
+        // Every sink gets its own pooled connection, so sink workers do not serialize on one session. The
+        // statements of every sink writing through the warehouse share its adaptive limit.
+        @Override
+        public RowSink openRowSink(SnowflakeProperties snowflakeProps, String schema, String tableName, String[] columns,
+                                   ColumnType[] types, String[] mergeKeys, DeadLetterFile deadLetters) throws SQLException {
+            Connection connection = getConnection(snowflakeProps, schema);
+            if (connection == null) {
+                throw new SQLException("No connection available for schema " + schema);
+            }
+            try {
+                AdaptiveLimiter limiter = getWriteLimiter(snowflakeProps);
+                RowSink sink;
+                if (mergeKeys != null) {
+                    sink = newMergingSink(connection, tableName, columns, types, mergeKeys, snowflakeProps.getLoadMode(), limiter, deadLetters);
+                } else if (isStagedLoad(snowflakeProps.getLoadMode(), types)) {
+                    sink = newStagedCopyWriter(connection, tableName, columns, types, limiter);
+                } else {
+                    sink = newBatchWriter(connection, tableName, columns, types, limiter, deadLetters);
                 }
+                return new ConnectionReleasingSink(sink, connection);
+            } catch (SQLException e) {
+                connection.close();
+                throw e;
+            }
+        }
+
+        // Rows of the staging table replace the rows of the target table with the same key columns. A key that
+        // occurs more than once in the staging table is merged once, MERGE rejects ambiguous source rows, and
+        // the row merged is the last occurrence by the source key and line the staged rows carry.
+        public static String buildMergeSql(String tableName, String stagingTable, String[] columns, String[] keyColumns) {
+            StringBuilder sql = new StringBuilder("MERGE INTO ").append(tableName).append(" t USING (SELECT ")
+                    .append(String.join(", ", columns)).append(" FROM ").append(stagingTable)
+                    .append(" QUALIFY ROW_NUMBER() OVER (PARTITION BY ").append(String.join(", ", keyColumns))
+                    .append(" ORDER BY ").append(MergingSink.SOURCE_KEY_COLUMN).append(" DESC NULLS LAST, ")
+                    .append(MergingSink.SOURCE_LINE_COLUMN).append(" DESC NULLS LAST) = 1) s ON ");
+            for (int i = 0; i < keyColumns.length; i++) {
+                sql.append(i > 0 ? " AND " : "").append("t.").append(keyColumns[i]).append(" = s.").append(keyColumns[i]);
+            }
+            StringBuilder updates = new StringBuilder();
+            for (String column : columns) {
+                if (Arrays.stream(keyColumns).noneMatch(column::equalsIgnoreCase)) {
+                    updates.append(updates.length() > 0 ? ", " : "").append("t.").append(column).append(" = s.").append(column);
+                }
+            }
+            if (updates.length() > 0) {
+                sql.append(" WHEN MATCHED THEN UPDATE SET ").append(updates);
+            }
+            sql.append(" WHEN NOT MATCHED THEN INSERT (").append(String.join(", ", columns)).append(") VALUES (");
+            for (int i = 0; i < columns.length; i++) {
+                sql.append(i > 0 ? ", " : "").append("s.").append(columns[i]);
+            }
+            return sql.append(")").toString();
+        }
+
+        public static String buildInsertSql(String tableName, String[] columns) {
+            return buildInsertSql(tableName, columns, null);
+        }
+
+        // Batches are bound into a plain INSERT ... VALUES, the only form the driver sends as one array bound
+        // statement that commits all or nothing. VARIANT values would need PARSE_JSON, which only the SELECT
+        // form allows, so tables with VARIANT columns load through the staged COPY instead.
+        public static String buildInsertSql(String tableName, String[] columns, ColumnType[] types) {
+            if (hasVariant(types)) {
+                throw new IllegalArgumentException("Table " + tableName + " has VARIANT columns, load it with COPY");
             }
             StringBuilder placeholders = new StringBuilder();
-            for (int i = 0; i < values.length; i++) {
-                placeholders.append("?, ");
+            for (int i = 0; i < columns.length; i++) {
+                placeholders.append(i > 0 ? ", ?" : "?");
             }
-            placeholders.delete(placeholders.length() - 2, placeholders.length());
+            return "INSERT INTO " + tableName + " (" + String.join(", ", columns) + ") VALUES (" + placeholders + ")";
+        }
 
-            String sql = "INSERT INTO " + tableName + " (" + String.join(", ", columns) + ") VALUES (" + placeholders.toString() + ")";
+        // True when the rows of the table go through a stage and COPY, which parses VARIANT values in the COPY itself
+        public static boolean isStagedLoad(LoadMode loadMode, ColumnType[] types) {
+            return loadMode == LoadMode.COPY || hasVariant(types);
+        }
+
+        private static boolean hasVariant(ColumnType[] types) {
+            return types != null && Arrays.asList(types).contains(ColumnType.VARIANT);
+        }
+
+        public void insertData(Connection connection,String tableName, String[] columns, String[] values) {
+            // Ensure values array length matches columns array length by adding empty strings if necessary
+            if (columns.length > values.length) {
+                int valuesLength = values.length;
+                values = Arrays.copyOf(values, columns.length); // Expand values array
+                Arrays.fill(values, valuesLength, values.length, "");
+            }
 
-            try  {
-                pstmt = connection.prepareStatement(sql);
-                for (int i = 0; i < values.length; i++) {
+            try (PreparedStatement pstmt = connection.prepareStatement(buildInsertSql(tableName, columns))) {
+                for (int i = 0; i < columns.length; i++) {
                     pstmt.setString(i + 1, values[i]);
                 }
-                pstmt.executeUpdate();
-                // pstmt.addBatch(); // Add the insert statement to the batch
+                getRetryPolicy().call(tableName, pstmt::executeUpdate);
             } catch (Exception e) {
                 log.error("SnowflakeUtils.insertData(): Error while inserting data into table={}", tableName, e);
             }
-            //return pstmt;
         }
 
 
@@ -0,0 +1,143 @@
+package com.apple.snowflakemigration.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Version of every S3 object an incremental run has loaded, kept across runs so the next run only
+// loads the objects that are new or changed since. Every line is one tab separated entry:
+//   <key> <etag> <lastModifiedMillis>
+// Entries are appended as files finish and the file is rewritten with one line per key on close.
+// Text after the last newline is a torn entry from a crash and is ignored.
+public class SyncState implements AutoCloseable {
+
+    private static Logger log = LoggerFactory.getLogger(SyncState.class);
+
+    private record Version(String etag, long lastModifiedMillis) {
+    }
+
+    private final Path file;
+    private FileChannel channel;
+    private final Map<String, Version> synced = new ConcurrentHashMap<>();
+    // Version of each key in the listing of this run, recorded once the file is loaded
+    private final Map<String, Version> listed = new ConcurrentHashMap<>();
+
+    private SyncState(Path file) {
+        this.file = file;
+    }
+
+    public static SyncState open(Path file) throws IOException {
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        SyncState state = new SyncState(file);
+        state.read(file);
+        // Compacting on open also drops a torn last entry before anything is appended after it
+        state.rewrite();
+        state.channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        log.info("SyncState.open(): file={}, syncedFiles={}", file, state.synced.size());
+        return state;
+    }
+
+    // Adds the entries of another state file, for example the state a worker of a sharded run kept
+    public void readShare(Path share) throws IOException {
+        if (Files.exists(share)) {
+            read(share);
+        }
+    }
+
+    // True when the object is not in the state or its version differs. The listed version is what
+    // markSynced records. Objects without an ETag are compared by their last modified time.
+    public boolean isChanged(S3Object object) {
+        Version version = new Version(object.eTag(), object.lastModified() != null ? object.lastModified().toEpochMilli() : 0);
+        listed.put(object.key(), version);
+        Version current = synced.get(object.key());
+        if (current == null) {
+            return true;
+        }
+        if (version.etag() != null && current.etag() != null) {
+            return !Objects.equals(version.etag(), current.etag());
+        }
+        return version.lastModifiedMillis() > current.lastModifiedMillis();
+    }
+
+    public void markSynced(String key) throws IOException {
+        Version version = listed.get(key);
+        if (version == null) {
+            return;
+        }
+        append(key + "\t" + version.etag() + "\t" + version.lastModifiedMillis() + "\n");
+        synced.put(key, version);
+    }
+
+    public int getSyncedCount() {
+        return synced.size();
+    }
+
+    @Override
+    public void close() {
+        try {
+            channel.close();
+            rewrite();
+        } catch (IOException e) {
+            log.error("SyncState.close(): Error while compacting file={}", file, e);
+        }
+    }
+
+    private synchronized void append(String entry) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(entry.getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        channel.force(false);
+    }
+
+    private void read(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        String text = Files.readString(path, StandardCharsets.UTF_8);
+        int end = text.lastIndexOf('\n');
+        if (end < text.length() - 1) {
+            log.warn("SyncState.read(): Dropping torn last entry of file={}", path);
+        }
+        for (String line : text.substring(0, end + 1).split("\n")) {
+            String[] fields = line.split("\t", -1);
+            if (fields.length != 3) {
+                continue;
+            }
+            try {
+                Version version = new Version(fields[1].equals("null") ? null : fields[1], Long.parseLong(fields[2]));
+                // A key synced by several workers keeps its newest version
+                synced.merge(fields[0], version, (a, b) -> b.lastModifiedMillis() >= a.lastModifiedMillis() ? b : a);
+            } catch (NumberFormatException e) {
+                log.warn("SyncState.read(): Skipping malformed entry in file={}", path);
+            }
+        }
+    }
+
+    // Writes one line per key to a temporary file and moves it over the state file
+    private void rewrite() throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, Version> entry : new TreeMap<>(synced).entrySet()) {
+                writer.write(entry.getKey() + "\t" + entry.getValue().etag() + "\t" + entry.getValue().lastModifiedMillis() + "\n");
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,14 @@
+package com.apple.snowflakemigration.util;
+
+import com.apple.snowflakemigration.model.ColumnType;
+
+import java.nio.file.Path;
+
+// Where finished chunk files go before they are loaded into a table.
+public interface TableStage {
+
+    void upload(String tableName, Path chunkFile) throws Exception;
+
+    // types may be null when every column is TEXT
+    void load(String tableName, String[] columns, ColumnType[] types) throws Exception;
+}
@@ -0,0 +1,16 @@
+package com.apple.snowflakemigration.util;
+
+// Maps a vertex id to the label (vertex table) it was loaded into, used to resolve the tables edge
+// from/to columns reference. Implementations are safe to use from many loader threads.
+public interface VertexIdIndex extends AutoCloseable {
+
+    void put(String vertexId, String label);
+
+    // Returns the label of the vertex or null when the id is unknown
+    String getLabel(String vertexId);
+
+    long size();
+
+    @Override
+    void close();
+}
@@ -0,0 +1,337 @@
+package com.apple.snowflakemigration.service;
+
+import com.apple.snowflakemigration.model.ExecutionMode;
+import com.apple.snowflakemigration.model.SnowflakeProperties;
+import com.apple.snowflakemigration.util.DeadLetterFile;
+import com.apple.snowflakemigration.util.RowSink;
+import com.apple.snowflakemigration.util.S3Utils;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MigrationPipelineTests {
+
+    private static final int LABELS = 6;
+    private static final int LINES = 300;
+
+    @Test
+    void idleSinksGiveTheirConnectionsBackWhenThePoolIsSmallerThanTheSinkLimit() throws Exception {
+        Map<String, byte[]> objects = new HashMap<>();
+        List<S3Object> files = new ArrayList<>();
+        for (int label = 0; label < LABELS; label++) {
+            StringBuilder lines = new StringBuilder();
+            for (int line = 0; line < LINES; line++) {
+                lines.append("{\"~id\":\"v").append(label).append('-').append(line).append("\"}\n");
+            }
+            String key = "nodes/label" + label + "-0.json";
+            objects.put(key, lines.toString().getBytes(StandardCharsets.UTF_8));
+            files.add(S3Object.builder().key(key).size((long) objects.get(key).length).eTag("e").build());
+        }
+        S3Utils s3Utils = new S3Utils() {
+            @Override
+            public InputStream openObject(S3Object object) {
+                return new ByteArrayInputStream(objects.get(object.key()));
+            }
+        };
+
+        PipelineSettings settings = new PipelineSettings();
+        settings.setExecutionMode(ExecutionMode.PLATFORM);
+        settings.setFetchConcurrency(2);
+        settings.setParseConcurrency(2);
+        settings.setProjectConcurrency(2);
+        settings.setSinkConcurrency(4);
+        settings.setQueueCapacity(4);
+        settings.setBlockBytes(1024);
+        settings.setMaxOpenSinks(8);
+
+        // A pool of 2 connections that gives up quickly, like Hikari after its connection timeout
+        Semaphore pool = new Semaphore(2);
+        AtomicInteger exhausted = new AtomicInteger();
+        Map<String, LongAdder> rows = new ConcurrentHashMap<>();
+        MigrationPipeline.SinkFactory sinkFactory = label -> {
+            if (!pool.tryAcquire(20, TimeUnit.MILLISECONDS)) {
+                exhausted.incrementAndGet();
+                throw new SQLTransientConnectionException("Connection is not available, request timed out");
+            }
+            return new RowSink() {
+                @Override
+                public void write(String[] values) {
+                    rows.computeIfAbsent(label, k -> new LongAdder()).increment();
+                }
+
+                @Override
+                public void flush() {
+                }
+
+                @Override
+                public void close() {
+                    pool.release();
+                }
+            };
+        };
+        MigrationPipeline.RowProjector projector = new MigrationPipeline.RowProjector() {
+            @Override
+            public int width(String label) {
+                return 1;
+            }
+
+            @Override
+            public boolean project(String label, JsonNode record, String[] row, int offset) {
+                row[offset] = record.path("~id").asText();
+                return true;
+            }
+        };
+
+        try (MigrationRun run = new MigrationRun("pipeline-test", new SnowflakeProperties(),
+                new MigrationExecutors("pipeline-test", ExecutionMode.PLATFORM, 4, 8, settings.getMaxOpenSinks()))) {
+            MigrationPipeline pipeline = new MigrationPipeline("vertex", settings, run, s3Utils,
+                    key -> key.split("nodes/")[1].split("-")[0], projector, sinkFactory);
+            pipeline.run(files);
+
+            // Sinks of two labels take the whole pool, every later label had to make room first
+            assertTrue(exhausted.get() > 0);
+            assertEquals(0, run.getProgress().snapshot().getErrorCount());
+            assertEquals(LABELS, rows.size());
+            for (LongAdder count : rows.values()) {
+                assertEquals(LINES, count.sum());
+            }
+            assertEquals(2, pool.availablePermits());
+            assertEquals(settings.getMaxOpenSinks(), run.getExecutors().getSinkPermits().availablePermits());
+        }
+    }
+
+    @Test
+    void recordsThatFailToParseOrProjectGoToTheDeadLettersAndTheFileCompletes() throws Exception {
+        StringBuilder lines = new StringBuilder();
+        // Lines are numbered from 0, like the checkpoint manifest numbers them
+        for (int line = 0; line < LINES; line++) {
+            if (line == 7) {
+                lines.append("{\"~id\": \"broken\n");
+            } else {
+                lines.append("{\"~id\":\"v").append(line).append("\"}\n");
+            }
+        }
+        byte[] data = lines.toString().getBytes(StandardCharsets.UTF_8);
+        S3Object file = S3Object.builder().key("nodes/person-0.json").size((long) data.length).eTag("e").build();
+        S3Utils s3Utils = new S3Utils() {
+            @Override
+            public InputStream openObject(S3Object object) {
+                return new ByteArrayInputStream(data);
+            }
+        };
+
+        PipelineSettings settings = new PipelineSettings();
+        settings.setExecutionMode(ExecutionMode.PLATFORM);
+        settings.setQueueCapacity(4);
+        settings.setBlockBytes(1024);
+
+        LongAdder rows = new LongAdder();
+        MigrationPipeline.SinkFactory sinkFactory = label -> new RowSink() {
+            @Override
+            public void write(String[] values) {
+                rows.increment();
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        MigrationPipeline.RowProjector projector = new MigrationPipeline.RowProjector() {
+            @Override
+            public int width(String label) {
+                return 1;
+            }
+
+            @Override
+            public boolean project(String label, JsonNode record, String[] row, int offset) {
+                if (record.path("~id").asText().equals("v42")) {
+                    throw new IllegalArgumentException("Cannot project v42");
+                }
+                row[offset] = record.path("~id").asText();
+                return true;
+            }
+        };
+
+        Path deadLetterPath = Files.createTempFile("pipeline-dead-letters", ".json");
+        Files.delete(deadLetterPath);
+        List<String> completed = new ArrayList<>();
+        try (MigrationRun run = new MigrationRun("pipeline-test", new SnowflakeProperties(),
+                new MigrationExecutors("pipeline-test", ExecutionMode.PLATFORM, 4, 8, settings.getMaxOpenSinks()))) {
+            run.setDeadLetters(new DeadLetterFile(deadLetterPath));
+            MigrationPipeline pipeline = new MigrationPipeline("vertex", settings, run, s3Utils,
+                    key -> key.split("nodes/")[1].split("-")[0], projector, sinkFactory);
+            pipeline.setFileListener(completed::add);
+            pipeline.run(List.of(file));
+
+            assertEquals(LINES - 2, rows.sum());
+            assertEquals(List.of("nodes/person-0.json"), completed);
+            assertEquals(0, run.getProgress().snapshot().getErrorCount());
+        }
+
+        List<String> deadLetters = Files.readAllLines(deadLetterPath);
+        Files.delete(deadLetterPath);
+        assertEquals(2, deadLetters.size());
+        JsonNode malformed = new ObjectMapper().readTree(deadLetters.stream().filter(l -> l.contains("broken")).findFirst().orElseThrow());
+        assertEquals("nodes/person-0.json", malformed.path("key").asText());
+        assertEquals(7, malformed.path("line").asLong());
+        JsonNode rejected = new ObjectMapper().readTree(deadLetters.stream().filter(l -> l.contains("v42")).findFirst().orElseThrow());
+        assertEquals(42, rejected.path("line").asLong());
+        assertEquals("Cannot project v42", rejected.path("error").asText());
+    }
+
+    @Test
+    void labelsWithAFailedBlockAreNotReportedLoaded() throws Exception {
+        Map<String, byte[]> objects = new HashMap<>();
+        List<S3Object> files = new ArrayList<>();
+        for (String label : List.of("person", "city")) {
+            String key = "nodes/" + label + "-0.json";
+            objects.put(key, ("{\"~id\":\"" + label + "\"}\n").getBytes(StandardCharsets.UTF_8));
+            files.add(S3Object.builder().key(key).size((long) objects.get(key).length).eTag("e").build());
+        }
+        S3Utils s3Utils = new S3Utils() {
+            @Override
+            public InputStream openObject(S3Object object) {
+                return new ByteArrayInputStream(objects.get(object.key()));
+            }
+        };
+        PipelineSettings settings = new PipelineSettings();
+        settings.setExecutionMode(ExecutionMode.PLATFORM);
+
+        MigrationPipeline.SinkFactory sinkFactory = label -> new RowSink() {
+            @Override
+            public void write(String[] values) throws SQLException {
+                if (label.equals("city")) {
+                    throw new SQLException("Table CITY does not exist");
+                }
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        MigrationPipeline.RowProjector projector = new MigrationPipeline.RowProjector() {
+            @Override
+            public int width(String label) {
+                return 1;
+            }
+
+            @Override
+            public boolean project(String label, JsonNode record, String[] row, int offset) {
+                row[offset] = record.path("~id").asText();
+                return true;
+            }
+        };
+
+        List<String> loaded = Collections.synchronizedList(new ArrayList<>());
+        try (MigrationRun run = new MigrationRun("pipeline-test", new SnowflakeProperties(),
+                new MigrationExecutors("pipeline-test", ExecutionMode.PLATFORM, 4, 8, settings.getMaxOpenSinks()))) {
+            MigrationPipeline pipeline = new MigrationPipeline("vertex", settings, run, s3Utils,
+                    key -> key.split("nodes/")[1].split("-")[0], projector, sinkFactory);
+            pipeline.setLabelListener(loaded::add);
+            pipeline.run(files);
+
+            assertTrue(pipeline.isFailed());
+            assertEquals(List.of("person"), loaded);
+        }
+    }
+
+    @Test
+    void labelsTheSourceCompletedAreReportedLoadedBeforeTheSourceEnds() throws Exception {
+        Map<String, byte[]> objects = new HashMap<>();
+        List<S3Object> files = new ArrayList<>();
+        for (String label : List.of("person", "city")) {
+            String key = "nodes/" + label + "-0.json";
+            objects.put(key, ("{\"~id\":\"" + label + "\"}\n").getBytes(StandardCharsets.UTF_8));
+            files.add(S3Object.builder().key(key).size((long) objects.get(key).length).eTag("e").build());
+        }
+        S3Utils s3Utils = new S3Utils() {
+            @Override
+            public InputStream openObject(S3Object object) {
+                return new ByteArrayInputStream(objects.get(object.key()));
+            }
+        };
+        PipelineSettings settings = new PipelineSettings();
+        settings.setExecutionMode(ExecutionMode.PLATFORM);
+
+        MigrationPipeline.SinkFactory sinkFactory = label -> new RowSink() {
+            @Override
+            public void write(String[] values) {
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        MigrationPipeline.RowProjector projector = new MigrationPipeline.RowProjector() {
+            @Override
+            public int width(String label) {
+                return 1;
+            }
+
+            @Override
+            public boolean project(String label, JsonNode record, String[] row, int offset) {
+                row[offset] = record.path("~id").asText();
+                return true;
+            }
+        };
+
+        List<String> loaded = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch personLoaded = new CountDownLatch(1);
+        AtomicBoolean reportedBeforeCity = new AtomicBoolean();
+        try (MigrationRun run = new MigrationRun("pipeline-test", new SnowflakeProperties(),
+                new MigrationExecutors("pipeline-test", ExecutionMode.PLATFORM, 4, 8, settings.getMaxOpenSinks()))) {
+            MigrationPipeline pipeline = new MigrationPipeline("vertex", settings, run, s3Utils,
+                    key -> key.split("nodes/")[1].split("-")[0], projector, sinkFactory);
+            pipeline.setLabelListener(label -> {
+                loaded.add(label);
+                personLoaded.countDown();
+            });
+            pipeline.run(consumer -> {
+                consumer.accept(files.get(0));
+                pipeline.labelComplete("person");
+                // The source goes on with the next label only once the first one is committed
+                reportedBeforeCity.set(personLoaded.await(10, TimeUnit.SECONDS));
+                consumer.accept(files.get(1));
+            });
+
+            assertTrue(reportedBeforeCity.get());
+            assertEquals(List.of("person", "city"), loaded);
+        }
+    }
+}
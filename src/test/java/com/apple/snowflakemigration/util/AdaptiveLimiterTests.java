@@ -0,0 +1,68 @@
+package com.apple.snowflakemigration.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AdaptiveLimiterTests {
+
+    @Test
+    void growsWhileLatencyHoldsAndBacksOffOncePerRound() throws Exception {
+        AdaptiveLimiter limiter = new AdaptiveLimiter("test", 4, 1, 8, 2.0, 0.5);
+
+        // Fast statements that use the whole limit grow it by about one per round
+        for (int round = 0; round < 20; round++) {
+            long[] permits = new long[limiter.getLimit()];
+            for (int i = 0; i < permits.length; i++) {
+                permits[i] = limiter.acquire();
+            }
+            for (long permit : permits) {
+                limiter.release(permit, 10_000_000);
+            }
+        }
+        assertEquals(8, limiter.getLimit());
+
+        // Failures of statements that all started before the first decrease count once
+        long[] permits = new long[8];
+        for (int i = 0; i < permits.length; i++) {
+            permits[i] = limiter.acquire();
+        }
+        for (long permit : permits) {
+            limiter.releaseFailed(permit);
+        }
+        assertEquals(4, limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+
+        // A statement that failed after the decrease backs off again, so does one that queued
+        limiter.releaseFailed(limiter.acquire());
+        assertEquals(2, limiter.getLimit());
+        limiter.release(limiter.acquire(), 30_000_000);
+        assertEquals(1, limiter.getLimit());
+    }
+
+    @Test
+    void blocksAtTheLimit() throws Exception {
+        AdaptiveLimiter limiter = new AdaptiveLimiter("test", 1, 1, 1, 2.0, 0.5);
+        long permit = limiter.acquire();
+        CountDownLatch acquired = new CountDownLatch(1);
+        Thread waiter = new Thread(() -> {
+            try {
+                limiter.acquire();
+                acquired.countDown();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        waiter.start();
+        assertFalse(acquired.await(200, TimeUnit.MILLISECONDS));
+        limiter.release(permit);
+        assertTrue(acquired.await(5, TimeUnit.SECONDS));
+        assertEquals(1, limiter.getInFlight());
+    }
+
+}
@@ -0,0 +1,51 @@
+package com.apple.snowflakemigration.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CheckpointManifestTests {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void resumesCommittedRangesAndIgnoresChangedObjects() throws Exception {
+        Path file = tempDir.resolve("run/checkpoint.log");
+        try (CheckpointManifest manifest = CheckpointManifest.open(file)) {
+            manifest.recordCommitted("nodes/person-0.json", "e1", "person", 0, 99);
+            manifest.recordCommitted("nodes/person-0.json", "e1", "person", 200, 299);
+            manifest.recordCommitted("nodes/person-0.json", "e1", "person", 100, 199);
+            manifest.recordCommitted("nodes/software-0.json", "e1", "software", 0, 9);
+            manifest.recordComplete("nodes/software-0.json", "e1");
+        }
+        // A crash in the middle of an append
+        Files.writeString(file, "C\tnodes/person-0.json\te1\tperson\t300\t3", StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+
+        try (CheckpointManifest manifest = CheckpointManifest.open(file)) {
+            assertTrue(manifest.isCommitted("nodes/person-0.json", "e1", 0));
+            assertTrue(manifest.isCommitted("nodes/person-0.json", "e1", 299));
+            assertFalse(manifest.isCommitted("nodes/person-0.json", "e1", 300));
+            assertFalse(manifest.isCommitted("nodes/person-0.json", "e2", 0));
+            assertFalse(manifest.isComplete("nodes/person-0.json", "e1"));
+            assertTrue(manifest.isComplete("nodes/software-0.json", "e1"));
+            assertTrue(manifest.isCommitted("nodes/software-0.json", "e1", 5000));
+
+            manifest.recordCommitted("nodes/person-0.json", "e1", "person", 300, 399);
+        }
+
+        try (CheckpointManifest manifest = CheckpointManifest.open(file)) {
+            assertTrue(manifest.isCommitted("nodes/person-0.json", "e1", 350));
+            assertEquals(1, manifest.getCompleteCount());
+        }
+    }
+
+}
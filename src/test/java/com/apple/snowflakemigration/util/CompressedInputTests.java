@@ -0,0 +1,66 @@
+package com.apple.snowflakemigration.util;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class CompressedInputTests {
+
+    private static final String RECORDS = "{\"~id\":\"v1\"}\n{\"~id\":\"v2\"}\n";
+
+    @Test
+    void detectsCodecFromExtensionOrMagicBytes() throws Exception {
+        byte[] gzip = gzip(RECORDS);
+        byte[] bzip2 = bzip2(RECORDS);
+
+        assertEquals(RECORDS, read("nodes/person-1.json.gz", gzip));
+        assertEquals(RECORDS, read("nodes/person-1.json.bz2", bzip2));
+        // No telling extension, the magic bytes decide
+        assertEquals(RECORDS, read("nodes/person-1", gzip));
+        assertEquals(RECORDS, read("nodes/person-1", bzip2));
+        assertEquals(RECORDS, read("nodes/person-1", RECORDS.getBytes(StandardCharsets.UTF_8)));
+        assertEquals(RECORDS, read("nodes/person-1.json", RECORDS.getBytes(StandardCharsets.UTF_8)));
+
+        // Concatenated gzip members, as written by parallel compressors
+        byte[] twoMembers = new byte[gzip.length * 2];
+        System.arraycopy(gzip, 0, twoMembers, 0, gzip.length);
+        System.arraycopy(gzip, 0, twoMembers, gzip.length, gzip.length);
+        assertEquals(RECORDS + RECORDS, read("nodes/person-1.json.gz", twoMembers));
+
+        assertEquals(CompressedInput.Codec.ZSTD, CompressedInput.fromExtension("edges/knows-1.json.zst"));
+        assertEquals(CompressedInput.Codec.ZSTD, CompressedInput.fromMagic(new BufferedInputStream(
+                new ByteArrayInputStream(new byte[]{0x28, (byte) 0xb5, 0x2f, (byte) 0xfd, 0}))));
+    }
+
+    private static String read(String key, byte[] data) throws Exception {
+        try (InputStream in = CompressedInput.decompress(key, new ByteArrayInputStream(data))) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static byte[] gzip(String text) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OutputStream out = new GZIPOutputStream(bytes)) {
+            out.write(text.getBytes(StandardCharsets.UTF_8));
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] bzip2(String text) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OutputStream out = new BZip2CompressorOutputStream(bytes)) {
+            out.write(text.getBytes(StandardCharsets.UTF_8));
+        }
+        return bytes.toByteArray();
+    }
+
+}
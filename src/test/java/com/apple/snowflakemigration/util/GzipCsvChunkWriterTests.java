@@ -0,0 +1,49 @@
+package com.apple.snowflakemigration.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GzipCsvChunkWriterTests {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void rollsChunksAndStagesThemBeforeLoad() throws Exception {
+        LocalDirectoryStage stage = new LocalDirectoryStage(tempDir.resolve("stage"));
+        String[] columns = {"id", "label", "name"};
+        try (GzipCsvChunkWriter writer = new GzipCsvChunkWriter(stage, "person", columns, tempDir.resolve("work"), 1)) {
+            writer.write(new String[]{"v1", "person", "say \"hi\""});
+            writer.write(new String[]{"v2", "person"});
+        }
+
+        List<Path> chunks = stage.getLoadedFiles("person");
+        assertEquals(2, chunks.size());
+        List<String> lines = new ArrayList<>();
+        for (Path chunk : chunks) {
+            assertTrue(Files.exists(chunk));
+            lines.addAll(readGzipLines(chunk));
+        }
+        assertEquals(List.of("\"v1\",\"person\",\"say \"\"hi\"\"\"", "\"v2\",\"person\",\"\""), lines);
+    }
+
+    private List<String> readGzipLines(Path file) throws Exception {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(Files.newInputStream(file)), StandardCharsets.UTF_8))) {
+            return reader.lines().toList();
+        }
+    }
+
+}
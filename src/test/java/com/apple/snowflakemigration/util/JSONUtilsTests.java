@@ -0,0 +1,34 @@
+package com.apple.snowflakemigration.util;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingIterator;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class JSONUtilsTests {
+
+    @Test
+    void readRecordsStreamsNewlineDelimitedJson() throws Exception {
+        String content = "{\"~id\":\"v1\",\"~label\":\"person\",\"name\":\"a\"}\n"
+                + "\n"
+                + "{\"~id\":\"v2\",\"~label\":\"person\",\"name\":[\"b\",\"c\"]}\n";
+        List<JsonNode> records = new ArrayList<>();
+        try (MappingIterator<JsonNode> iterator = JSONUtils.readRecords(
+                new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)))) {
+            while (iterator.hasNextValue()) {
+                records.add(iterator.nextValue());
+            }
+        }
+
+        assertEquals(2, records.size());
+        assertEquals("v1", records.get(0).get("~id").asText());
+        assertEquals(2, records.get(1).get("name").size());
+    }
+
+}
@@ -0,0 +1,106 @@
+package com.apple.snowflakemigration.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LabelDependenciesTests {
+
+    @Test
+    void handsOutEdgeLabelsOnceTheirVertexLabelsAreLoaded() throws Exception {
+        LabelDependencies dependencies = new LabelDependencies(Set.of("person", "city", "company"));
+        dependencies.addReference("knows", "person");
+        dependencies.addReference("livesIn", "person");
+        dependencies.addReference("livesIn", "city");
+        // Ids that resolve to no vertex table, or to a label this run does not load, wait for nothing
+        dependencies.addReference("rated", null);
+        dependencies.addReference("rated", "movie");
+
+        assertEquals(Set.of("person", "city"), dependencies.getReferences("livesIn"));
+        assertTrue(dependencies.isReady("rated"));
+        assertFalse(dependencies.isReady("knows"));
+
+        Map<String, List<String>> files = new LinkedHashMap<>();
+        files.put("livesIn", List.of("livesIn-1", "livesIn-2"));
+        files.put("knows", List.of("knows-1"));
+        files.put("rated", List.of("rated-1"));
+        List<String> handedOut = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch first = new CountDownLatch(1);
+        Thread consumer = new Thread(() -> {
+            try {
+                dependencies.forEachReady(files, file -> {
+                    handedOut.add(file);
+                    first.countDown();
+                }, () -> false);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        consumer.start();
+
+        assertTrue(first.await(5, TimeUnit.SECONDS));
+        dependencies.loaded("person");
+        awaitSize(handedOut, 2);
+        dependencies.loaded("city");
+        consumer.join(5000);
+
+        assertFalse(consumer.isAlive());
+        assertEquals(List.of("rated-1", "knows-1", "livesIn-1", "livesIn-2"), handedOut);
+    }
+
+    @Test
+    void releasesEverythingWhenTheVertexLoadEndsOrStopsOnCancel() throws Exception {
+        LabelDependencies dependencies = new LabelDependencies(Set.of("person"));
+        dependencies.addReference("knows", "person");
+        AtomicBoolean cancelled = new AtomicBoolean(true);
+        List<String> handedOut = new ArrayList<>();
+
+        dependencies.forEachReady(Map.of("knows", List.of("knows-1")), handedOut::add, cancelled::get);
+        assertTrue(handedOut.isEmpty());
+
+        // Once every vertex label loaded nothing is held back
+        dependencies.allLoaded();
+        cancelled.set(false);
+        dependencies.forEachReady(Map.of("knows", List.of("knows-1")), handedOut::add, cancelled::get);
+        assertEquals(List.of("knows-1"), handedOut);
+    }
+
+    @Test
+    void holdsBackEdgeLabelsOfVertexLabelsThatFailedToLoad() throws Exception {
+        LabelDependencies dependencies = new LabelDependencies(Set.of("person", "city"));
+        dependencies.addReference("knows", "person");
+        dependencies.addReference("livesIn", "person");
+        dependencies.addReference("livesIn", "city");
+        dependencies.loaded("person");
+        dependencies.loadFailed();
+
+        Map<String, List<String>> files = new LinkedHashMap<>();
+        files.put("livesIn", List.of("livesIn-1"));
+        files.put("knows", List.of("knows-1"));
+        List<String> handedOut = new ArrayList<>();
+        Set<String> heldBack = dependencies.forEachReady(files, handedOut::add, () -> false);
+
+        assertEquals(List.of("knows-1"), handedOut);
+        assertEquals(Set.of("livesIn"), heldBack);
+    }
+
+    private static void awaitSize(List<String> items, int size) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (items.size() < size && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(size, items.size());
+    }
+}
@@ -0,0 +1,43 @@
+package com.apple.snowflakemigration.util;
+
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class LoadPlanTests {
+
+    private static final Function<String, String> LABEL = key -> key.split("nodes/")[1].split("-")[0];
+
+    @Test
+    void ordersFilesLargestFirstAndSizesLabels() {
+        List<S3Object> files = List.of(
+                file("nodes/city-0.json", 10L),
+                file("nodes/person-0.json", 500L),
+                file("nodes/person-1.json", 300L),
+                file("nodes/company-0.json", null),
+                file("nodes/city-1.json", 300L));
+
+        List<S3Object> ordered = LoadPlan.largestFirst(files);
+        // Equal sizes keep their listing order, a missing size counts as empty
+        assertEquals(List.of("nodes/person-0.json", "nodes/person-1.json", "nodes/city-1.json", "nodes/city-0.json",
+                "nodes/company-0.json"), ordered.stream().map(S3Object::key).toList());
+
+        Map<String, Long> bytes = LoadPlan.bytesByLabel(files, LABEL);
+        assertEquals(List.of("person", "city", "company"), List.copyOf(bytes.keySet()));
+        assertEquals(Long.valueOf(800), bytes.get("person"));
+        assertEquals(Long.valueOf(0), bytes.get("company"));
+
+        Map<String, List<S3Object>> byLabel = LoadPlan.groupByLabel(ordered, LABEL);
+        assertEquals(List.of("person", "city", "company"), List.copyOf(byLabel.keySet()));
+        assertEquals(List.of("nodes/city-1.json", "nodes/city-0.json"), byLabel.get("city").stream().map(S3Object::key).toList());
+    }
+
+    private static S3Object file(String key, Long size) {
+        return S3Object.builder().key(key).size(size).build();
+    }
+}
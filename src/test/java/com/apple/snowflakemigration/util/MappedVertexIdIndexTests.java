@@ -0,0 +1,65 @@
+package com.apple.snowflakemigration.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class MappedVertexIdIndexTests {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void growsShardsAndReopensWithSameEntries() throws Exception {
+        try (MappedVertexIdIndex index = MappedVertexIdIndex.open(tempDir, 4)) {
+            for (int i = 0; i < 10_000; i++) {
+                index.put("v" + i, i % 2 == 0 ? "person" : "software");
+            }
+            index.put("v0", "person");
+            assertEquals(10_000, index.size());
+        }
+
+        try (MappedVertexIdIndex reopened = MappedVertexIdIndex.open(tempDir)) {
+            assertEquals(10_000, reopened.size());
+            assertEquals("person", reopened.getLabel("v0"));
+            assertEquals("software", reopened.getLabel("v9999"));
+            assertNull(reopened.getLabel("missing"));
+        }
+    }
+
+    @Test
+    void readOnlyShareNeverWritesTheDirectory() throws Exception {
+        Path owner = tempDir.resolve("owner");
+        try (MappedVertexIdIndex index = MappedVertexIdIndex.open(owner, 4)) {
+            index.put("v1", "person");
+        }
+        long labelsModified = Files.getLastModifiedTime(owner.resolve("labels.txt")).toMillis();
+        try (Stream<Path> files = Files.list(owner)) {
+            assertEquals(1 + 64, files.count());
+        }
+        Files.delete(owner.resolve("shard-00.idx"));
+
+        try (MappedVertexIdIndex share = MappedVertexIdIndex.openReadOnly(owner)) {
+            assertEquals("person", share.getLabel("v1"));
+            assertNull(share.getLabel("missing"));
+            assertThrows(UnsupportedOperationException.class, () -> share.put("v2", "person"));
+        }
+        assertFalse(Files.exists(owner.resolve("shard-00.idx")));
+        assertFalse(Files.exists(owner.resolve("labels.txt.tmp")));
+        assertEquals(labelsModified, Files.getLastModifiedTime(owner.resolve("labels.txt")).toMillis());
+
+        Path missing = tempDir.resolve("missing");
+        try (MappedVertexIdIndex share = MappedVertexIdIndex.openReadOnly(missing)) {
+            assertEquals(0, share.size());
+        }
+        assertFalse(Files.exists(missing));
+    }
+}
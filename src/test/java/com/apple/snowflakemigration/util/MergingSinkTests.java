@@ -0,0 +1,81 @@
+package com.apple.snowflakemigration.util;
+
+import com.apple.snowflakemigration.model.ColumnType;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MergingSinkTests {
+
+    @Test
+    void stagedRowsCarryTheirSourceSoTheLastOccurrenceOfAKeyIsMerged() throws Exception {
+        List<String[]> staged = new ArrayList<>();
+        RowSink stagingSink = new RowSink() {
+            @Override
+            public void write(String[] values) {
+                staged.add(values);
+            }
+
+            @Override
+            public void write(String[] values, int offset, int length) {
+                staged.add(Arrays.copyOfRange(values, offset, offset + length));
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        List<String> sql = new ArrayList<>();
+        Statement statement = (Statement) Proxy.newProxyInstance(MergingSinkTests.class.getClassLoader(),
+                new Class<?>[]{Statement.class}, (proxy, method, args) -> switch (method.getName()) {
+                    case "execute" -> {
+                        sql.add((String) args[0]);
+                        yield false;
+                    }
+                    case "executeUpdate" -> {
+                        sql.add((String) args[0]);
+                        yield 1;
+                    }
+                    default -> null;
+                });
+        Connection connection = (Connection) Proxy.newProxyInstance(MergingSinkTests.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, (proxy, method, args) -> method.getName().equals("createStatement") ? statement : null);
+
+        String[] columns = {"id", "name"};
+        MergingSink sink = new MergingSink(connection, "PERSON", "PERSON_DELTA_1", columns, new String[]{"id"}, stagingSink);
+        String[] values = {"x", "x", "v1", "first", "v1", "second"};
+        sink.source("nodes/person-0.json", 7);
+        sink.write(values, 2, 2);
+        sink.source("nodes/person-0.json", 12);
+        sink.write(values, 4, 2);
+        sink.close();
+
+        assertArrayEquals(new String[]{"id", "name", MergingSink.SOURCE_KEY_COLUMN, MergingSink.SOURCE_LINE_COLUMN},
+                MergingSink.stagingColumns(columns));
+        assertArrayEquals(new ColumnType[]{ColumnType.TEXT, ColumnType.TEXT, ColumnType.TEXT, ColumnType.NUMBER},
+                MergingSink.stagingTypes(new ColumnType[]{ColumnType.TEXT, ColumnType.TEXT}));
+        assertArrayEquals(new String[]{"v1", "first", "nodes/person-0.json", "7"}, staged.get(0));
+        assertArrayEquals(new String[]{"v1", "second", "nodes/person-0.json", "12"}, staged.get(1));
+
+        // The row with the highest line of the key is numbered 1, whatever order the staging table returns rows in
+        assertEquals(2, sql.size());
+        assertTrue(sql.get(0).contains(" QUALIFY ROW_NUMBER() OVER (PARTITION BY id ORDER BY MIGRATION_SOURCE_KEY DESC NULLS LAST,"
+                + " MIGRATION_SOURCE_LINE DESC NULLS LAST) = 1"));
+        // The source columns stay in the staging table
+        assertTrue(sql.get(0).startsWith("MERGE INTO PERSON t USING (SELECT id, name FROM PERSON_DELTA_1 "));
+        assertEquals("DROP TABLE IF EXISTS PERSON_DELTA_1", sql.get(1));
+    }
+}
@@ -0,0 +1,33 @@
+package com.apple.snowflakemigration.util;
+
+import com.apple.snowflakemigration.model.ColumnType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class RecordProjectorTests {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void projectsByNameIntoSharedBuffer() throws Exception {
+        RecordProjector projector = new RecordProjector(new String[]{"~id", "name", "age", "tags"},
+                new ColumnType[]{ColumnType.TEXT, ColumnType.TEXT, ColumnType.NUMBER, ColumnType.VARIANT});
+        assertEquals(4, projector.width());
+        assertEquals(2, projector.ordinalOf("age"));
+        assertEquals(-1, projector.ordinalOf("unknown"));
+
+        String[] buffer = new String[8];
+        projector.project(objectMapper.readTree("{\"tags\":[\"a\"],\"age\":7,\"~id\":\"v1\",\"unknown\":1,\"name\":\"x\"}"), buffer, 0);
+        // Values left over from an earlier row must not leak into a sparse record
+        Arrays.fill(buffer, 4, 8, "stale");
+        projector.project(objectMapper.readTree("{\"~id\":\"v2\",\"name\":null}"), buffer, 4);
+
+        assertArrayEquals(new String[]{"v1", "x", "7", "[\"a\"]", "v2", null, null, null}, buffer);
+    }
+
+}
@@ -0,0 +1,80 @@
+package com.apple.snowflakemigration.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class S3ObjectCacheTests {
+
+    @TempDir
+    Path tempDir;
+
+    private final AtomicInteger fetches = new AtomicInteger();
+
+    @Test
+    void readsCachedObjectsAndEvictsTheLeastRecentlyUsed() throws Exception {
+        S3ObjectCache cache = S3ObjectCache.open(tempDir, 250);
+        byte[] a = data(100, 'a');
+        byte[] b = data(100, 'b');
+        byte[] c = data(100, 'c');
+
+        // A read that stops early leaves nothing behind
+        try (InputStream in = open(cache, "nodes/a.json", "e1", a)) {
+            in.readNBytes(10);
+        }
+        assertEquals(0, cache.getFileCount());
+
+        assertArrayEquals(a, read(cache, "nodes/a.json", "e1", a));
+        assertArrayEquals(b, read(cache, "nodes/b.json", "e1", b));
+        assertEquals(3, fetches.get());
+        assertArrayEquals(a, read(cache, "nodes/a.json", "e1", a));
+        assertEquals(3, fetches.get());
+
+        // b is the least recently used and makes room for c
+        assertArrayEquals(c, read(cache, "nodes/c.json", "e1", c));
+        assertEquals(2, cache.getFileCount());
+        assertEquals(200, cache.getSizeBytes());
+        assertFalse(Files.exists(tempDir.resolve(S3ObjectCache.fileName("bucket", "nodes/b.json", "e1"))));
+
+        // A new ETag is a different object
+        assertArrayEquals(b, read(cache, "nodes/a.json", "e2", b));
+        assertEquals(5, fetches.get());
+
+        S3ObjectCache reopened = S3ObjectCache.open(tempDir, 250);
+        assertEquals(2, reopened.getFileCount());
+        assertTrue(Files.list(tempDir).noneMatch(file -> file.toString().endsWith(".part")));
+        assertArrayEquals(b, read(reopened, "nodes/a.json", "e2", b));
+        assertEquals(5, fetches.get());
+    }
+
+    private byte[] read(S3ObjectCache cache, String key, String etag, byte[] data) throws Exception {
+        try (InputStream in = open(cache, key, etag, data)) {
+            return in.readAllBytes();
+        }
+    }
+
+    private InputStream open(S3ObjectCache cache, String key, String etag, byte[] data) throws Exception {
+        return cache.open("bucket", key, etag, (long) data.length, () -> {
+            fetches.incrementAndGet();
+            return new ByteArrayInputStream(data);
+        });
+    }
+
+    private static byte[] data(int length, char value) {
+        byte[] data = new byte[length];
+        Arrays.fill(data, (byte) value);
+        return data;
+    }
+
+}
@@ -0,0 +1,64 @@
+package com.apple.snowflakemigration.util;
+
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.core.ResponseBytes;
+import software.amazon.awssdk.core.async.AsyncResponseTransformer;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class S3RangedInputStreamTests {
+
+    @Test
+    void joinsRangesBackIntoTheOriginalContent() throws Exception {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            content.append("{\"~id\":\"v").append(i).append("\",\"~label\":\"person\"}\n");
+        }
+        byte[] bytes = content.toString().getBytes(StandardCharsets.UTF_8);
+        RangeServingClient client = new RangeServingClient(bytes);
+
+        try (InputStream inputStream = new S3RangedInputStream(client, "bucket", "nodes/person-0.json", "etag",
+                bytes.length, 997, 4)) {
+            assertEquals(content.toString(), new String(inputStream.readAllBytes(), StandardCharsets.UTF_8));
+        }
+        assertEquals((bytes.length + 996) / 997, client.requests.get());
+    }
+
+    private static class RangeServingClient implements S3AsyncClient {
+
+        private final byte[] content;
+        private final AtomicInteger requests = new AtomicInteger();
+
+        RangeServingClient(byte[] content) {
+            this.content = content;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> CompletableFuture<T> getObject(GetObjectRequest request, AsyncResponseTransformer<GetObjectResponse, T> transformer) {
+            requests.incrementAndGet();
+            String[] range = request.range().substring("bytes=".length()).split("-");
+            byte[] part = Arrays.copyOfRange(content, Integer.parseInt(range[0]), Integer.parseInt(range[1]) + 1);
+            return CompletableFuture.supplyAsync(() -> (T) ResponseBytes.fromByteArray(GetObjectResponse.builder().build(), part));
+        }
+
+        @Override
+        public String serviceName() {
+            return "s3";
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+}
@@ -0,0 +1,125 @@
+package com.apple.snowflakemigration.util;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class S3UtilsTests {
+
+    @Test
+    void listFilesFollowsContinuationTokensAcrossParallelRanges() {
+        String folderPrefix = "neptune-export/6cdd7af292a1473ebb062af9cd79d5d8/nodes/";
+        NavigableSet<String> keys = new TreeSet<>();
+        String[] labels = {"-dash", "0zero", "9nine", "Person", "Zebra", "_under", "airport", "country", "route", "zone", "~tilde", "\u00e9t\u00e9"};
+        for (String label : labels) {
+            for (int i = 0; i < 250; i++) {
+                keys.add(folderPrefix + label + "-" + i + ".json");
+            }
+        }
+        keys.add("neptune-export/6cdd7af292a1473ebb062af9cd79d5d8/edges/route-0.json");
+        PagingS3Client client = new PagingS3Client(keys, 100);
+
+        S3Utils s3Utils = new S3Utils();
+        s3Utils.s3Client = client;
+        Set<String> listed = ConcurrentHashMap.newKeySet();
+        AtomicInteger duplicates = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(s3Utils.getListParallelism());
+        long count = s3Utils.listFiles("nodes", executor, object -> {
+            if (!listed.add(object.key())) {
+                duplicates.incrementAndGet();
+            }
+        });
+        // The executor belongs to the caller
+        assertFalse(executor.isShutdown());
+        executor.shutdown();
+
+        assertEquals(labels.length * 250L, count);
+        assertEquals(labels.length * 250, listed.size());
+        assertEquals(0, duplicates.get());
+        assertTrue(client.requests.get() > labels.length * 250 / 100);
+    }
+
+    @Test
+    void forEachRecordFailsOnAMalformedLineInsteadOfEndingTheObjectEarly() {
+        byte[] data = "{\"~id\":\"v1\"}\n{\"~id\": \"broken\n{\"~id\":\"v3\",\"name\":\"late\"}\n".getBytes(StandardCharsets.UTF_8);
+        S3Utils s3Utils = new S3Utils() {
+            @Override
+            public InputStream openObject(S3Object object) {
+                return new ByteArrayInputStream(data);
+            }
+        };
+        List<JsonNode> records = new ArrayList<>();
+
+        IOException error = assertThrows(IOException.class,
+                () -> s3Utils.forEachRecord(S3Object.builder().key("nodes/person-0.json").build(), records::add));
+        assertTrue(error.getMessage().contains("nodes/person-0.json"), error.getMessage());
+        assertEquals(1, records.size());
+    }
+
+    // Serves keys in lexicographic order with a fixed page size, like ListObjectsV2
+    private static class PagingS3Client implements S3Client {
+
+        private final NavigableSet<String> keys;
+        private final int pageSize;
+        private final AtomicInteger requests = new AtomicInteger();
+
+        PagingS3Client(NavigableSet<String> keys, int pageSize) {
+            this.keys = keys;
+            this.pageSize = pageSize;
+        }
+
+        @Override
+        public ListObjectsV2Response listObjectsV2(ListObjectsV2Request request) {
+            requests.incrementAndGet();
+            String after = request.continuationToken() != null ? request.continuationToken() : request.startAfter();
+            NavigableSet<String> remaining = after == null ? keys : keys.tailSet(after, false);
+            List<S3Object> page = new ArrayList<>();
+            for (String key : remaining) {
+                if (!key.startsWith(request.prefix())) {
+                    if (key.compareTo(request.prefix()) > 0) {
+                        break;
+                    }
+                    continue;
+                }
+                if (page.size() == pageSize) {
+                    return ListObjectsV2Response.builder().contents(page).isTruncated(true)
+                            .nextContinuationToken(page.get(page.size() - 1).key()).build();
+                }
+                page.add(S3Object.builder().key(key).size(1L).build());
+            }
+            return ListObjectsV2Response.builder().contents(page).isTruncated(false).build();
+        }
+
+        @Override
+        public String serviceName() {
+            return "s3";
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+}
@@ -0,0 +1,36 @@
+package com.apple.snowflakemigration.util;
+
+import com.apple.snowflakemigration.model.ColumnType;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SchemaChangesTests {
+
+    @Test
+    void createsMissingTablesAndAddsNewColumns() {
+        SchemaCatalog catalog = new SchemaCatalog("VERTEX");
+        catalog.tableCreated("PERSON", new String[]{"ID", "NAME"});
+        catalog.tableCreated("SOFTWARE", new String[]{"ID", "LANG"});
+
+        SchemaChanges changes = new SchemaChanges(catalog);
+        changes.ensureTable("person", new String[]{"id", "name", "age", "tags"},
+                new ColumnType[]{ColumnType.TEXT, ColumnType.TEXT, ColumnType.NUMBER, ColumnType.VARIANT});
+        changes.ensureTable("software", new String[]{"id", "lang"}, null);
+        changes.ensureEdgeTable("created", new String[]{"id", "fromVertex", "toVertex"}, null, "person", "software");
+
+        assertEquals(2, changes.size());
+        assertEquals("ALTER TABLE person ADD COLUMN IF NOT EXISTS age NUMBER(38,0), tags VARIANT", changes.getSql(0));
+        assertEquals("CREATE TABLE IF NOT EXISTS created(id VARCHAR(255) PRIMARY KEY, fromVertex TEXT, toVertex TEXT, "
+                + "FOREIGN KEY (fromVertex) REFERENCES person(id), FOREIGN KEY (toVertex) REFERENCES software(id))", changes.getSql(1));
+
+        changes.applied(0);
+        changes.applied(1);
+        assertTrue(catalog.hasTable("CREATED"));
+        assertEquals(List.of(), catalog.missingColumns("person", new String[]{"ID", "age", "Tags"}));
+    }
+
+}
@@ -0,0 +1,48 @@
+package com.apple.snowflakemigration.util;
+
+import com.apple.snowflakemigration.model.ColumnType;
+import com.apple.snowflakemigration.model.LoadMode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SchemaInferrerTests {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void unionsSparseFieldsAndWidensTypes() throws Exception {
+        SchemaInferrer inferrer = new SchemaInferrer();
+        inferrer.accept(objectMapper.readTree("{\"~id\":\"v1\",\"~label\":\"person\",\"age\":30,\"born\":\"1990-01-02\"}"));
+        inferrer.accept(objectMapper.readTree("{\"~id\":\"v2\",\"~label\":\"person\",\"age\":30.5,\"active\":true,\"nick\":null}"));
+        inferrer.accept(objectMapper.readTree("{\"~id\":\"v3\",\"~label\":\"person\",\"born\":\"2001-05-06T07:08:09Z\",\"tags\":[\"a\",\"b\"]}"));
+
+        assertEquals(3, inferrer.getRecordCount());
+        assertArrayEquals(new String[]{"id", "label", "age", "born", "active", "nick", "tags"}, inferrer.getColumns());
+        assertArrayEquals(new ColumnType[]{ColumnType.TEXT, ColumnType.TEXT, ColumnType.FLOAT, ColumnType.TIMESTAMP,
+                ColumnType.BOOLEAN, ColumnType.TEXT, ColumnType.VARIANT}, inferrer.getTypes());
+        assertEquals("CREATE TABLE person(id VARCHAR(255) PRIMARY KEY, label TEXT, age FLOAT, born TIMESTAMP_TZ, "
+                + "active BOOLEAN, nick TEXT, tags VARIANT)", inferrer.toCreateTableSql("person"));
+
+        String[] values = new RecordProjector(inferrer.getFields(), inferrer.getTypes())
+                .project(objectMapper.readTree("{\"~id\":\"v3\",\"tags\":[\"a\",\"b\"],\"age\":1}"));
+        assertArrayEquals(new String[]{"v3", null, "1", null, null, null, "[\"a\",\"b\"]"}, values);
+    }
+
+    @Test
+    void mixedScalarsFallBackToText() throws Exception {
+        SchemaInferrer inferrer = new SchemaInferrer();
+        inferrer.accept(objectMapper.readTree("{\"code\":1,\"flag\":true}"));
+        inferrer.accept(objectMapper.readTree("{\"code\":\"A1\",\"flag\":[true]}"));
+
+        assertArrayEquals(new ColumnType[]{ColumnType.TEXT, ColumnType.VARIANT}, inferrer.getTypes());
+        assertTrue(SnowflakeUtils.isStagedLoad(LoadMode.INSERT, inferrer.getTypes()));
+        assertThrows(IllegalArgumentException.class,
+                () -> SnowflakeUtils.buildInsertSql("t", inferrer.getColumns(), inferrer.getTypes()));
+    }
+
+}
@@ -0,0 +1,69 @@
+package com.apple.snowflakemigration.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ShardCoordinatorTests {
+
+    @TempDir
+    Path tempDir;
+
+    private final List<String> keys = IntStream.range(0, 40).mapToObj(i -> "nodes/person-" + i + ".json").toList();
+
+    @Test
+    void takesOverTheFilesOfDeadWorkers() throws Exception {
+        try (ShardCoordinator first = ShardCoordinator.open(tempDir, "w1", 60_000, 5_000, 10);
+             ShardCoordinator second = ShardCoordinator.open(tempDir, "w2", 60_000, 5_000, 10)) {
+            // The second worker claims its share in one round and dies before finishing it
+            AtomicInteger rounds = new AtomicInteger();
+            List<String> secondClaims = new ArrayList<>();
+            second.forEachClaimed("load", keys, () -> rounds.getAndIncrement() > 0, secondClaims::add);
+            assertFalse(secondClaims.isEmpty());
+            assertTrue(secondClaims.size() < keys.size());
+            Files.setLastModifiedTime(tempDir.resolve("workers").resolve("w2"), FileTime.fromMillis(System.currentTimeMillis() - 60_000));
+
+            List<String> firstClaims = new ArrayList<>();
+            first.forEachClaimed("load", keys, () -> false, key -> {
+                firstClaims.add(key);
+                try {
+                    first.complete("load", key, "rows=" + key.length());
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+
+            assertEquals(keys.size(), firstClaims.size());
+            assertTrue(firstClaims.containsAll(secondClaims));
+            assertTrue(first.isPhaseDone("load", keys));
+            assertEquals("rows=" + keys.get(3).length(), first.getPayloads("load").get(keys.get(3)));
+        }
+    }
+
+    @Test
+    void retriesReleasedFilesAndGivesUpAfterMaxAttempts() throws Exception {
+        try (ShardCoordinator worker = ShardCoordinator.open(tempDir, "w1", 60_000, 5_000, 10)) {
+            for (int attempt = 1; attempt <= 3; attempt++) {
+                List<String> claims = new ArrayList<>();
+                worker.forEachClaimed("scan", keys, () -> false, claims::add);
+                assertEquals(keys.size(), claims.size());
+                assertFalse(worker.isPhaseDone("scan", keys));
+                worker.releaseUnfinished("scan");
+            }
+            assertTrue(worker.isPhaseDone("scan", keys));
+            assertTrue(worker.getPayloads("scan").isEmpty());
+        }
+    }
+
+}
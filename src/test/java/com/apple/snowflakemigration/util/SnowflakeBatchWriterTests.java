@@ -0,0 +1,105 @@
+package com.apple.snowflakemigration.util;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class SnowflakeBatchWriterTests {
+
+    @TempDir
+    Path dir;
+
+    // Commits a batch only when none of its rows is "bad", fails the first transientFailures batches with a transient error
+    private static class FakeTable {
+        final List<String> committed = new ArrayList<>();
+        int transientFailures;
+        int batches;
+
+        Connection connection() {
+            List<String> batch = new ArrayList<>();
+            String[] row = new String[1];
+            PreparedStatement statement = (PreparedStatement) Proxy.newProxyInstance(getClass().getClassLoader(),
+                    new Class<?>[]{PreparedStatement.class}, (proxy, method, args) -> {
+                        switch (method.getName()) {
+                            case "setString" -> row[0] = (String) args[1];
+                            case "addBatch" -> batch.add(row[0]);
+                            case "clearBatch" -> batch.clear();
+                            case "executeBatch" -> {
+                                batches++;
+                                if (transientFailures > 0) {
+                                    transientFailures--;
+                                    throw new SQLTransientConnectionException("connection reset");
+                                }
+                                if (batch.contains("bad")) {
+                                    throw new SQLException("Numeric value 'bad' is not recognized", "22018");
+                                }
+                                committed.addAll(batch);
+                                return new int[batch.size()];
+                            }
+                            default -> {
+                            }
+                        }
+                        return null;
+                    });
+            return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Connection.class},
+                    (proxy, method, args) -> method.getName().equals("prepareStatement") ? statement : null);
+        }
+    }
+
+    @Test
+    void bisectsFailingBatchAndDeadLettersTheBadRows() throws Exception {
+        FakeTable table = new FakeTable();
+        DeadLetterFile deadLetters = new DeadLetterFile(dir.resolve("dead-letters.ndjson"));
+        SnowflakeBatchWriter writer = new SnowflakeBatchWriter(table.connection(), "PERSON", new String[]{"age"}, null,
+                8, Long.MAX_VALUE, null);
+        writer.setDeadLetters(deadLetters);
+        for (int line = 0; line < 8; line++) {
+            writer.source("nodes/person-1.json", line);
+            writer.write(new String[]{line == 2 || line == 5 ? "bad" : String.valueOf(line)});
+        }
+        writer.close();
+        deadLetters.close();
+        assertEquals(6, writer.getRowsWritten());
+        assertEquals(2, writer.getRowsRejected());
+        assertEquals(List.of("0", "1", "3", "4", "6", "7"), table.committed);
+
+        List<String> lines = Files.readAllLines(deadLetters.getFile());
+        assertEquals(2, lines.size());
+        JsonNode first = new ObjectMapper().readTree(lines.get(0));
+        assertEquals("PERSON", first.get("table").asText());
+        assertEquals("nodes/person-1.json", first.get("key").asText());
+        assertEquals(2, first.get("line").asLong());
+        assertEquals("bad", first.get("values").get("age").asText());
+    }
+
+    @Test
+    void retriesTransientErrorsAndFailsWithoutDeadLetters() throws Exception {
+        FakeTable table = new FakeTable();
+        table.transientFailures = 2;
+        SnowflakeBatchWriter writer = new SnowflakeBatchWriter(table.connection(), "PERSON", new String[]{"age"}, null,
+                4, Long.MAX_VALUE, null);
+        writer.setRetryPolicy(new RetryPolicy(3, 0, 0));
+        writer.write(new String[]{"1"});
+        writer.flush();
+        assertEquals(3, table.batches);
+        assertEquals(List.of("1"), table.committed);
+
+        writer.write(new String[]{"bad"});
+        assertThrows(SQLException.class, writer::flush);
+        assertEquals(List.of("1"), table.committed);
+    }
+}
@@ -0,0 +1,100 @@
+package com.apple.snowflakemigration.util;
+
+import com.apple.snowflakemigration.model.ColumnType;
+import com.apple.snowflakemigration.model.LoadMode;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.lang.reflect.Proxy;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SnowflakeTableStageTests {
+
+    @TempDir
+    Path tempDir;
+
+    // Records the SQL every statement of the connection runs or prepares
+    private static Connection recordingConnection(List<String> sql) {
+        Statement statement = (Statement) Proxy.newProxyInstance(SnowflakeTableStageTests.class.getClassLoader(),
+                new Class<?>[]{Statement.class}, (proxy, method, args) -> switch (method.getName()) {
+                    case "execute" -> {
+                        sql.add((String) args[0]);
+                        yield false;
+                    }
+                    default -> null;
+                });
+        PreparedStatement prepared = (PreparedStatement) Proxy.newProxyInstance(SnowflakeTableStageTests.class.getClassLoader(),
+                new Class<?>[]{PreparedStatement.class}, (proxy, method, args) -> null);
+        return (Connection) Proxy.newProxyInstance(SnowflakeTableStageTests.class.getClassLoader(), new Class<?>[]{Connection.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "createStatement" -> statement;
+                    case "prepareStatement" -> {
+                        sql.add((String) args[0]);
+                        yield prepared;
+                    }
+                    default -> null;
+                });
+    }
+
+    @Test
+    void variantTablesLoadWithOneCopyThatAbortsOnAnyError() throws Exception {
+        String[] columns = {"id", "tags"};
+        ColumnType[] types = {ColumnType.TEXT, ColumnType.VARIANT};
+        List<String> sql = new ArrayList<>();
+
+        // The batch writer only prepares the array bound VALUES form, a VARIANT table is staged instead
+        assertTrue(SnowflakeUtils.isStagedLoad(LoadMode.INSERT, types));
+        assertFalse(SnowflakeUtils.isStagedLoad(LoadMode.INSERT, new ColumnType[]{ColumnType.TEXT, ColumnType.NUMBER}));
+        new SnowflakeBatchWriter(recordingConnection(sql), "PERSON", columns, null, 10, Long.MAX_VALUE, null);
+        assertEquals(List.of("INSERT INTO PERSON (id, tags) VALUES (?, ?)"), sql);
+        assertThrows(IllegalArgumentException.class,
+                () -> new SnowflakeBatchWriter(recordingConnection(sql), "PERSON", columns, types, 10, Long.MAX_VALUE, null));
+
+        sql.clear();
+        new SnowflakeTableStage(recordingConnection(sql), 4, null, RetryPolicy.NONE).load("PERSON", columns, types);
+        assertEquals(1, sql.size());
+        assertTrue(sql.get(0).startsWith("COPY INTO PERSON (id, tags) FROM (SELECT $1, PARSE_JSON($2) FROM @%PERSON/"), sql.get(0));
+        assertTrue(sql.get(0).contains("ON_ERROR = ABORT_STATEMENT"), sql.get(0));
+    }
+
+    @Test
+    void sinksOfOneTableOnlyLoadAndPurgeTheirOwnChunks() throws Exception {
+        String[] columns = {"id", "name"};
+        List<String> firstSql = new ArrayList<>();
+        List<String> secondSql = new ArrayList<>();
+        SnowflakeTableStage firstStage = new SnowflakeTableStage(recordingConnection(firstSql), 4);
+        SnowflakeTableStage secondStage = new SnowflakeTableStage(recordingConnection(secondSql), 4);
+        assertNotEquals(firstStage.location("PERSON"), secondStage.location("PERSON"));
+
+        GzipCsvChunkWriter first = new GzipCsvChunkWriter(firstStage, "PERSON", columns, tempDir, 1);
+        try (GzipCsvChunkWriter second = new GzipCsvChunkWriter(secondStage, "PERSON", columns, tempDir, 1)) {
+            first.write(new String[]{"v1", "a"});
+            second.write(new String[]{"v2", "b"});
+            first.write(new String[]{"v3", "c"});
+            // The first sink commits while the second one still has a chunk in the stage
+            first.close();
+            second.write(new String[]{"v4", "d"});
+        }
+
+        for (List<String> sql : List.of(firstSql, secondSql)) {
+            String location = (sql == firstSql ? firstStage : secondStage).location("PERSON");
+            List<String> puts = sql.stream().filter(statement -> statement.startsWith("PUT ")).toList();
+            assertEquals(2, puts.size());
+            puts.forEach(put -> assertTrue(put.contains("' " + location + " "), put));
+            String copy = sql.get(sql.size() - 1);
+            assertTrue(copy.startsWith("COPY INTO PERSON (id, name) FROM " + location + " "), copy);
+            assertTrue(copy.contains("PURGE = TRUE"), copy);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.apple.snowflakemigration.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SyncStateTests {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void onlyReportsNewAndChangedObjects() throws Exception {
+        Path file = tempDir.resolve("sync/state.tsv");
+        try (SyncState state = SyncState.open(file)) {
+            assertTrue(state.isChanged(object("nodes/person-0.json", "e1", 1000)));
+            assertTrue(state.isChanged(object("nodes/person-1.json", "e1", 1000)));
+            assertTrue(state.isChanged(object("nodes/person-2.json", null, 1000)));
+            state.markSynced("nodes/person-0.json");
+            state.markSynced("nodes/person-2.json");
+            // person-1 failed to load and stays changed
+        }
+        // A crash in the middle of an append
+        Files.writeString(file, "nodes/person-3.json\te1\t10", StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+
+        try (SyncState state = SyncState.open(file)) {
+            assertEquals(2, state.getSyncedCount());
+            assertFalse(state.isChanged(object("nodes/person-0.json", "e1", 2000)));
+            assertTrue(state.isChanged(object("nodes/person-0.json", "e2", 1000)));
+            assertTrue(state.isChanged(object("nodes/person-1.json", "e1", 1000)));
+            assertTrue(state.isChanged(object("nodes/person-3.json", "e1", 10)));
+            // Without an ETag only a newer object counts as changed
+            assertFalse(state.isChanged(object("nodes/person-2.json", null, 1000)));
+            assertTrue(state.isChanged(object("nodes/person-2.json", null, 1001)));
+
+            Path share = tempDir.resolve("sync/worker-2.tsv");
+            Files.writeString(share, "nodes/person-1.json\te1\t1000\n", StandardCharsets.UTF_8);
+            state.readShare(share);
+            assertFalse(state.isChanged(object("nodes/person-1.json", "e1", 1000)));
+        }
+    }
+
+    @Test
+    void buildsMergeOnKeyColumns() {
+        assertEquals("MERGE INTO knows t USING (SELECT id, fromVertex, toVertex, since FROM knows_DELTA_1"
+                        + " QUALIFY ROW_NUMBER() OVER (PARTITION BY id, fromVertex"
+                        + " ORDER BY MIGRATION_SOURCE_KEY DESC NULLS LAST, MIGRATION_SOURCE_LINE DESC NULLS LAST) = 1) s"
+                        + " ON t.id = s.id AND t.fromVertex = s.fromVertex"
+                        + " WHEN MATCHED THEN UPDATE SET t.toVertex = s.toVertex, t.since = s.since"
+                        + " WHEN NOT MATCHED THEN INSERT (id, fromVertex, toVertex, since) VALUES (s.id, s.fromVertex, s.toVertex, s.since)",
+                SnowflakeUtils.buildMergeSql("knows", "knows_DELTA_1", new String[]{"id", "fromVertex", "toVertex", "since"},
+                        new String[]{"id", "fromVertex"}));
+    }
+
+    private static S3Object object(String key, String etag, long lastModified) {
+        return S3Object.builder().key(key).eTag(etag).lastModified(Instant.ofEpochMilli(lastModified)).build();
+    }
+
+}